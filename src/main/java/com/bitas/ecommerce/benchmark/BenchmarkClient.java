@@ -0,0 +1,75 @@
+package com.bitas.ecommerce.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal blocking HTTP/1.1 client used by the benchmarks.
+ * Only understands Content-Length framed responses, which is all this server sends
+ * for the routes the benchmarks hit.
+ */
+public class BenchmarkClient {
+
+    private BenchmarkClient() {
+    }
+
+    /**
+     * Write a GET request without a body.
+     */
+    public static void sendGet(OutputStream out, String host, String path, boolean keepAlive) throws IOException {
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + host + "\r\n" +
+                "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+                "\r\n";
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    /**
+     * Read one response and return its status code. The body is consumed and discarded.
+     */
+    public static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+
+        int contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colonPos = line.indexOf(':');
+            if (colonPos > 0 && line.substring(0, colonPos).trim().equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(line.substring(colonPos + 1).trim());
+            }
+        }
+
+        long remaining = contentLength;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Connection closed inside response body");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Connection closed inside response head");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,105 @@
+package com.bitas.ecommerce.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures throughput and p99 latency at several levels of concurrent clients.
+ * Every client is a virtual thread holding one keep-alive connection, so 10k clients are cheap
+ * on the load generator side. Start the server with the server.executor mode to compare, then run:
+ * java com.bitas.ecommerce.benchmark.ConcurrencyBenchmark [host] [port] [path] [seconds] [clients...]
+ */
+public class ConcurrencyBenchmark {
+    private static final int MAX_SAMPLES = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        String path = args.length > 2 ? args[2] : "/api/v1/products";
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int[] levels = args.length > 4
+                ? Arrays.stream(args, 4, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{100, 1_000, 10_000};
+
+        System.out.println("Target http://" + host + ":" + port + path + ", " + seconds + "s per level");
+        System.out.println("   clients      req/s    p50 ms    p99 ms   errors");
+        for (int clients : levels) {
+            Result result = run(host, port, path, clients, seconds);
+            System.out.printf("%9d %10.1f %9.2f %9.2f %8d%n",
+                    clients, result.throughput, result.p50Ms, result.p99Ms, result.errors);
+        }
+    }
+
+    static Result run(String host, int port, String path, int clients, int seconds) throws InterruptedException {
+        LongAdder errors = new LongAdder();
+        LongAdder completed = new LongAdder();
+        long[] latencies = new long[MAX_SAMPLES];
+        AtomicInteger recorded = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int i = 0; i < clients; i++) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        try (Socket socket = new Socket(host, port)) {
+                            socket.setTcpNoDelay(true);
+                            InputStream in = new BufferedInputStream(socket.getInputStream());
+                            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                            while (System.nanoTime() < deadline) {
+                                long start = System.nanoTime();
+                                BenchmarkClient.sendGet(out, host, path, true);
+                                BenchmarkClient.readResponse(in);
+                                int slot = recorded.getAndIncrement();
+                                if (slot < latencies.length) {
+                                    latencies[slot] = System.nanoTime() - start;
+                                }
+                                completed.increment();
+                            }
+                        } catch (IOException e) {
+                            errors.increment();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = Arrays.copyOf(latencies, Math.min(recorded.get(), latencies.length));
+        Arrays.sort(all);
+
+        Result result = new Result();
+        result.throughput = completed.sum() / elapsedSeconds;
+        result.p50Ms = percentile(all, 0.50) / 1e6;
+        result.p99Ms = percentile(all, 0.99) / 1e6;
+        result.errors = errors.sum();
+        return result;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    static class Result {
+        double throughput;
+        double p50Ms;
+        double p99Ms;
+        long errors;
+    }
+}
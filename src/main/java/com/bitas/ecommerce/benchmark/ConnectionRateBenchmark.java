@@ -0,0 +1,134 @@
+package com.bitas.ecommerce.benchmark;
+
+import com.bitas.ecommerce.server.Acceptor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many new connections per second can be accepted with 1, 2, 4, ... acceptors.
+ * Each round binds a fresh set of {@link Acceptor}s on an ephemeral port and answers every connection
+ * with a canned response from the acceptor thread, so the number is dominated by accept() and not by
+ * request handling. Clients open one connection per request (Connection: close).
+ * java com.bitas.ecommerce.benchmark.ConnectionRateBenchmark [clients] [seconds] [acceptor counts, e.g. 1,2,4,8]
+ */
+public class ConnectionRateBenchmark {
+    private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n" +
+            "Content-Type: application/json\r\n" +
+            "Content-Length: 2\r\n" +
+            "Connection: close\r\n" +
+            "\r\n" +
+            "{}").getBytes(StandardCharsets.ISO_8859_1);
+
+    public static void main(String[] args) throws Exception {
+        int cpu = Runtime.getRuntime().availableProcessors();
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : cpu * 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String counts = args.length > 2 ? args[2] : defaultCounts(cpu);
+
+        System.out.println(clients + " clients, " + seconds + "s per round, " + cpu + " cores");
+
+        double baseline = 0;
+        for (String count : counts.split(",")) {
+            int acceptors = Integer.parseInt(count.trim());
+            double rate = run(acceptors, clients, seconds);
+            if (baseline == 0) {
+                baseline = rate;
+            }
+            System.out.printf("%3d acceptors : %10.1f conn/s  (%.2fx)%n", acceptors, rate, rate / baseline);
+        }
+    }
+
+    private static String defaultCounts(int cpu) {
+        StringBuilder counts = new StringBuilder("1");
+        for (int n = 2; n <= cpu; n *= 2) {
+            counts.append(',').append(n);
+        }
+        return counts.toString();
+    }
+
+    private static double run(int acceptorCount, int clients, int seconds) throws IOException, InterruptedException {
+        ServerSocketChannel[] channels = Acceptor.open(0, acceptorCount);
+        int port = ((InetSocketAddress) channels[0].getLocalAddress()).getPort();
+        List<Acceptor> acceptors = Acceptor.startAll(channels, ConnectionRateBenchmark::respond);
+        long[] acceptedBefore = new long[acceptors.size()];
+        for (int i = 0; i < acceptors.size(); i++) {
+            acceptedBefore[i] = acceptors.get(i).getAccepted();
+        }
+
+        LongAdder completed = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try (Socket socket = new Socket("localhost", port)) {
+                        socket.setTcpNoDelay(true);
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                        BenchmarkClient.sendGet(out, "localhost", "/", false);
+                        BenchmarkClient.readResponse(in);
+                        completed.increment();
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                }
+            }, "bench-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        for (Acceptor acceptor : acceptors) {
+            acceptor.stop();
+        }
+        Acceptor.close(channels);
+        for (Acceptor acceptor : acceptors) {
+            acceptor.join();
+        }
+
+        StringBuilder spread = new StringBuilder();
+        for (int i = 0; i < acceptors.size(); i++) {
+            spread.append(i == 0 ? "" : " / ").append(acceptors.get(i).getAccepted() - acceptedBefore[i]);
+        }
+        System.out.println("  accepted per acceptor: " + spread
+                + (errors.sum() > 0 ? ", " + errors.sum() + " failed connections" : ""));
+        return completed.sum() / elapsedSeconds;
+    }
+
+    /**
+     * Read the request (one small packet) and answer. The server closes first, so TIME_WAIT stays on
+     * the server side and the clients do not run out of ephemeral ports.
+     */
+    private static void respond(SocketChannel channel) {
+        try (channel) {
+            // Unread request bytes would turn the close into a reset
+            channel.read(ByteBuffer.allocate(1024));
+            ByteBuffer response = ByteBuffer.wrap(RESPONSE);
+            while (response.hasRemaining()) {
+                channel.write(response);
+            }
+        } catch (IOException e) {
+            // Client gave up, nothing to answer
+        }
+    }
+}
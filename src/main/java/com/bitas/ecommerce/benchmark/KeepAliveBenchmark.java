@@ -0,0 +1,78 @@
+package com.bitas.ecommerce.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares requests/sec of close-per-request against persistent (keep-alive) connections.
+ * Run against a started server:
+ * java com.bitas.ecommerce.benchmark.KeepAliveBenchmark [host] [port] [path] [clients] [seconds]
+ */
+public class KeepAliveBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        String path = args.length > 2 ? args[2] : "/api/v1/products";
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        System.out.println("Target http://" + host + ":" + port + path + ", " + clients + " clients, " + seconds + "s per mode");
+
+        double closeRate = run(host, port, path, clients, seconds, false);
+        System.out.printf("close-per-request : %10.1f req/s%n", closeRate);
+
+        double keepAliveRate = run(host, port, path, clients, seconds, true);
+        System.out.printf("keep-alive        : %10.1f req/s%n", keepAliveRate);
+
+        System.out.printf("speedup           : %10.2fx%n", keepAliveRate / closeRate);
+    }
+
+    private static double run(String host, int port, String path, int clients, int seconds, boolean keepAlive)
+            throws InterruptedException {
+        LongAdder completed = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try (Socket socket = new Socket(host, port)) {
+                        socket.setTcpNoDelay(true);
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                        do {
+                            BenchmarkClient.sendGet(out, host, path, keepAlive);
+                            BenchmarkClient.readResponse(in);
+                            completed.increment();
+                        } while (keepAlive && System.nanoTime() < deadline);
+                    } catch (IOException e) {
+                        // Server closed a keep-alive connection (max requests reached), reconnect
+                        errors.increment();
+                    }
+                }
+            }, "bench-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        if (errors.sum() > 0) {
+            System.out.println("  (" + errors.sum() + " connections dropped by the server)");
+        }
+        return completed.sum() / elapsedSeconds;
+    }
+}
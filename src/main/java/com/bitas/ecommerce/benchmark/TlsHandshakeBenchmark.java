@@ -0,0 +1,159 @@
+package com.bitas.ecommerce.benchmark;
+
+import com.bitas.ecommerce.server.tls.TlsSettings;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares full and resumed TLS handshakes against a running server (server.engine=nio,
+ * server.tls.enabled=true). Every request is on a new connection (Connection: close); in the full round
+ * each client forgets its session after every connection, in the resumed round it keeps it, so all but
+ * the first handshake of each client resume. The client trusts the certificate of the server's keystore,
+ * which is generated first when missing (what server.tls.self-signed=true does on the server side).
+ * java com.bitas.ecommerce.benchmark.TlsHandshakeBenchmark [host] [port] [seconds] [clients] [protocol] [keystore] [password]
+ */
+public class TlsHandshakeBenchmark {
+    private static final int MAX_SAMPLES = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        String protocol = args.length > 4 ? args[4] : "TLSv1.3";
+        Path keystore = Paths.get(args.length > 5 ? args[5] : "config/keystore.p12");
+        char[] password = (args.length > 6 ? args[6] : "changeit").toCharArray();
+
+        if (!Files.exists(keystore)) {
+            TlsSettings.generateSelfSigned(keystore, "PKCS12", password);
+            System.out.println("Start the server with server.tls.enabled=true and server.tls.keystore=" + keystore
+                    + ", then run the benchmark again");
+            return;
+        }
+
+        System.out.println("Target https://" + host + ":" + port + ", " + protocol + ", " + clients + " clients, "
+                + seconds + "s per round");
+        System.out.println("   handshakes   conn/s   hs p50 ms  hs p99 ms   resumed   errors");
+        for (boolean resume : new boolean[]{false, true}) {
+            Result result = run(keystore, password, host, port, protocol, clients, seconds, resume);
+            System.out.printf("%12s %8.1f %11.2f %10.2f %8.1f%% %8d%n",
+                    resume ? "resumed" : "full", result.rate, result.p50Ms, result.p99Ms,
+                    result.resumedPercent, result.errors);
+        }
+    }
+
+    /**
+     * A client context trusting the certificates of the keystore. Each client has its own, so its session
+     * cache holds only its own sessions.
+     */
+    private static SSLContext clientContext(Path keystore, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keystore)) {
+            store.load(in, password);
+        }
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    private static Result run(Path keystore, char[] password, String host, int port, String protocol, int clients,
+                              int seconds, boolean resume) throws InterruptedException, IOException,
+            GeneralSecurityException {
+        LongAdder completed = new LongAdder();
+        LongAdder resumed = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long[] latencies = new long[MAX_SAMPLES];
+        AtomicInteger recorded = new AtomicInteger();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            SSLContext context = clientContext(keystore, password);
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(host, port)) {
+                        socket.setTcpNoDelay(true);
+                        socket.setEnabledProtocols(new String[]{protocol});
+                        long startMillis = System.currentTimeMillis();
+                        long start = System.nanoTime();
+                        socket.startHandshake();
+                        long elapsed = System.nanoTime() - start;
+
+                        BenchmarkClient.sendGet(new BufferedOutputStream(socket.getOutputStream()), host,
+                                "/api/v1/metrics", false);
+                        BenchmarkClient.readResponse(new BufferedInputStream(socket.getInputStream()));
+
+                        SSLSession session = socket.getSession();
+                        // A resumed session was created by an earlier handshake
+                        if (session.getCreationTime() < startMillis) {
+                            resumed.increment();
+                        }
+                        if (!resume) {
+                            session.invalidate();
+                        }
+                        int slot = recorded.getAndIncrement();
+                        if (slot < latencies.length) {
+                            latencies[slot] = elapsed;
+                        }
+                        completed.increment();
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                }
+            }, "bench-tls-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = Arrays.copyOf(latencies, Math.min(recorded.get(), latencies.length));
+        Arrays.sort(all);
+
+        Result result = new Result();
+        result.rate = completed.sum() / elapsedSeconds;
+        result.p50Ms = percentile(all, 0.50) / 1e6;
+        result.p99Ms = percentile(all, 0.99) / 1e6;
+        result.resumedPercent = completed.sum() == 0 ? 0 : resumed.sum() * 100.0 / completed.sum();
+        result.errors = errors.sum();
+        return result;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    static class Result {
+        double rate;
+        double p50Ms;
+        double p99Ms;
+        double resumedPercent;
+        long errors;
+    }
+}
@@ -0,0 +1,131 @@
+package com.bitas.ecommerce.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares request latency over loopback TCP and over the Unix domain socket, against a server listening
+ * on both (server.unix-socket.path set, server.unix-socket.only=false). Each client holds one keep-alive
+ * connection and sends the same request in a loop; both transports go through the same blocking
+ * SocketChannel code on the client side, so the difference is the kernel path. A short warm-up per
+ * transport is not measured. Raise server.keepalive.max-requests, connections the server closes are
+ * reopened but counted as errors.
+ * java com.bitas.ecommerce.benchmark.UnixSocketBenchmark [host] [port] [socket path] [seconds] [clients] [path]
+ */
+public class UnixSocketBenchmark {
+    private static final int MAX_SAMPLES = 2_000_000;
+    private static final int WARM_UP_SECONDS = 2;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        String socketPath = args.length > 2 ? args[2] : "/run/ecommerce/http.sock";
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int clients = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        String path = args.length > 5 ? args[5] : "/api/v1/metrics";
+
+        SocketAddress tcp = new InetSocketAddress(host, port);
+        SocketAddress unix = UnixDomainSocketAddress.of(socketPath);
+
+        System.out.println("Target " + path + " over tcp://" + host + ":" + port + " and unix:" + socketPath + ", "
+                + clients + " clients, " + seconds + "s per transport");
+        System.out.println(" transport      req/s    p50 us    p99 us   errors");
+        for (SocketAddress address : new SocketAddress[]{tcp, unix}) {
+            run(address, host, path, clients, WARM_UP_SECONDS);
+            Result result = run(address, host, path, clients, seconds);
+            System.out.printf("%10s %10.1f %9.1f %9.1f %8d%n",
+                    address == tcp ? "tcp" : "unix", result.throughput, result.p50Us, result.p99Us, result.errors);
+        }
+    }
+
+    private static SocketChannel connect(SocketAddress address) throws IOException {
+        if (address instanceof UnixDomainSocketAddress) {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(address);
+            return channel;
+        }
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return channel;
+    }
+
+    static Result run(SocketAddress address, String host, String path, int clients, int seconds)
+            throws InterruptedException {
+        LongAdder errors = new LongAdder();
+        LongAdder completed = new LongAdder();
+        long[] latencies = new long[MAX_SAMPLES];
+        AtomicInteger recorded = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        try (SocketChannel channel = connect(address)) {
+                            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+                            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                            while (System.nanoTime() < deadline) {
+                                long start = System.nanoTime();
+                                BenchmarkClient.sendGet(out, host, path, true);
+                                BenchmarkClient.readResponse(in);
+                                int slot = recorded.getAndIncrement();
+                                if (slot < latencies.length) {
+                                    latencies[slot] = System.nanoTime() - start;
+                                }
+                                completed.increment();
+                            }
+                        } catch (IOException e) {
+                            errors.increment();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-uds-" + i);
+            thread.start();
+        }
+
+        long start = System.nanoTime();
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = Arrays.copyOf(latencies, Math.min(recorded.get(), latencies.length));
+        Arrays.sort(all);
+
+        Result result = new Result();
+        result.throughput = completed.sum() / elapsedSeconds;
+        result.p50Us = percentile(all, 0.50) / 1e3;
+        result.p99Us = percentile(all, 0.99) / 1e3;
+        result.errors = errors.sum();
+        return result;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    static class Result {
+        double throughput;
+        double p50Us;
+        double p99Us;
+        long errors;
+    }
+}
@@ -1,6 +1,7 @@
 package com.bitas.ecommerce.controller;
 
 import com.bitas.ecommerce.service.AuthService;
+import com.bitas.ecommerce.server.http.HttpResponse;
 import com.bitas.ecommerce.utils.JsonUtil;
 
 import java.util.HashMap;
@@ -15,7 +16,7 @@ public class AuthController {
         this.jsonUtil = new JsonUtil();
     }
 
-    public String login(String requestBody) {
+    public HttpResponse login(String requestBody) {
         try {
             Map<String, String> body = jsonUtil.fromJson(requestBody, Map.class);
             String username = body.get("username");
@@ -23,7 +24,7 @@ public class AuthController {
             String token = authService.login(username, password);
             Map<String, String> response = new HashMap<>();
             response.put("token", token);
-            return jsonUtil.toJson(response);
+            return HttpResponse.ok(jsonUtil.toJson(response));
         } catch (IllegalArgumentException e) {
             return createErrorResponse(401, e.getMessage());
         } catch (Exception e) {
@@ -31,30 +32,30 @@ public class AuthController {
         }
     }
 
-    public String getMe(Map<String, String> headers) {
+    public HttpResponse getMe(Map<String, String> headers) {
         try {
             String token = headers.getOrDefault("Authorization", "").replace("Bearer ", "");
             return authService.getMe(token)
-                    .map(jsonUtil::toJson)
+                    .map(user -> HttpResponse.ok(jsonUtil.toJson(user)))
                     .orElse(createErrorResponse(404, "User not found"));
         } catch (Exception e) {
             return createErrorResponse(401, "Invalid or expired token");
         }
     }
 
-    public String logout(Map<String, String> headers) {
+    public HttpResponse logout(Map<String, String> headers) {
         String token = headers.getOrDefault("Authorization", "").replace("Bearer ", "");
         boolean result = authService.logout(token);
         Map<String, Object> response = new HashMap<>();
         response.put("success", result);
-        return jsonUtil.toJson(response);
+        return HttpResponse.ok(jsonUtil.toJson(response));
     }
 
-    private String createErrorResponse(int status, String message) {
+    private HttpResponse createErrorResponse(int status, String message) {
         Map<String, Object> error = new HashMap<>();
         error.put("status", status);
         error.put("error", message);
-        return jsonUtil.toJson(error);
+        return new HttpResponse(status, jsonUtil.toJson(error));
     }
 }
 
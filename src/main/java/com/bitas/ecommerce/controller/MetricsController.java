@@ -0,0 +1,27 @@
+package com.bitas.ecommerce.controller;
+
+import com.bitas.ecommerce.server.http.HttpResponse;
+import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+/**
+ * Controller class exposing the in-process server metrics.
+ */
+public class MetricsController {
+    private final Metrics metrics;
+    private final JsonUtil jsonUtil;
+
+    public MetricsController(Metrics metrics) {
+        this.metrics = metrics;
+        this.jsonUtil = new JsonUtil();
+    }
+
+    /**
+     * Handle GET request for all metrics
+     *
+     * @return JSON object of metric name to value
+     */
+    public HttpResponse getMetrics() {
+        return HttpResponse.ok(jsonUtil.toJson(metrics.snapshot()));
+    }
+}
@@ -1,22 +1,39 @@
 package com.bitas.ecommerce.controller;
 
 import com.bitas.ecommerce.model.Product;
+import com.bitas.ecommerce.server.http.HeaderNames;
+import com.bitas.ecommerce.server.http.HttpResponse;
+import com.bitas.ecommerce.server.http.ResponseSink;
+import com.bitas.ecommerce.service.ProductChangeFeed;
 import com.bitas.ecommerce.service.ProductService;
+import com.bitas.ecommerce.utils.AppConfig;
 import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.database.DeadlineExceededException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller class for handling product-related HTTP requests.
  * Maps HTTP requests to service methods and formats responses.
  */
 public class ProductController {
+    private static final int MAX_EVENTS_PER_FLUSH = 64;
+
     private final ProductService productService;
     private final JsonUtil jsonUtil;
+    private final ProductChangeFeed changeFeed = ProductChangeFeed.getInstance();
+    private final long heartbeatSeconds = AppConfig.getLong("server.sse.heartbeat-seconds", 15);
+    private final long retryMs = AppConfig.getLong("server.sse.retry-ms", 3000);
 
     /**
      * Constructor with ProductService dependency
@@ -29,19 +46,16 @@ public class ProductController {
     /**
      * Handle GET request for a product by ID
      *
-     * @param requestBody JSON request body containing product ID
+     * @param id Product ID from the path
      * @return JSON response with product data or error message
      */
-    public String getProduct(String requestBody) {
-        Map<String, Object> bodyMap = jsonUtil.fromJson(requestBody, Map.class);
-        String id = bodyMap.get("id") != null ? bodyMap.get("id").toString() : "undefined";
-
+    public HttpResponse getProduct(String id) {
         try {
             Long productId = Long.parseLong(id);
             Optional<Product> productOpt = productService.getProductById(productId);
 
             if (productOpt.isPresent()) {
-                return jsonUtil.toJson(productOpt.get());
+                return HttpResponse.ok(jsonUtil.toJson(productOpt.get()));
             } else {
                 return createErrorResponse(404, "Product not found with ID: " + id);
             }
@@ -58,27 +72,151 @@ public class ProductController {
      * @param category Category to search for
      * @return JSON response with list of products
      */
-    public String getProductsByCategory(String category) {
+    public HttpResponse getProductsByCategory(String category) {
         try {
             List<Product> products = productService.getProductsByCategory(category);
-            return jsonUtil.toJson(products);
+            return HttpResponse.ok(jsonUtil.toJson(products));
         } catch (Exception e) {
             return createErrorResponse(500, "Error retrieving products by category: " + e.getMessage());
         }
     }
 
     /**
-     * Handle GET request for all products
+     * Handle GET request for all products.
+     * The JSON array is streamed row by row, the catalog is never held in memory as a whole.
      *
-     * @return JSON response with list of products
+     * @param sink Response body
      */
-    public String getAllProducts() {
+    public void getAllProducts(ResponseSink sink) throws IOException {
         try {
-            List<Product> products = productService.getAllProducts();
-            return jsonUtil.toJson(products);
+            int[] count = {0};
+            sink.write("[");
+            productService.forEachProduct(product -> {
+                if (count[0]++ > 0) {
+                    sink.write(",");
+                }
+                sink.write(jsonUtil.toJson(product));
+            });
+            sink.write("]");
+        } catch (DeadlineExceededException e) {
+            // Answered 504 by the router, or the connection is dropped once part of the list is out
+            throw e;
         } catch (Exception e) {
-            return createErrorResponse(500, "Error retrieving products: " + e.getMessage());
+            if (sink.isCommitted()) {
+                // Part of the list is already out, the connection is dropped to signal the failure
+                throw new IOException("Error streaming products: " + e.getMessage(), e);
+            }
+            sink.reset();
+            sink.setStatus(500);
+            sink.write(createErrorResponse(500, "Error retrieving products: " + e.getMessage()).getBody());
+        }
+    }
+
+    /**
+     * Handle GET request for the stream of product changes (Server-Sent Events).
+     * The query selects what to follow: ids=1,2 and/or category=a,b, everything when both are absent.
+     * A reconnecting client's Last-Event-ID is answered with the events it missed, or with a reset event
+     * when they are no longer known. Comments are sent as heartbeats, so a client that went away is
+     * noticed and its subscription dropped.
+     * <p>
+     * The stream holds its worker for as long as the client stays (server.executor=virtual makes that
+     * cheap). Where the body cannot be sent before the action returns (HTTP/2), only the missed events
+     * are sent and the client reconnects after the retry delay.
+     *
+     * @param path    Request path with its query
+     * @param headers Request headers
+     * @param sink    Response body
+     */
+    public void streamChanges(String path, Map<String, String> headers, ResponseSink sink) throws IOException {
+        ProductChangeFeed.Filter filter;
+        try {
+            filter = parseFilter(path);
+        } catch (NumberFormatException e) {
+            sink.setStatus(400);
+            sink.write(createErrorResponse(400, "Invalid product ID format").getBody());
+            return;
+        }
+
+        try (ProductChangeFeed.Subscription subscription =
+                     changeFeed.subscribe(filter, headers.get(HeaderNames.LAST_EVENT_ID))) {
+            if (subscription == null) {
+                sink.setStatus(503);
+                sink.setHeader("Retry-After", String.valueOf(Math.max(1, retryMs / 1000)));
+                sink.write(createErrorResponse(503, "Too many subscribers").getBody());
+                return;
+            }
+            sink.setHeader(HeaderNames.CONTENT_TYPE, "text/event-stream; charset=utf-8");
+            sink.setHeader(HeaderNames.CACHE_CONTROL, "no-cache");
+            sink.write("retry: " + retryMs + "\n\n");
+            if (subscription.needsReset()) {
+                // What the client shows may be stale, it reloads and carries on from the current event
+                writeEvent(sink, subscription.getResetId(), "reset", "{}");
+            }
+            for (ProductChangeFeed.Event event : subscription.replay()) {
+                writeEvent(sink, event.getId(), event.getType(), event.getData());
+            }
+            sink.flush();
+            if (sink.isBuffered()) {
+                return;
+            }
+
+            while (true) {
+                ProductChangeFeed.Event event = subscription.poll(heartbeatSeconds, TimeUnit.SECONDS);
+                if (subscription.isOverflowed()) {
+                    // The client fell behind; it reconnects and catches up from the replay buffer
+                    return;
+                }
+                if (event == null) {
+                    sink.write(": ping\n\n");
+                } else {
+                    // Whatever else is queued goes out in the same chunk
+                    int count = 0;
+                    do {
+                        writeEvent(sink, event.getId(), event.getType(), event.getData());
+                    } while (++count < MAX_EVENTS_PER_FLUSH && (event = subscription.poll(0, TimeUnit.SECONDS)) != null);
+                }
+                sink.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeEvent(ResponseSink sink, long id, String type, String data) throws IOException {
+        // Every line of a multi-line payload needs its own data field
+        sink.write("id: " + id + "\nevent: " + type + "\ndata: " + data.replace("\n", "\ndata: ") + "\n\n");
+    }
+
+    /**
+     * Read ids and category from the query.
+     *
+     * @throws NumberFormatException for an id that is not a number
+     */
+    private static ProductChangeFeed.Filter parseFilter(String path) {
+        Set<Long> ids = new HashSet<>();
+        Set<String> categories = new HashSet<>();
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            for (String parameter : path.substring(query + 1).split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    continue;
+                }
+                String name = parameter.substring(0, equals);
+                for (String value : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8).split(",")) {
+                    value = value.trim();
+                    if (value.isEmpty()) {
+                        continue;
+                    }
+                    if (name.equals("ids")) {
+                        ids.add(Long.parseLong(value));
+                    } else if (name.equals("category")) {
+                        categories.add(value);
+                    }
+                }
+            }
         }
+        return new ProductChangeFeed.Filter(ids, categories);
     }
 
     /**
@@ -87,11 +225,11 @@ public class ProductController {
      * @param requestBody JSON request body with product data
      * @return JSON response with created product or error message
      */
-    public String createProduct(String requestBody) {
+    public HttpResponse createProduct(String requestBody) {
         try {
             Product product = jsonUtil.fromJson(requestBody, Product.class);
             Product createdProduct = productService.createProduct(product);
-            return jsonUtil.toJson(createdProduct);
+            return HttpResponse.created(jsonUtil.toJson(createdProduct));
         } catch (IllegalArgumentException e) {
             return createErrorResponse(400, e.getMessage());
         } catch (Exception e) {
@@ -106,12 +244,12 @@ public class ProductController {
      * @param requestBody JSON request body with updated product data
      * @return JSON response with updated product or error message
      */
-    public String updateProduct(String id, String requestBody) {
+    public HttpResponse updateProduct(String id, String requestBody) {
         try {
             Long productId = Long.parseLong(id);
             Product product = jsonUtil.fromJson(requestBody, Product.class);
             Product updatedProduct = productService.updateProduct(productId, product);
-            return jsonUtil.toJson(updatedProduct);
+            return HttpResponse.ok(jsonUtil.toJson(updatedProduct));
         } catch (NumberFormatException e) {
             return createErrorResponse(400, "Invalid product ID format");
         } catch (IllegalArgumentException e) {
@@ -127,7 +265,7 @@ public class ProductController {
      * @param id Product ID
      * @return JSON response with success or error message
      */
-    public String deleteProduct(String id) {
+    public HttpResponse deleteProduct(String id) {
         try {
             Long productId = Long.parseLong(id);
             boolean deleted = productService.deleteProduct(productId);
@@ -135,7 +273,7 @@ public class ProductController {
             if (deleted) {
                 Map<String, String> response = new HashMap<>();
                 response.put("message", "Product deleted successfully");
-                return jsonUtil.toJson(response);
+                return HttpResponse.ok(jsonUtil.toJson(response));
             } else {
                 return createErrorResponse(404, "Product not found with ID: " + id);
             }
@@ -153,7 +291,7 @@ public class ProductController {
      * @param requestBody JSON request body with stock quantity data
      * @return JSON response with updated product or error message
      */
-    public String updateStockQuantity(String id, String requestBody) {
+    public HttpResponse updateStockQuantity(String id, String requestBody) {
         try {
             Long productId = Long.parseLong(id);
             Map<String, Object> data = jsonUtil.fromJson(requestBody, Map.class);
@@ -164,7 +302,7 @@ public class ProductController {
 
             int quantity = ((Number) data.get("stockQuantity")).intValue();
             Product updatedProduct = productService.updateStockQuantity(productId, quantity);
-            return jsonUtil.toJson(updatedProduct);
+            return HttpResponse.ok(jsonUtil.toJson(updatedProduct));
         } catch (NumberFormatException e) {
             return createErrorResponse(400, "Invalid product ID or stock quantity format");
         } catch (IllegalArgumentException e) {
@@ -181,7 +319,7 @@ public class ProductController {
      * @param requestBody JSON request body with price data
      * @return JSON response with updated product or error message
      */
-    public String updatePrice(String id, String requestBody) {
+    public HttpResponse updatePrice(String id, String requestBody) {
         try {
             Long productId = Long.parseLong(id);
             Map<String, Object> data = jsonUtil.fromJson(requestBody, Map.class);
@@ -199,7 +337,7 @@ public class ProductController {
             }
 
             Product updatedProduct = productService.updatePrice(productId, price);
-            return jsonUtil.toJson(updatedProduct);
+            return HttpResponse.ok(jsonUtil.toJson(updatedProduct));
         } catch (NumberFormatException e) {
             return createErrorResponse(400, "Invalid product ID or price format");
         } catch (IllegalArgumentException e) {
@@ -216,10 +354,10 @@ public class ProductController {
      * @param message    Error message
      * @return JSON string with error details
      */
-    private String createErrorResponse(int statusCode, String message) {
+    private HttpResponse createErrorResponse(int statusCode, String message) {
         Map<String, Object> error = new HashMap<>();
         error.put("status", statusCode);
         error.put("error", message);
-        return jsonUtil.toJson(error);
+        return new HttpResponse(statusCode, jsonUtil.toJson(error));
     }
 }
\ No newline at end of file
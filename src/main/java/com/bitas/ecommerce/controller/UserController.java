@@ -1,11 +1,14 @@
 package com.bitas.ecommerce.controller;
 
 import com.bitas.ecommerce.model.User;
+import com.bitas.ecommerce.server.http.HttpResponse;
+import com.bitas.ecommerce.server.http.ResponseSink;
 import com.bitas.ecommerce.service.UserService;
 import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.database.DeadlineExceededException;
 
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -28,20 +31,16 @@ public class UserController {
     /**
      * Handle GET request for a user by ID
      *
-     * @param requestBody User ID
+     * @param id User ID from the path
      * @return JSON response with user data or error message
      */
-    public String getUser(String requestBody) {
-
-        Map<String, Object> bodyMap = jsonUtil.fromJson(requestBody, Map.class);
-        String id = bodyMap.get("id") != null ? bodyMap.get("id").toString() : null;
-
+    public HttpResponse getUser(String id) {
         try {
             Long userId = Long.parseLong(id);
             Optional<User> userOpt = userService.getUserById(userId);
 
             if (userOpt.isPresent()) {
-                return jsonUtil.toJson(userOpt.get());
+                return HttpResponse.ok(jsonUtil.toJson(userOpt.get()));
             } else {
                 return createErrorResponse(404, "User not found with ID: " + id);
             }
@@ -53,16 +52,32 @@ public class UserController {
     }
 
     /**
-     * Handle GET request for all users
+     * Handle GET request for all users.
+     * The JSON array is streamed row by row.
      *
-     * @return JSON response with list of users
+     * @param sink Response body
      */
-    public String getAllUsers() {
+    public void getAllUsers(ResponseSink sink) throws IOException {
         try {
-            List<User> users = userService.getAllUsers();
-            return jsonUtil.toJson(users);
+            int[] count = {0};
+            sink.write("[");
+            userService.forEachUser(user -> {
+                if (count[0]++ > 0) {
+                    sink.write(",");
+                }
+                sink.write(jsonUtil.toJson(user));
+            });
+            sink.write("]");
+        } catch (DeadlineExceededException e) {
+            // Answered 504 by the router, or the connection is dropped once part of the list is out
+            throw e;
         } catch (Exception e) {
-            return createErrorResponse(500, "Error retrieving users: " + e.getMessage());
+            if (sink.isCommitted()) {
+                throw new IOException("Error streaming users: " + e.getMessage(), e);
+            }
+            sink.reset();
+            sink.setStatus(500);
+            sink.write(createErrorResponse(500, "Error retrieving users: " + e.getMessage()).getBody());
         }
     }
 
@@ -72,11 +87,11 @@ public class UserController {
      * @param requestBody JSON request body with user data
      * @return JSON response with created user or error message
      */
-    public String createUser(String requestBody) {
+    public HttpResponse createUser(String requestBody) {
         try {
             User user = jsonUtil.fromJson(requestBody, User.class);
             User createdUser = userService.createUser(user);
-            return jsonUtil.toJson(createdUser);
+            return HttpResponse.created(jsonUtil.toJson(createdUser));
         } catch (IllegalArgumentException e) {
             return createErrorResponse(400, e.getMessage());
         } catch (Exception e) {
@@ -91,12 +106,12 @@ public class UserController {
      * @param requestBody JSON request body with updated user data
      * @return JSON response with updated user or error message
      */
-    public String updateUser(String id, String requestBody) {
+    public HttpResponse updateUser(String id, String requestBody) {
         try {
             Long userId = Long.parseLong(id);
             User user = jsonUtil.fromJson(requestBody, User.class);
             User updatedUser = userService.updateUser(userId, user);
-            return jsonUtil.toJson(updatedUser);
+            return HttpResponse.ok(jsonUtil.toJson(updatedUser));
         } catch (NumberFormatException e) {
             return createErrorResponse(400, "Invalid user ID format");
         } catch (IllegalArgumentException e) {
@@ -112,7 +127,7 @@ public class UserController {
      * @param id User ID
      * @return JSON response with success or error message
      */
-    public String deleteUser(String id) {
+    public HttpResponse deleteUser(String id) {
         try {
             Long userId = Long.parseLong(id);
             boolean deleted = userService.deleteUser(userId);
@@ -120,7 +135,7 @@ public class UserController {
             if (deleted) {
                 Map<String, String> response = new HashMap<>();
                 response.put("message", "User deleted successfully");
-                return jsonUtil.toJson(response);
+                return HttpResponse.ok(jsonUtil.toJson(response));
             } else {
                 return createErrorResponse(404, "User not found with ID: " + id);
             }
@@ -137,7 +152,7 @@ public class UserController {
      * @param requestBody JSON request body with username and password
      * @return JSON response with authenticated user or error message
      */
-    public String authenticateUser(String requestBody) {
+    public HttpResponse authenticateUser(String requestBody) {
         try {
             Map<String, String> credentials = jsonUtil.fromJson(requestBody, Map.class);
             String username = credentials.get("username");
@@ -153,7 +168,7 @@ public class UserController {
                 User user = userOpt.get();
                 // Don't include password in response
                 user.setPassword(null);
-                return jsonUtil.toJson(user);
+                return HttpResponse.ok(jsonUtil.toJson(user));
             } else {
                 return createErrorResponse(401, "Invalid username or password");
             }
@@ -169,11 +184,11 @@ public class UserController {
      * @param message    Error message
      * @return JSON string with error details
      */
-    private String createErrorResponse(int statusCode, String message) {
+    private HttpResponse createErrorResponse(int statusCode, String message) {
         Map<String, Object> error = new HashMap<>();
         error.put("status", statusCode);
         error.put("error", message);
-        return jsonUtil.toJson(error);
+        return new HttpResponse(statusCode, jsonUtil.toJson(error));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package com.bitas.ecommerce.functional;
+
+import java.io.IOException;
+
+/**
+ * Receives rows one at a time while a query result is being read.
+ *
+ * @param <T> the type of the row
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+
+    /**
+     * Handles one row.
+     *
+     * @param row the current row
+     * @throws IOException when the row cannot be passed on (client went away)
+     */
+    void handle(T row) throws IOException;
+}
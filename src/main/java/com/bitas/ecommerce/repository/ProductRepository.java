@@ -1,8 +1,11 @@
 package com.bitas.ecommerce.repository;
 
+import com.bitas.ecommerce.functional.RowHandler;
 import com.bitas.ecommerce.model.Product;
 import com.bitas.ecommerce.utils.database.ConnectionPool;
+import com.bitas.ecommerce.utils.database.RequestDeadline;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -14,6 +17,8 @@ import java.util.Optional;
  * Handles database operations related to products.
  */
 public class ProductRepository {
+    // Rows fetched per round trip when streaming a table
+    private static final int ROW_FETCH_SIZE = 256;
 
     /**
      * Find product by ID
@@ -26,16 +31,20 @@ public class ProductRepository {
         String sql = "SELECT * FROM products WHERE id = ?";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-
-            stmt.setLong(1, id);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                Product product = mapResultSetToProduct(rs);
-                return Optional.of(product);
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setLong(1, id);
+                ResultSet rs = stmt.executeQuery();
+
+                if (rs.next()) {
+                    Product product = mapResultSetToProduct(rs);
+                    return Optional.of(product);
+                }
+            } finally {
+                watch.cancel();
             }
-
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error finding product by ID: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -55,16 +64,20 @@ public class ProductRepository {
         String sql = "SELECT * FROM products WHERE category = ?";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-
-            stmt.setString(1, category);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                Product product = mapResultSetToProduct(rs);
-                products.add(product);
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setString(1, category);
+                ResultSet rs = stmt.executeQuery();
+
+                while (rs.next()) {
+                    Product product = mapResultSetToProduct(rs);
+                    products.add(product);
+                }
+            } finally {
+                watch.cancel();
             }
-
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error finding products by category: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -82,15 +95,18 @@ public class ProductRepository {
         List<Product> products = new ArrayList<>();
         String sql = "SELECT * FROM products";
         Connection connection =  ConnectionPool.getConnection();
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                Product product = mapResultSetToProduct(rs);
-                products.add(product);
+        try (Statement stmt = connection.createStatement()) {
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    Product product = mapResultSetToProduct(rs);
+                    products.add(product);
+                }
+            } finally {
+                watch.cancel();
             }
-
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error finding all products: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -99,6 +115,73 @@ public class ProductRepository {
         return products;
     }
 
+    /**
+     * Read all products one row at a time, without building a list.
+     * The connection stays borrowed until the last row has been handled.
+     *
+     * @param handler Called for every product in result order
+     * @throws SQLException when the query fails
+     * @throws IOException  when the handler fails to pass a row on
+     */
+    public void forEach(RowHandler<Product> handler) throws SQLException, IOException {
+        String sql = "SELECT * FROM products";
+        Connection connection =  ConnectionPool.getConnection();
+        try (Statement stmt = connection.createStatement()) {
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setFetchSize(ROW_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        handler.handle(mapResultSetToProduct(rs));
+                    }
+                }
+            } finally {
+                watch.cancel();
+            }
+        } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
+            throw e;
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Version of the catalog or of one category: row count, highest id and latest updated_at.
+     * Every insert, update and delete changes it, so it stands in for the list when computing an ETag
+     * without reading the rows.
+     *
+     * @param category Category, null for all products
+     * @return The version, empty when the query fails
+     */
+    public Optional<String> findVersion(String category) {
+        String sql = "SELECT COUNT(*), MAX(id), MAX(updated_at) FROM products"
+                + (category != null ? " WHERE category = ?" : "");
+        Connection connection =  ConnectionPool.getConnection();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                if (category != null) {
+                    stmt.setString(1, category);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return Optional.of(rs.getLong(1) + "/" + rs.getLong(2) + "/" + rs.getTimestamp(3));
+                    }
+                }
+            } finally {
+                watch.cancel();
+            }
+        } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
+            System.err.println("Error finding product version: " + e.getMessage());
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return Optional.empty();
+    }
+
     /**
      * Save a new product or update an existing one
      *
@@ -125,33 +208,37 @@ public class ProductRepository {
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-            LocalDateTime now = LocalDateTime.now();
-
-            stmt.setString(1, product.getName());
-            stmt.setString(2, product.getDescription());
-            stmt.setBigDecimal(3, product.getPrice());
-            stmt.setInt(4, product.getStockQuantity());
-            stmt.setString(5, product.getCategory());
-            stmt.setString(6, product.getImageUrl());
-            stmt.setBoolean(7, product.isActive());
-            stmt.setTimestamp(8, Timestamp.valueOf(now));
-            stmt.setTimestamp(9, Timestamp.valueOf(now));
-
-            int affectedRows = stmt.executeUpdate();
-
-            if (affectedRows > 0) {
-                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        product.setId(generatedKeys.getLong(1));
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                LocalDateTime now = LocalDateTime.now();
+
+                stmt.setString(1, product.getName());
+                stmt.setString(2, product.getDescription());
+                stmt.setBigDecimal(3, product.getPrice());
+                stmt.setInt(4, product.getStockQuantity());
+                stmt.setString(5, product.getCategory());
+                stmt.setString(6, product.getImageUrl());
+                stmt.setBoolean(7, product.isActive());
+                stmt.setTimestamp(8, Timestamp.valueOf(now));
+                stmt.setTimestamp(9, Timestamp.valueOf(now));
+
+                int affectedRows = stmt.executeUpdate();
+
+                if (affectedRows > 0) {
+                    try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                        if (generatedKeys.next()) {
+                            product.setId(generatedKeys.getLong(1));
+                        }
                     }
                 }
-            }
-
-            product.setCreatedAt(now);
-            product.setUpdatedAt(now);
 
+                product.setCreatedAt(now);
+                product.setUpdatedAt(now);
+            } finally {
+                watch.cancel();
+            }
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error inserting product: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -165,6 +252,7 @@ public class ProductRepository {
      *
      * @param product Product to update
      * @return Updated product
+     * @throws IllegalStateException when the update failed
      */
     private Product update(Product product) {
         String sql = "UPDATE products SET name = ?, description = ?, price = ?, " +
@@ -172,25 +260,31 @@ public class ProductRepository {
                 "updated_at = ? WHERE id = ?";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-
-            LocalDateTime now = LocalDateTime.now();
-
-            stmt.setString(1, product.getName());
-            stmt.setString(2, product.getDescription());
-            stmt.setBigDecimal(3, product.getPrice());
-            stmt.setInt(4, product.getStockQuantity());
-            stmt.setString(5, product.getCategory());
-            stmt.setString(6, product.getImageUrl());
-            stmt.setBoolean(7, product.isActive());
-            stmt.setTimestamp(8, Timestamp.valueOf(now));
-            stmt.setLong(9, product.getId());
-
-            stmt.executeUpdate();
-
-            product.setUpdatedAt(now);
-
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                LocalDateTime now = LocalDateTime.now();
+
+                stmt.setString(1, product.getName());
+                stmt.setString(2, product.getDescription());
+                stmt.setBigDecimal(3, product.getPrice());
+                stmt.setInt(4, product.getStockQuantity());
+                stmt.setString(5, product.getCategory());
+                stmt.setString(6, product.getImageUrl());
+                stmt.setBoolean(7, product.isActive());
+                stmt.setTimestamp(8, Timestamp.valueOf(now));
+                stmt.setLong(9, product.getId());
+
+                stmt.executeUpdate();
+
+                product.setUpdatedAt(now);
+            } finally {
+                watch.cancel();
+            }
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error updating product: " + e.getMessage());
+            // Not written: the caller must not answer (or publish) the change as if it were
+            throw new IllegalStateException("Error updating product: " + e.getMessage(), e);
         } finally {
             ConnectionPool.releaseConnection(connection);
         }
@@ -208,13 +302,17 @@ public class ProductRepository {
         String sql = "DELETE FROM products WHERE id = ?";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-
-            stmt.setLong(1, id);
-            int affectedRows = stmt.executeUpdate();
-
-            return affectedRows > 0;
-
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setLong(1, id);
+                int affectedRows = stmt.executeUpdate();
+
+                return affectedRows > 0;
+            } finally {
+                watch.cancel();
+            }
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error deleting product: " + e.getMessage());
             return false;
         } finally {
@@ -1,8 +1,11 @@
 package com.bitas.ecommerce.repository;
 
+import com.bitas.ecommerce.functional.RowHandler;
 import com.bitas.ecommerce.model.User;
 import com.bitas.ecommerce.utils.database.ConnectionPool;
+import com.bitas.ecommerce.utils.database.RequestDeadline;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,6 +16,9 @@ import java.util.Optional;
  * Handles database operations related to users.
  */
 public class UserRepository {
+    // Rows fetched per round trip when streaming a table
+    private static final int ROW_FETCH_SIZE = 256;
+
     /**
      * Find user by ID
      *
@@ -24,16 +30,20 @@ public class UserRepository {
         String sql = "SELECT * FROM users WHERE id = ?";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-
-            stmt.setLong(1, id);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                User user = mapResultSetToUser(rs);
-                return Optional.of(user);
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setLong(1, id);
+                ResultSet rs = stmt.executeQuery();
+
+                if (rs.next()) {
+                    User user = mapResultSetToUser(rs);
+                    return Optional.of(user);
+                }
+            } finally {
+                watch.cancel();
             }
-
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error finding user by ID: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -54,14 +64,20 @@ public class UserRepository {
 
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                User user = mapResultSetToUser(rs);
-                return Optional.of(user);
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setString(1, username);
+                ResultSet rs = stmt.executeQuery();
+
+                if (rs.next()) {
+                    User user = mapResultSetToUser(rs);
+                    return Optional.of(user);
+                }
+            } finally {
+                watch.cancel();
             }
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error finding user by username: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -80,15 +96,18 @@ public class UserRepository {
         String sql = "SELECT * FROM users";
         Connection connection =  ConnectionPool.getConnection();
 
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                User user = mapResultSetToUser(rs);
-                users.add(user);
+        try (Statement stmt = connection.createStatement()) {
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    User user = mapResultSetToUser(rs);
+                    users.add(user);
+                }
+            } finally {
+                watch.cancel();
             }
-
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error finding all users: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -97,6 +116,37 @@ public class UserRepository {
         return users;
     }
 
+    /**
+     * Read all users one row at a time, without building a list.
+     * The connection stays borrowed until the last row has been handled.
+     *
+     * @param handler Called for every user in result order
+     * @throws SQLException when the query fails
+     * @throws IOException  when the handler fails to pass a row on
+     */
+    public void forEach(RowHandler<User> handler) throws SQLException, IOException {
+        String sql = "SELECT * FROM users";
+        Connection connection =  ConnectionPool.getConnection();
+        try (Statement stmt = connection.createStatement()) {
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setFetchSize(ROW_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        handler.handle(mapResultSetToUser(rs));
+                    }
+                }
+            } finally {
+                watch.cancel();
+            }
+        } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
+            throw e;
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+    }
+
     /**
      * Save a new user or update an existing one
      *
@@ -122,24 +172,29 @@ public class UserRepository {
                 "VALUES (?, ?, ?, ?, ?, ?)";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, user.getUsername());
-            stmt.setString(2, user.getEmail());
-            stmt.setString(3, user.getPassword());
-            stmt.setString(4, user.getFullName());
-            stmt.setString(5, user.getRole());
-            stmt.setBoolean(6, user.isActive());
-
-            int affectedRows = stmt.executeUpdate();
-
-            if (affectedRows > 0) {
-                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        user.setId(generatedKeys.getLong(1));
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setString(1, user.getUsername());
+                stmt.setString(2, user.getEmail());
+                stmt.setString(3, user.getPassword());
+                stmt.setString(4, user.getFullName());
+                stmt.setString(5, user.getRole());
+                stmt.setBoolean(6, user.isActive());
+
+                int affectedRows = stmt.executeUpdate();
+
+                if (affectedRows > 0) {
+                    try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                        if (generatedKeys.next()) {
+                            user.setId(generatedKeys.getLong(1));
+                        }
                     }
                 }
+            } finally {
+                watch.cancel();
             }
-
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error inserting user: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -159,18 +214,22 @@ public class UserRepository {
                 "full_name = ?, role = ?, active = ? WHERE id = ?";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-
-            stmt.setString(1, user.getUsername());
-            stmt.setString(2, user.getEmail());
-            stmt.setString(3, user.getPassword());
-            stmt.setString(4, user.getFullName());
-            stmt.setString(5, user.getRole());
-            stmt.setBoolean(6, user.isActive());
-            stmt.setLong(7, user.getId());
-
-            stmt.executeUpdate();
-
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setString(1, user.getUsername());
+                stmt.setString(2, user.getEmail());
+                stmt.setString(3, user.getPassword());
+                stmt.setString(4, user.getFullName());
+                stmt.setString(5, user.getRole());
+                stmt.setBoolean(6, user.isActive());
+                stmt.setLong(7, user.getId());
+
+                stmt.executeUpdate();
+            } finally {
+                watch.cancel();
+            }
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error updating user: " + e.getMessage());
         } finally {
             ConnectionPool.releaseConnection(connection);
@@ -189,12 +248,17 @@ public class UserRepository {
         String sql = "DELETE FROM users WHERE id = ?";
         Connection connection =  ConnectionPool.getConnection();
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-
-            stmt.setLong(1, id);
-            int affectedRows = stmt.executeUpdate();
-
-            return affectedRows > 0;
+            RequestDeadline.Watch watch = RequestDeadline.watch(stmt);
+            try {
+                stmt.setLong(1, id);
+                int affectedRows = stmt.executeUpdate();
+
+                return affectedRows > 0;
+            } finally {
+                watch.cancel();
+            }
         } catch (SQLException e) {
+            RequestDeadline.rethrowIfExpired(e);
             System.err.println("Error deleting user: " + e.getMessage());
             return false;
         } finally {
@@ -4,6 +4,8 @@ import com.bitas.ecommerce.controller.AuthController;
 import com.bitas.ecommerce.repository.UserRepository;
 import com.bitas.ecommerce.service.UserService;
 import com.bitas.ecommerce.service.AuthService;
+import com.bitas.ecommerce.utils.database.Bulkhead;
+import com.bitas.ecommerce.utils.database.ConcurrencyLimiter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -13,12 +15,16 @@ public class AuthRoutes {
     private static final UserService userService = new UserService(userRepository);
     private static final AuthService authService = new AuthService(userService);
     private static final AuthController authController = new AuthController(authService);
+    // Password hashing and token lookups run here, so a login storm stays off the catalog's threads and limit
+    private static final Bulkhead auth = Bulkhead.of("auth");
+    private static final ConcurrencyLimiter authLimiter = ConcurrencyLimiter.of("auth");
 
     public static List<Router.Route> getRoutes() {
         List<Router.Route> routes = new ArrayList<>();
-        routes.add(new Router.Route("POST", "/auth/login", (path, body, headers) -> authController.login(body)));
-        routes.add(new Router.Route("GET", "/auth/me", (path, body, headers) -> authController.getMe(headers)));
-        routes.add(new Router.Route("POST", "/auth/logout", (path, body, headers) -> authController.logout(headers)));
+        routes.add(new Router.Route("POST", "/auth/login", (path, body, headers) -> authController.login(body)).limitedBy(authLimiter).bulkhead(auth));
+        routes.add(new Router.Route("GET", "/auth/me", (path, body, headers) -> authController.getMe(headers))
+                .cacheControl("private, no-store").limitedBy(authLimiter).bulkhead(auth));
+        routes.add(new Router.Route("POST", "/auth/logout", (path, body, headers) -> authController.logout(headers)).bulkhead(auth));
         return routes;
     }
 }
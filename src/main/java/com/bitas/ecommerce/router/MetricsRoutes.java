@@ -0,0 +1,17 @@
+package com.bitas.ecommerce.router;
+
+import com.bitas.ecommerce.controller.MetricsController;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricsRoutes {
+    private static final MetricsController metricsController = new MetricsController(Metrics.getInstance());
+
+    public static List<Router.Route> getRoutes() {
+        List<Router.Route> routes = new ArrayList<>();
+        routes.add(new Router.Route("GET", "/metrics", (path, body, headers) -> metricsController.getMetrics())
+                .cacheControl("no-store"));
+        return routes;
+    }
+}
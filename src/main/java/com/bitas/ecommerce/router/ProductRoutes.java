@@ -2,42 +2,72 @@ package com.bitas.ecommerce.router;
 
 import com.bitas.ecommerce.controller.ProductController;
 import com.bitas.ecommerce.repository.ProductRepository;
+import com.bitas.ecommerce.server.http.ETags;
 import com.bitas.ecommerce.service.ProductService;
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.database.Bulkhead;
+import com.bitas.ecommerce.utils.database.ConcurrencyLimiter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 public class ProductRoutes {
     private static final ProductRepository productRepository = new ProductRepository();
     private static final ProductService productService = new ProductService(productRepository);
     private static final ProductController productController = new ProductController(productService);
+    // Browsing and catalog edits get their own threads, connections and limits, so neither can starve the other
+    private static final Bulkhead catalogRead = Bulkhead.of("catalog-read");
+    private static final Bulkhead catalogWrite = Bulkhead.of("catalog-write");
+    private static final ConcurrencyLimiter catalogReadLimiter = ConcurrencyLimiter.of("catalog-read");
+    private static final ConcurrencyLimiter catalogWriteLimiter = ConcurrencyLimiter.of("catalog-write");
 
     public static List<Router.Route> getRoutes() {
         List<Router.Route> routes = new ArrayList<>();
-        routes.add(new Router.Route("GET", "/products", (path, body, headers) -> productController.getAllProducts()));
-        routes.add(new Router.Route("GET", "/products/:id", (path, body, headers) -> productController.getProduct(body)));
-        routes.add(new Router.Route("POST", "/products", (path, body, headers) -> productController.createProduct(body)));
+        // The list is tagged from a version query, so a matching If-None-Match never reads the catalog
+        routes.add(new Router.Route("GET", "/products", (path, body, headers, sink) -> productController.getAllProducts(sink))
+                .etag((path, headers) -> productService.getCatalogVersion().map(ETags::of).orElse(null))
+                .cacheControl(AppConfig.get("server.cache-control.products", "public, max-age=30"))
+                .limitedBy(catalogReadLimiter).bulkhead(catalogRead));
+        // Server-Sent Events of product changes, ahead of /products/:id which would match it too
+        routes.add(new Router.Route("GET", Pattern.compile("/products/stream(\\?.*)?"),
+                (path, body, headers, sink) -> productController.streamChanges(path, headers, sink)));
+        // Reads run on the catalog-read bulkhead, the request worker is free while they wait for a connection
+        routes.add(new Router.Route("GET", "/products/:id", (path, body, headers) -> {
+            String id = path.split("/")[2];
+            return productController.getProduct(id);
+        }).etagFromBody().cacheControl(AppConfig.get("server.cache-control.product", "public, max-age=60"))
+                .timeout(AppConfig.getLong("server.request-timeout.catalog-ms", 5000))
+                .limitedBy(catalogReadLimiter).bulkhead(catalogRead));
+        routes.add(new Router.Route("POST", "/products", (path, body, headers) -> productController.createProduct(body))
+                .limitedBy(catalogWriteLimiter).bulkhead(catalogWrite));
         routes.add(new Router.Route("PUT", "/products/:id", (path, body, headers) -> {
             String id = path.split("/")[2];
             return productController.updateProduct(id, body);
-        }));
+        }).limitedBy(catalogWriteLimiter).bulkhead(catalogWrite));
         routes.add(new Router.Route("DELETE", "/products/:id", (path, body, headers) -> {
             String id = path.split("/")[2];
             return productController.deleteProduct(id);
-        }));
+        }).limitedBy(catalogWriteLimiter).bulkhead(catalogWrite));
         routes.add(new Router.Route("PATCH", "/products/:id/stock", (path, body, headers) -> {
             String id = path.split("/")[2];
             return productController.updateStockQuantity(id, body);
-        }));
+        }).limitedBy(catalogWriteLimiter).bulkhead(catalogWrite));
         routes.add(new Router.Route("PATCH", "/products/:id/price", (path, body, headers) -> {
             String id = path.split("/")[2];
             return productController.updatePrice(id, body);
-        }));
+        }).limitedBy(catalogWriteLimiter).bulkhead(catalogWrite));
         routes.add(new Router.Route("GET", "/products/category/:category", (path, body, headers) -> {
             String[] parts = path.split("/");
             String category = parts.length > 3 ? parts[3] : "";
             return productController.getProductsByCategory(category);
-        }));
+        }).etag((path, headers) -> {
+            String[] parts = path.split("/");
+            String category = parts.length > 3 ? parts[3] : "";
+            return productService.getCategoryVersion(category).map(ETags::of).orElse(null);
+        }).cacheControl(AppConfig.get("server.cache-control.category", "public, max-age=30"))
+                .timeout(AppConfig.getLong("server.request-timeout.catalog-ms", 5000))
+                .limitedBy(catalogReadLimiter).bulkhead(catalogRead));
         return routes;
     }
 }
@@ -1,12 +1,33 @@
 package com.bitas.ecommerce.router;
 
 import com.bitas.ecommerce.functional.TriFunction;
+import com.bitas.ecommerce.server.http.BufferedResponseSink;
+import com.bitas.ecommerce.server.http.ETags;
+import com.bitas.ecommerce.server.http.HeaderNames;
+import com.bitas.ecommerce.server.http.HttpResponse;
+import com.bitas.ecommerce.server.http.ResponseSink;
+import com.bitas.ecommerce.utils.AppConfig;
 import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.database.Bulkhead;
+import com.bitas.ecommerce.utils.database.ConcurrencyLimiter;
+import com.bitas.ecommerce.utils.database.DeadlineExceededException;
+import com.bitas.ecommerce.utils.database.RequestDeadline;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
@@ -19,12 +40,14 @@ public class Router {
     private static Router instance;
     private final JsonUtil jsonUtil;
     private final List<Route> routes = new ArrayList<>();
+    private final int retryAfterSeconds;
 
     /**
      * Private constructor to prevent instantiation.
      */
     private Router() {
         this.jsonUtil = JsonUtil.getInstance();
+        this.retryAfterSeconds = AppConfig.getInt("server.admission.retry-after-seconds", 1);
     }
 
     /**
@@ -48,49 +71,222 @@ public class Router {
         routes.addAll(UserRoutes.getRoutes());
         routes.addAll(ProductRoutes.getRoutes());
         routes.addAll(AuthRoutes.getRoutes());
+        routes.addAll(MetricsRoutes.getRoutes());
     }
 
-    public String handleRequest(String method, String path, Map<String, String> headers, String body) {
+    /**
+     * Find the route for a request.
+     *
+     * @return The matching route, or null when there is none
+     */
+    public Route findRoute(String method, String path) {
+        for (Route route : routes) {
+            if (route.matches(method, path)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    public HttpResponse handleRequest(String method, String path, Map<String, String> headers, String body) {
         try {
-            for (Route route : routes) {
-                if (route.matches(method, path)) {
-                    return route.execute(path, body, headers);
-                }
+            Route route = findRoute(method, path);
+            if (route != null) {
+                return route.respond(path, body, headers);
             }
             return createNotFoundResponse(method, path);
         } catch (Exception e) {
-            return createErrorResponse(500, "Internal Server Error: " + e.getMessage());
+            return errorFor(e);
         }
     }
 
+    /**
+     * Route a request without waiting for routes on a bulkhead; the others run on the calling thread and
+     * return a completed stage. The stage never completes exceptionally, failures become error responses.
+     */
+    public CompletionStage<HttpResponse> handleRequestAsync(String method, String path, Map<String, String> headers,
+                                                           String body) {
+        CompletionStage<HttpResponse> response;
+        try {
+            Route route = findRoute(method, path);
+            if (route == null) {
+                return CompletableFuture.completedFuture(createNotFoundResponse(method, path));
+            }
+            response = route.respondAsync(path, body, headers);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(errorFor(e));
+        }
+        return response.exceptionally(this::errorFor);
+    }
 
-    private String createNotFoundResponse(String method, String path) {
+    /**
+     * 503 when the work was refused by a full executor, 504 when the request's deadline passed,
+     * 500 for anything else.
+     */
+    private HttpResponse errorFor(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException) {
+            return createErrorResponse(503, "Service Unavailable").header("Retry-After", String.valueOf(retryAfterSeconds));
+        }
+        if (cause instanceof DeadlineExceededException || cause instanceof TimeoutException) {
+            return createErrorResponse(504, "Gateway Timeout");
+        }
+        return createErrorResponse(500, "Internal Server Error: " + cause.getMessage());
+    }
+
+
+    private HttpResponse createNotFoundResponse(String method, String path) {
         Map<String, Object> error = new HashMap<>();
         error.put("status", 404);
         error.put("error", "Not Found");
         error.put("message", "No route found for " + method + " " + path);
-        return jsonUtil.toJson(error);
+        return new HttpResponse(404, jsonUtil.toJson(error));
     }
 
-    private String createErrorResponse(int statusCode, String message) {
+    private HttpResponse createErrorResponse(int statusCode, String message) {
         Map<String, Object> error = new HashMap<>();
         error.put("status", statusCode);
         error.put("error", message);
-        return jsonUtil.toJson(error);
+        return new HttpResponse(statusCode, jsonUtil.toJson(error));
     }
 
-    // Route class to encapsulate route information
+    /**
+     * Action of a route that writes its body to a {@link ResponseSink} instead of returning it.
+     */
+    @FunctionalInterface
+    public interface StreamingAction {
+        void apply(String path, String body, Map<String, String> headers, ResponseSink sink) throws IOException;
+    }
+
+    // Route class to encapsulate route information.
+    // Actions get the path below /api/v1, so /products/5 for /api/v1/products/5.
     public static class Route {
+        private static final String API_BASE_PATH = "/api/v1";
 
         private final String method;
         private final Object pathMatcher; // Can be String or Pattern
-        private final TriFunction<String, String, Map<String, String>, String> action;
+        private final TriFunction<String, String, Map<String, String>, HttpResponse> action;
+        private final StreamingAction streamingAction;
+
+        // HTTP caching, see cacheControl(), etag() and etagFromBody()
+        private String cacheControl;
+        private BiFunction<String, Map<String, String>, String> validator;
+        private boolean etagFromBody;
+        // Adaptive in-flight limit, see limitedBy()
+        private ConcurrencyLimiter limiter;
+        // Deadline when the client sends no X-Request-Timeout, see timeout()
+        private long timeoutMs;
+        // Threads and connection share of the route's group, see bulkhead()
+        private Bulkhead bulkhead;
+
+        public Route(String method, Object pathMatcher, TriFunction<String, String, Map<String, String>, HttpResponse> action) {
+            this(method, pathMatcher, action, null);
+        }
+
+        public Route(String method, Object pathMatcher, StreamingAction streamingAction) {
+            this(method, pathMatcher, null, streamingAction);
+        }
 
-        public Route(String method, Object pathMatcher, TriFunction<String, String, Map<String, String>, String> action) {
-            String API_BASE_PATH = "/api/v1";
+        private Route(String method, Object pathMatcher, TriFunction<String, String, Map<String, String>, HttpResponse> action,
+                      StreamingAction streamingAction) {
             this.method = method;
-            this.pathMatcher = API_BASE_PATH +  pathMatcher;
+            this.pathMatcher = compile(pathMatcher);
             this.action = action;
+            this.streamingAction = streamingAction;
+        }
+
+        /**
+         * Prefix the base path; a String with :name segments becomes a Pattern matching any one segment there.
+         */
+        private static Object compile(Object pathMatcher) {
+            if (pathMatcher instanceof Pattern) {
+                return Pattern.compile(Pattern.quote(API_BASE_PATH) + ((Pattern) pathMatcher).pattern());
+            }
+            String path = API_BASE_PATH + pathMatcher;
+            if (!path.contains("/:")) {
+                return path;
+            }
+            StringBuilder regex = new StringBuilder();
+            for (String segment : path.substring(1).split("/")) {
+                regex.append('/').append(segment.startsWith(":") ? "[^/?]+" : Pattern.quote(segment));
+            }
+            return Pattern.compile(regex.toString());
+        }
+
+        /**
+         * Send this Cache-Control policy with successful responses (200 and 304).
+         *
+         * @return This route
+         */
+        public Route cacheControl(String policy) {
+            this.cacheControl = policy == null || policy.isEmpty() ? null : policy;
+            return this;
+        }
+
+        /**
+         * Tag responses with a strong ETag that is computed before the action runs, from something cheaper
+         * than the body (a version query). A matching If-None-Match is answered 304 without running the action.
+         *
+         * @param validator Gets the path and headers, returns the tag or null when it cannot be computed
+         * @return This route
+         */
+        public Route etag(BiFunction<String, Map<String, String>, String> validator) {
+            this.validator = validator;
+            return this;
+        }
+
+        /**
+         * Tag 200 responses with a strong ETag hashed from the body; a matching If-None-Match turns the
+         * response into a 304, which saves the transfer but not the work.
+         *
+         * @return This route
+         */
+        public Route etagFromBody() {
+            this.etagFromBody = true;
+            return this;
+        }
+
+        /**
+         * Count the route's requests against the limiter of the resource it waits for (the database).
+         * Requests beyond the limit fail with RejectedExecutionException, answered 503 without running
+         * the action; the others report their latency, and whether they failed, when they finish. A request
+         * that missed its deadline or lost its client reports nothing: the client chose the deadline, so it
+         * says nothing about the database.
+         *
+         * @return This route
+         */
+        public Route limitedBy(ConcurrencyLimiter limiter) {
+            this.limiter = limiter;
+            return this;
+        }
+
+        /**
+         * Give the route's requests a deadline of this many milliseconds; a client's X-Request-Timeout may
+         * only shorten it. The DB work of a request still running at its deadline is cancelled and the
+         * client gets 504.
+         *
+         * @return This route
+         */
+        public Route timeout(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * Run the route on its group's bulkhead: its own threads, and its share of the DB connections.
+         * The ETag validator runs there as well as the action, so every query of the route counts
+         * against the group. The request's worker is free meanwhile, see {@link #respondAsync}. A full bulkhead answers 503 without
+         * touching the other groups.
+         *
+         * @return This route
+         */
+        public Route bulkhead(Bulkhead bulkhead) {
+            this.bulkhead = bulkhead;
+            return this;
+        }
+
+        public boolean isStreaming() {
+            return streamingAction != null;
         }
 
         public boolean matches(String method, String path) {
@@ -105,8 +301,242 @@ public class Router {
             return false;
         }
 
-        public String execute(String path, String body, Map<String, String> headers) {
-            return action.apply(path, body, headers);
+        /**
+         * Run the route with its caching rules: conditional requests, ETag and Cache-Control.
+         */
+        public HttpResponse respond(String path, String body, Map<String, String> headers) {
+            if (bulkhead != null) {
+                // The caller needs the response now, wait for the group's threads
+                return join(respondAsync(path, body, headers).toCompletableFuture());
+            }
+            long deadline = deadline(headers);
+            return RequestDeadline.call(deadline, () -> respondBefore(deadline, path, body, headers));
+        }
+
+        private HttpResponse respondBefore(long deadline, String path, String body, Map<String, String> headers) {
+            ConcurrencyLimiter.Permit permit = acquire();
+            boolean failed = true;
+            try {
+                HttpResponse response;
+                String etag = currentETag(path, headers);
+                String matched = ETags.match(headers.get(HeaderNames.IF_NONE_MATCH), etag);
+                if (matched != null) {
+                    response = notModified(matched);
+                } else {
+                    response = withCaching(execute(path, body, headers), etag, headers);
+                }
+                failed = response.getStatus() >= 500;
+                return checkDeadline(response, deadline);
+            } finally {
+                settle(permit, failed, deadline);
+            }
+        }
+
+        /**
+         * {@link #respond} without holding the caller: a route on a bulkhead is queued there and the stage
+         * completes on the group's thread once it has run, so the engine's worker is free meanwhile. The
+         * others run now and return a completed stage.
+         */
+        public CompletionStage<HttpResponse> respondAsync(String path, String body, Map<String, String> headers) {
+            if (bulkhead == null) {
+                return CompletableFuture.completedFuture(respond(path, body, headers));
+            }
+            long deadline = deadline(headers);
+            return withTimeout(onBulkhead(deadline, () -> respondBefore(deadline, path, body, headers)), deadline);
+        }
+
+        /**
+         * Answer 504 at the deadline, without waiting for the cancelled statement to come back.
+         */
+        private static CompletableFuture<HttpResponse> withTimeout(CompletableFuture<HttpResponse> response,
+                                                                   long deadline) {
+            if (deadline == 0) {
+                return response;
+            }
+            return response.orTimeout(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    .thenApply(done -> checkDeadline(done, deadline));
+        }
+
+        /**
+         * Queue the work on the route's bulkhead, under the deadline.
+         */
+        private <T> CompletableFuture<T> onBulkhead(long deadline, Supplier<T> work) {
+            return RequestDeadline.call(deadline, () -> bulkhead.supply(work));
+        }
+
+        /**
+         * Wait for work queued on the bulkhead, failing with what it failed with.
+         */
+        private static <T> T join(CompletableFuture<T> work) {
+            try {
+                return work.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Deadline for a request to this route as a System.nanoTime() value, 0 for none.
+         */
+        private long deadline(Map<String, String> headers) {
+            long timeout = RequestDeadline.timeoutMs(headers.get(HeaderNames.X_REQUEST_TIMEOUT), timeoutMs);
+            return timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        }
+
+        /**
+         * A failure past the deadline is the deadline's doing, even when the controller turned it into a 500.
+         *
+         * @throws DeadlineExceededException in that case
+         */
+        private static HttpResponse checkDeadline(HttpResponse response, long deadline) {
+            if (deadline != 0 && response.getStatus() >= 500 && deadline - System.nanoTime() <= 0) {
+                throw new DeadlineExceededException("Request deadline exceeded");
+            }
+            return response;
+        }
+
+        /**
+         * A slot on the route's limiter, null when it has none.
+         *
+         * @throws RejectedExecutionException when the limit is reached
+         */
+        private ConcurrencyLimiter.Permit acquire() {
+            if (limiter == null) {
+                return null;
+            }
+            ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+            if (permit == null) {
+                throw new RejectedExecutionException("Concurrency limit reached");
+            }
+            return permit;
+        }
+
+        private static void settle(ConcurrencyLimiter.Permit permit, boolean failed, long deadline) {
+            if (permit == null) {
+                return;
+            }
+            if (failed && deadline != 0 && deadline - System.nanoTime() <= 0) {
+                // Failed because the deadline passed (cancelled statement, connection wait cut short)
+                permit.abandoned();
+            } else if (failed) {
+                permit.dropped();
+            } else {
+                permit.success();
+            }
+        }
+
+        private HttpResponse withCaching(HttpResponse response, String etag, Map<String, String> headers) {
+            if (response.getStatus() != 200) {
+                return response;
+            }
+            if (etag == null && etagFromBody) {
+                etag = ETags.of(response.getBody());
+                String matched = ETags.match(headers.get(HeaderNames.IF_NONE_MATCH), etag);
+                if (matched != null) {
+                    return notModified(matched);
+                }
+            }
+            Map<String, String> caching = cachingHeaders(etag);
+            if (caching != null) {
+                caching.forEach(response::header);
+            }
+            return response;
+        }
+
+        /**
+         * The tag of the resource before the action runs, null when the route has no validator.
+         */
+        public String currentETag(String path, Map<String, String> headers) {
+            if (validator == null) {
+                return null;
+            }
+            if (bulkhead != null && Bulkhead.current() != bulkhead) {
+                // A version query, on the group's threads and connections like the action
+                return join(bulkhead.supply(() -> validator.apply(relative(path), headers)));
+            }
+            return validator.apply(relative(path), headers);
+        }
+
+        public HttpResponse notModified(String etag) {
+            HttpResponse response = HttpResponse.notModified();
+            cachingHeaders(etag).forEach(response::header);
+            return response;
+        }
+
+        /**
+         * ETag and Cache-Control for a successful response, null when there are none.
+         */
+        public Map<String, String> cachingHeaders(String etag) {
+            if (etag == null && cacheControl == null) {
+                return null;
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            if (etag != null) {
+                headers.put("ETag", etag);
+            }
+            if (cacheControl != null) {
+                headers.put(HeaderNames.CACHE_CONTROL, cacheControl);
+            }
+            return headers;
+        }
+
+        public HttpResponse execute(String path, String body, Map<String, String> headers) {
+            if (streamingAction != null) {
+                // Caller needs the whole body, collect the stream
+                BufferedResponseSink sink = new BufferedResponseSink();
+                try {
+                    // respond() holds the limiter slot already
+                    streamingAction.apply(relative(path), body, headers, sink);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                HttpResponse response = new HttpResponse(sink.getStatus(), sink.toString());
+                sink.getHeaders().forEach(response::header);
+                return response;
+            }
+            return action.apply(relative(path), body, headers);
+        }
+
+        /**
+         * Run a streaming route, writing its body to the sink as it is produced.
+         */
+        public void stream(String path, String body, Map<String, String> headers, ResponseSink sink) throws IOException {
+            long deadline = deadline(headers);
+            ConcurrencyLimiter.Permit permit = acquire();
+            boolean failed = true;
+            try {
+                Supplier<Void> work = () -> {
+                    try {
+                        streamingAction.apply(relative(path), body, headers, sink);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                };
+                if (bulkhead != null) {
+                    // The connection's worker waits, the action runs on the group's threads
+                    join(onBulkhead(deadline, work));
+                } else {
+                    RequestDeadline.call(deadline, work);
+                }
+                failed = false;
+            } catch (UncheckedIOException e) {
+                // Writing to the client failed, not the database
+                if (permit != null) {
+                    permit.abandoned();
+                    permit = null;
+                }
+                throw e.getCause();
+            } finally {
+                settle(permit, failed, deadline);
+            }
+        }
+
+        private static String relative(String path) {
+            return path.startsWith(API_BASE_PATH) ? path.substring(API_BASE_PATH.length()) : path;
         }
     }
 }
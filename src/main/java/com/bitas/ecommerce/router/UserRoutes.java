@@ -3,6 +3,8 @@ package com.bitas.ecommerce.router;
 import com.bitas.ecommerce.controller.UserController;
 import com.bitas.ecommerce.repository.UserRepository;
 import com.bitas.ecommerce.service.UserService;
+import com.bitas.ecommerce.utils.database.Bulkhead;
+import com.bitas.ecommerce.utils.database.ConcurrencyLimiter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,21 +12,30 @@ public class UserRoutes {
     private static final UserRepository userRepository = new UserRepository();
     private static final UserService userService = new UserService(userRepository);
     private static final UserController userController = new UserController(userService);
+    // Threads, connections and limit of the user routes, apart from the catalog's
+    private static final Bulkhead users = Bulkhead.of("users");
+    private static final ConcurrencyLimiter usersLimiter = ConcurrencyLimiter.of("users");
 
     public static List<Router.Route> getRoutes() {
         List<Router.Route> routes = new ArrayList<>();
-        routes.add(new Router.Route("GET", "/users", (path, body, headers) -> userController.getAllUsers()));
-        routes.add(new Router.Route("GET", "/users/:id", (path, body, headers) -> userController.getUser(body)));
-        routes.add(new Router.Route("POST", "/users", (path, body, headers) -> userController.createUser(body)));
+        // Personal data, never stored by shared caches or the browser
+        routes.add(new Router.Route("GET", "/users", (path, body, headers, sink) -> userController.getAllUsers(sink))
+                .cacheControl("private, no-store").limitedBy(usersLimiter).bulkhead(users));
+        routes.add(new Router.Route("GET", "/users/:id", (path, body, headers) -> {
+            String id = path.split("/")[2];
+            return userController.getUser(id);
+        }).cacheControl("private, no-store").limitedBy(usersLimiter).bulkhead(users));
+        routes.add(new Router.Route("POST", "/users", (path, body, headers) -> userController.createUser(body)).limitedBy(usersLimiter).bulkhead(users));
         routes.add(new Router.Route("PUT", "/users/:id", (path, body, headers) -> {
             String id = path.split("/")[2];
             return userController.updateUser(id, body);
-        }));
+        }).limitedBy(usersLimiter).bulkhead(users));
         routes.add(new Router.Route("DELETE", "/users/:id", (path, body, headers) -> {
             String id = path.split("/")[2];
             return userController.deleteUser(id);
-        }));
-        routes.add(new Router.Route("POST", "/users/authenticate", (path, body, headers) -> userController.authenticateUser(body)));
+        }).limitedBy(usersLimiter).bulkhead(users));
+        routes.add(new Router.Route("POST", "/users/authenticate", (path, body, headers) -> userController.authenticateUser(body))
+                .limitedBy(usersLimiter).bulkhead(users));
         return routes;
     }
 }
@@ -0,0 +1,209 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One thread calling accept() on a listening channel and handing every new connection to its handler.
+ * With server.acceptors > 1 each acceptor binds its own channel to the port with SO_REUSEPORT, so the
+ * kernel spreads incoming connections across the acceptors instead of queueing them all behind one thread.
+ * Where SO_REUSEPORT is not available the acceptors share a single channel.
+ * A Unix domain socket listener ({@link #openUnix}) is accepted from the same way; its connections
+ * report {@link #UNIX_PEER} as their address.
+ */
+public class Acceptor implements Runnable {
+    public static final int BACKLOG = 1024;
+    // Remote address of connections over the Unix domain socket, whose peers are unnamed
+    public static final String UNIX_PEER = "unix";
+
+    private final ServerSocketChannel channel;
+    private final Consumer<SocketChannel> handler;
+    private final LongAdder accepted;
+    private final String threadName;
+    // Created by start(), so the constructor does not hand out this
+    private volatile Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param index   Position of this acceptor, used for the thread name and the metrics
+     * @param channel Listening channel, in blocking mode
+     * @param handler Takes ownership of each accepted connection, runs on the acceptor thread
+     */
+    public Acceptor(int index, ServerSocketChannel channel, Consumer<SocketChannel> handler) {
+        this.channel = channel;
+        this.handler = handler;
+        this.accepted = Metrics.getInstance().counter("acceptor." + index + ".accepted");
+        this.threadName = "acceptor-" + index;
+    }
+
+    /**
+     * Open the listening channels for N acceptors.
+     *
+     * @param port      Port to listen on, 0 for an ephemeral port
+     * @param acceptors Number of acceptors
+     * @return One channel per acceptor; the same channel repeated when SO_REUSEPORT is not supported
+     */
+    public static ServerSocketChannel[] open(int port, int acceptors) throws IOException {
+        ServerSocketChannel[] channels = new ServerSocketChannel[Math.max(1, acceptors)];
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = channels.length > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        try {
+            if (reusePort) {
+                first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            first.bind(new InetSocketAddress(port), BACKLOG);
+            channels[0] = first;
+            // An ephemeral port is only known once the first channel is bound
+            int boundPort = ((InetSocketAddress) first.getLocalAddress()).getPort();
+            for (int i = 1; i < channels.length; i++) {
+                if (reusePort) {
+                    channels[i] = ServerSocketChannel.open();
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    channels[i].bind(new InetSocketAddress(boundPort), BACKLOG);
+                } else {
+                    channels[i] = first;
+                }
+            }
+        } catch (IOException e) {
+            close(channels);
+            first.close();
+            throw e;
+        }
+
+        if (channels.length > 1 && !reusePort) {
+            System.err.println("❗ SO_REUSEPORT is not supported, " + channels.length + " acceptors share one listening socket");
+        }
+        return channels;
+    }
+
+    /**
+     * Open a Unix domain socket listener. A socket file left behind by an earlier run is replaced; any
+     * other file at the path is not touched.
+     *
+     * @param path        Socket file to create
+     * @param permissions POSIX permissions of the socket file (e.g. rw-rw----), empty to keep the umask's
+     */
+    public static ServerSocketChannel openUnix(Path path, String permissions) throws IOException {
+        if (Files.isRegularFile(path) || Files.isDirectory(path)) {
+            throw new IOException(path + " exists and is not a socket");
+        }
+        Files.deleteIfExists(path);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(path), BACKLOG);
+            if (!permissions.isEmpty()) {
+                Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Start one acceptor per channel.
+     */
+    public static List<Acceptor> startAll(ServerSocketChannel[] channels, Consumer<SocketChannel> handler) {
+        List<Acceptor> acceptors = new ArrayList<>(channels.length);
+        for (int i = 0; i < channels.length; i++) {
+            Acceptor acceptor = new Acceptor(i, channels[i], handler);
+            acceptors.add(acceptor);
+            acceptor.start();
+        }
+        return acceptors;
+    }
+
+    public static void close(ServerSocketChannel[] channels) {
+        for (ServerSocketChannel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                // Closing a Unix domain listener leaves its file behind
+                if (channel.isOpen() && channel.getLocalAddress() instanceof UnixDomainSocketAddress unix) {
+                    Files.deleteIfExists(unix.getPath());
+                }
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("❗ Error closing server channel: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (!running) {
+                    break;
+                }
+                // EMFILE and friends: keep accepting once descriptors are freed
+                System.err.println("❗ Error accepting connection: " + e.getMessage());
+                continue;
+            }
+            accepted.increment();
+            handler.accept(client);
+        }
+    }
+
+    public void start() {
+        thread = new Thread(this, threadName);
+        thread.start();
+    }
+
+    /**
+     * Wait until the accept loop has ended, after the channel was closed.
+     */
+    public void join() throws InterruptedException {
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * IP address of the peer of an accepted connection, {@link #UNIX_PEER} over a Unix domain socket, null
+     * once it is closed.
+     */
+    public static String remoteAddress(SocketChannel channel) {
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (address instanceof UnixDomainSocketAddress) {
+                return UNIX_PEER;
+            }
+            return address instanceof InetSocketAddress inet ? inet.getAddress().getHostAddress() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
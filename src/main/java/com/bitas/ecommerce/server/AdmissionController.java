@@ -0,0 +1,88 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Histogram;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded admission in front of the worker executor.
+ * Work is refused as soon as more than server.admission.max-queue tasks are waiting for a worker,
+ * and dropped when it waited longer than server.admission.max-queue-wait-ms before a worker picked
+ * it up. In both cases the caller answers 503 with Retry-After instead of parsing or touching the DB.
+ * Queue depth, rejections and time in queue are published to {@link Metrics}.
+ */
+public class AdmissionController {
+    private final Executor executor;
+    private final int maxQueueDepth;
+    private final long maxQueueWaitNanos;
+    private final int retryAfterSeconds;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejectedQueueFull;
+    private final LongAdder rejectedQueueTimeout;
+    private final Histogram timeInQueue;
+
+    public AdmissionController(Executor executor, int maxQueueDepth, long maxQueueWaitMs, int retryAfterSeconds) {
+        this.executor = executor;
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxQueueWaitNanos = maxQueueWaitMs * 1_000_000L;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauge("admission.queue_depth", queued::get);
+        this.rejectedQueueFull = metrics.counter("admission.rejected.queue_full");
+        this.rejectedQueueTimeout = metrics.counter("admission.rejected.queue_timeout");
+        this.timeInQueue = metrics.histogram("admission.time_in_queue");
+    }
+
+    public static AdmissionController fromConfig(Executor executor) {
+        return new AdmissionController(executor,
+                AppConfig.getInt("server.admission.max-queue", 1000),
+                AppConfig.getLong("server.admission.max-queue-wait-ms", 2000),
+                AppConfig.getInt("server.admission.retry-after-seconds", 1));
+    }
+
+    /**
+     * Queue a task for a worker.
+     *
+     * @param task      Work to run once a worker is free
+     * @param onTimeout Runs on the worker instead of the task when it waited too long in the queue
+     * @return false when the queue is full; the task was not queued and the caller must reject it
+     */
+    public boolean submit(Runnable task, Runnable onTimeout) {
+        if (queued.incrementAndGet() > maxQueueDepth) {
+            queued.decrementAndGet();
+            rejectedQueueFull.increment();
+            return false;
+        }
+
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                long waited = System.nanoTime() - enqueuedAt;
+                timeInQueue.recordNanos(waited);
+                if (maxQueueWaitNanos > 0 && waited > maxQueueWaitNanos) {
+                    rejectedQueueTimeout.increment();
+                    onTimeout.run();
+                    return;
+                }
+                task.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejectedQueueFull.increment();
+            return false;
+        }
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,235 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.router.Router;
+import com.bitas.ecommerce.server.http.HeaderNames;
+import com.bitas.ecommerce.server.http.HttpHeaders;
+import com.bitas.ecommerce.server.http.HttpMethod;
+import com.bitas.ecommerce.server.http.HttpRequest;
+import com.bitas.ecommerce.server.http.HttpResponse;
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.database.Bulkhead;
+import com.bitas.ecommerce.utils.metrics.Histogram;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * POST /api/v1/batch: several API requests in one round trip. The body is a JSON array of
+ * {method, path, headers, body} objects (body a JSON value or a string); the answer is an array with a
+ * {status, headers, durationMs, body} object per sub-request, in the same order.
+ * <p>
+ * Reads (GET, HEAD) run in parallel. A write waits for every sub-request before it and those after it
+ * wait for the write, so a read placed after a write sees it. Each sub-request goes through
+ * {@link Router.Route#respondAsync}, so a DB-bound route runs on its group's {@link Bulkhead}, against
+ * that group's threads and reserved connections, and does not hold the worker that received the batch.
+ * Each sub-request takes a token from its own rate limit rule, as if it had been sent alone, and
+ * inherits the batch's Authorization and Cookie unless it sets them itself.
+ * At most server.batch.max-requests sub-requests, batches cannot be nested.
+ */
+public class BatchHandler {
+    public static final String PATH = "/api/v1/batch";
+
+    private static final String[] INHERITED_HEADERS = {HeaderNames.AUTHORIZATION, HeaderNames.COOKIE};
+
+    private final Router router;
+    private final RateLimiter rateLimiter;
+    private final boolean enabled;
+    private final int maxRequests;
+    private final int retryAfterSeconds;
+    private final JsonUtil jsonUtil = JsonUtil.getInstance();
+
+    private final LongAdder batches;
+    private final LongAdder subRequests;
+    private final LongAdder rejected;
+    private final Histogram subRequestTime;
+
+    public BatchHandler(Router router, RateLimiter rateLimiter, boolean enabled, int maxRequests) {
+        this.router = router;
+        this.rateLimiter = rateLimiter;
+        this.enabled = enabled;
+        this.maxRequests = maxRequests;
+        this.retryAfterSeconds = AppConfig.getInt("server.admission.retry-after-seconds", 1);
+
+        Metrics metrics = Metrics.getInstance();
+        this.batches = metrics.counter("batch.requests");
+        this.subRequests = metrics.counter("batch.sub_requests");
+        this.rejected = metrics.counter("batch.rejected");
+        this.subRequestTime = metrics.histogram("batch.sub_request");
+    }
+
+    public static BatchHandler fromConfig(Router router, RateLimiter rateLimiter) {
+        return new BatchHandler(router, rateLimiter,
+                AppConfig.getBoolean("server.batch.enabled", true),
+                AppConfig.getInt("server.batch.max-requests", 20));
+    }
+
+    public boolean matches(HttpRequest request) {
+        return enabled && request.getMethod() == HttpMethod.POST && request.getPath().equals(PATH);
+    }
+
+    /**
+     * Run the sub-requests of a batch.
+     *
+     * @param request The batch request, for its client address and inherited headers
+     * @param body    Its body, already decoded
+     * @return Stage completed with the combined response once every sub-request has its answer
+     */
+    public CompletionStage<HttpResponse> handle(HttpRequest request, String body) {
+        List<Object> items;
+        try {
+            items = jsonUtil.fromJsonArray(body);
+        } catch (RuntimeException e) {
+            items = null;
+        }
+        if (items == null || items.isEmpty() || !body.trim().startsWith("[")) {
+            rejected.increment();
+            return CompletableFuture.completedFuture(error(400, "Expected a non-empty JSON array of requests"));
+        }
+        if (items.size() > maxRequests) {
+            rejected.increment();
+            return CompletableFuture.completedFuture(
+                    error(400, "At most " + maxRequests + " requests per batch, got " + items.size()));
+        }
+        batches.increment();
+        subRequests.add(items.size());
+
+        long start = System.nanoTime();
+        List<CompletableFuture<String>> results = new ArrayList<>(items.size());
+        // Completes when the last write and everything before it are done
+        CompletableFuture<Void> barrier = CompletableFuture.completedFuture(null);
+        List<CompletableFuture<String>> sinceBarrier = new ArrayList<>();
+        for (Object item : items) {
+            CompletableFuture<String> result;
+            if (!(item instanceof Map)) {
+                result = CompletableFuture.completedFuture(itemJson(error(400, "Request must be a JSON object"), 0));
+            } else {
+                Map<?, ?> fields = (Map<?, ?>) item;
+                HttpMethod method = method(fields.get("method"));
+                if (method == HttpMethod.GET || method == HttpMethod.HEAD) {
+                    result = barrier.thenCompose(ignored -> run(request, fields));
+                    sinceBarrier.add(result);
+                } else {
+                    List<CompletableFuture<?>> before = new ArrayList<>(sinceBarrier);
+                    before.add(barrier);
+                    result = CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0]))
+                            .thenCompose(ignored -> run(request, fields));
+                    barrier = result.thenApply(ignored -> null);
+                    sinceBarrier.clear();
+                }
+            }
+            results.add(result);
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            StringBuilder json = new StringBuilder("{\"durationMs\":").append(millis(System.nanoTime() - start))
+                    .append(",\"responses\":[");
+            for (int i = 0; i < results.size(); i++) {
+                json.append(i > 0 ? "," : "").append(results.get(i).join());
+            }
+            return HttpResponse.ok(json.append("]}").toString());
+        });
+    }
+
+    /**
+     * Run one sub-request.
+     *
+     * @return Stage completed with its JSON entry, never exceptionally
+     */
+    private CompletableFuture<String> run(HttpRequest batch, Map<?, ?> fields) {
+        long start = System.nanoTime();
+        HttpMethod method = method(fields.get("method"));
+        Object path = fields.get("path");
+        if (method == null || !(path instanceof String) || !((String) path).startsWith("/")) {
+            return CompletableFuture.completedFuture(itemJson(error(400, "Request needs a method and a path"), 0));
+        }
+        if (((String) path).equals(PATH) || ((String) path).startsWith(PATH + "?")) {
+            return CompletableFuture.completedFuture(itemJson(error(400, "Batches cannot be nested"), 0));
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : INHERITED_HEADERS) {
+            String value = batch.getHeaders().get(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        if (fields.get("headers") instanceof Map) {
+            for (Map.Entry<?, ?> header : ((Map<?, ?>) fields.get("headers")).entrySet()) {
+                if (header.getValue() != null) {
+                    headers.put(header.getKey().toString(), header.getValue().toString());
+                }
+            }
+        }
+        Object rawBody = fields.get("body");
+        String body = rawBody == null ? "" : rawBody instanceof String ? (String) rawBody : jsonUtil.toJson(rawBody);
+
+        HttpRequest subRequest = new HttpRequest(method, (String) path, headers, body);
+        subRequest.setRemoteAddress(batch.getRemoteAddress());
+        long retryAfter = rateLimiter.acquire(subRequest);
+        if (retryAfter > 0) {
+            HttpResponse tooMany = error(429, "Too Many Requests").header("Retry-After", String.valueOf(retryAfter));
+            return CompletableFuture.completedFuture(itemJson(tooMany, System.nanoTime() - start));
+        }
+
+        // DB-bound routes run on their group's bulkhead, with its threads and connections
+        CompletableFuture<HttpResponse> response = router.handleRequestAsync(method.name(), subRequest.getPath(),
+                headers, body).toCompletableFuture();
+        return response
+                .exceptionally(e -> error(503, "Service Unavailable").header("Retry-After", String.valueOf(retryAfterSeconds)))
+                .thenApply(result -> {
+                    long elapsed = System.nanoTime() - start;
+                    subRequestTime.recordNanos(elapsed);
+                    return itemJson(result, elapsed);
+                });
+    }
+
+    private static HttpMethod method(Object value) {
+        if (!(value instanceof String)) {
+            return null;
+        }
+        try {
+            return HttpMethod.valueOf(((String) value).trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * One entry of the combined response. Bodies are JSON already and embedded as they are, other
+     * content types as a string.
+     */
+    private String itemJson(HttpResponse response, long nanos) {
+        StringBuilder json = new StringBuilder("{\"status\":").append(response.getStatus())
+                .append(",\"headers\":").append(jsonUtil.toJson(response.getHeaders()))
+                .append(",\"durationMs\":").append(millis(nanos))
+                .append(",\"body\":");
+        String body = response.getBody();
+        if (body == null || body.isEmpty() || !HttpResponse.hasBody(response.getStatus())) {
+            json.append("null");
+        } else if (HttpResponse.hasContentType(response.getHeaders())) {
+            json.append(jsonUtil.quote(body));
+        } else {
+            json.append(body);
+        }
+        return json.append('}').toString();
+    }
+
+    private HttpResponse error(int status, String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("status", status);
+        error.put("error", message);
+        return new HttpResponse(status, jsonUtil.toJson(error));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
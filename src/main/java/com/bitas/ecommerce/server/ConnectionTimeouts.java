@@ -0,0 +1,139 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Read and write deadlines of client connections, all tracked on one {@link TimerWheel}.
+ * Limits are read from application.properties:
+ * <ul>
+ *     <li>server.timeouts.header-read-ms - a request head must be complete this long after its first byte (slowloris)</li>
+ *     <li>server.timeouts.body-read-ms   - longest gap between two reads of a request body</li>
+ *     <li>server.keepalive.idle-timeout-ms - how long a connection may wait for its next request</li>
+ *     <li>server.timeouts.write-stall-ms - how long a response write may make no progress</li>
+ * </ul>
+ * Connections report the deadlines they acted on with {@link #countExpired}, per phase in connection.timeouts.*.
+ */
+public class ConnectionTimeouts {
+
+    public enum Phase {
+        HEADER_READ("header_read"),
+        BODY_READ("body_read"),
+        IDLE("idle"),
+        WRITE_STALL("write_stall");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final TimerWheel wheel;
+    private final long[] timeoutMs = new long[PHASES.length];
+    private final LongAdder[] expired = new LongAdder[PHASES.length];
+
+    public ConnectionTimeouts(TimerWheel wheel, long headerReadMs, long bodyReadMs, long idleMs, long writeStallMs) {
+        this.wheel = wheel;
+        timeoutMs[Phase.HEADER_READ.ordinal()] = headerReadMs;
+        timeoutMs[Phase.BODY_READ.ordinal()] = bodyReadMs;
+        timeoutMs[Phase.IDLE.ordinal()] = idleMs;
+        timeoutMs[Phase.WRITE_STALL.ordinal()] = writeStallMs;
+
+        Metrics metrics = Metrics.getInstance();
+        for (Phase phase : PHASES) {
+            expired[phase.ordinal()] = metrics.counter("connection.timeouts." + phase.metricName);
+        }
+    }
+
+    public static ConnectionTimeouts fromConfig() {
+        TimerWheel wheel = new TimerWheel("timer-wheel",
+                AppConfig.getLong("server.timeouts.tick-ms", 100),
+                AppConfig.getInt("server.timeouts.wheel-size", 512));
+        wheel.start();
+        return new ConnectionTimeouts(wheel,
+                AppConfig.getLong("server.timeouts.header-read-ms", 10000),
+                AppConfig.getLong("server.timeouts.body-read-ms", 30000),
+                AppConfig.getLong("server.keepalive.idle-timeout-ms", 5000),
+                AppConfig.getLong("server.timeouts.write-stall-ms", 30000));
+    }
+
+    /**
+     * Create the deadline of one connection.
+     *
+     * @param onExpired Runs on the wheel thread when an armed phase runs out; must not block
+     */
+    public Deadline newDeadline(Consumer<Phase> onExpired) {
+        return new Deadline(onExpired);
+    }
+
+    /**
+     * Count a connection that was closed (or answered 408) because a phase ran out.
+     */
+    public void countExpired(Phase phase) {
+        expired[phase.ordinal()].increment();
+    }
+
+    public long getTimeoutMs(Phase phase) {
+        return timeoutMs[phase.ordinal()];
+    }
+
+    public void stop() {
+        wheel.stop();
+    }
+
+    /**
+     * The single deadline of a connection; arming a phase replaces the previous one.
+     */
+    public class Deadline {
+        private final TimerWheel.Timer timer;
+
+        private Deadline(Consumer<Phase> onExpired) {
+            this.timer = wheel.newTimer(tag -> onExpired.accept(PHASES[tag]));
+        }
+
+        /**
+         * Start the clock for a phase, from now.
+         */
+        public void arm(Phase phase) {
+            timer.arm(timeoutMs[phase.ordinal()], phase.ordinal());
+        }
+
+        /**
+         * Start the clock unless this phase is already running; used where the deadline counts from
+         * the start of the phase, not from the latest progress.
+         */
+        public void enter(Phase phase) {
+            if (timer.tag() != phase.ordinal()) {
+                arm(phase);
+            }
+        }
+
+        /**
+         * Stop the clock, e.g. while a worker handles the request.
+         */
+        public void disarm() {
+            timer.disarm();
+        }
+
+        /**
+         * The connection is gone.
+         */
+        public void cancel() {
+            timer.cancel();
+        }
+
+        /**
+         * @return The running phase, or null when disarmed
+         */
+        public Phase phase() {
+            int tag = timer.tag();
+            return tag < 0 ? null : PHASES[tag];
+        }
+    }
+}
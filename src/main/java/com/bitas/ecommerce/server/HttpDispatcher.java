@@ -0,0 +1,283 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.router.Router;
+import com.bitas.ecommerce.server.http.ChunkedResponseSink;
+import com.bitas.ecommerce.server.http.ContentCoding;
+import com.bitas.ecommerce.server.http.ETags;
+import com.bitas.ecommerce.server.http.EncodedResponse;
+import com.bitas.ecommerce.server.http.FrameWriter;
+import com.bitas.ecommerce.server.http.HeaderNames;
+import com.bitas.ecommerce.server.http.HttpParseException;
+import com.bitas.ecommerce.server.http.HttpRequest;
+import com.bitas.ecommerce.server.http.HttpResponse;
+import com.bitas.ecommerce.server.http.HttpResponseWriter;
+import com.bitas.ecommerce.server.http.ProductThumbnails;
+import com.bitas.ecommerce.server.http.ResponseCompressor;
+import com.bitas.ecommerce.server.http.StaticAssets;
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.database.DeadlineExceededException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Turns a parsed HTTP request into a complete HTTP response.
+ * Shared by the blocking and the NIO engines so both produce identical responses.
+ * File routes, the asset prefix ({@link StaticAssets}) and product images ({@link ProductThumbnails}),
+ * are answered before the JSON routes. The engines check {@link #rateLimit} before queueing a request for a
+ * worker.
+ * <p>
+ * Routes on a bulkhead ({@link Router.Route#bulkhead}) run on their group's threads, so the NIO and HTTP/2
+ * engines free their worker meanwhile: they use {@link #dispatchAsync} and write when the stage completes.
+ * The blocking engine owns a thread per connection anyway and waits through {@link #dispatch}.
+ */
+public class HttpDispatcher {
+    private final Router router;
+    private final ResponseCompressor compressor;
+    private final StaticAssets assets;
+    private final ProductThumbnails thumbnails;
+    private final RateLimiter rateLimiter;
+    private final BatchHandler batchHandler;
+    private final int streamingChunkSize;
+    private final int retryAfterSeconds;
+
+    public HttpDispatcher(Router router, ResponseCompressor compressor, StaticAssets assets,
+                          ProductThumbnails thumbnails, RateLimiter rateLimiter) {
+        this.router = router;
+        this.compressor = compressor;
+        this.assets = assets;
+        this.thumbnails = thumbnails;
+        this.rateLimiter = rateLimiter;
+        this.batchHandler = BatchHandler.fromConfig(router, rateLimiter);
+        this.streamingChunkSize = AppConfig.getInt("server.streaming.chunk-size", 8 * 1024);
+        this.retryAfterSeconds = AppConfig.getInt("server.admission.retry-after-seconds", 1);
+    }
+
+    /**
+     * Route the request and encode the full HTTP response.
+     * Streaming routes are buffered, use {@link #dispatch(HttpRequest, boolean, FrameWriter)} to stream them.
+     *
+     * @param request   Parsed request
+     * @param keepAlive Whether the connection stays open after this response
+     * @return Encoded response (status line, headers and body)
+     */
+    public EncodedResponse dispatch(HttpRequest request, boolean keepAlive) {
+        return dispatch(request, keepAlive, null);
+    }
+
+    /**
+     * Route the request. Streaming routes send their body through the writer while it is produced;
+     * the returned response is then only what is left to write (the last chunk).
+     *
+     * @param request   Parsed request
+     * @param keepAlive Whether the connection stays open after this response
+     * @param writer    Connection to stream to, null to buffer streaming routes
+     * @return Encoded response, or the rest of it for a streamed one
+     */
+    public EncodedResponse dispatch(HttpRequest request, boolean keepAlive, FrameWriter writer) {
+        return dispatchAsync(request, keepAlive, writer).toCompletableFuture().join();
+    }
+
+    /**
+     * {@link #dispatch(HttpRequest, boolean, FrameWriter)} without waiting for routes on a bulkhead. Everything
+     * else, streaming routes included, runs on the calling thread and returns a completed stage.
+     * The stage completes on whichever thread finished the route's work.
+     */
+    public CompletionStage<EncodedResponse> dispatchAsync(HttpRequest request, boolean keepAlive, FrameWriter writer) {
+        return dispatchAsync(request, keepAlive, writer, null);
+    }
+
+    /**
+     * {@link #dispatchAsync(HttpRequest, boolean, FrameWriter)} with the route's response encoded (headers,
+     * compression) on the given executor instead of the thread that produced it. Files and streamed
+     * responses are still written by the calling thread.
+     *
+     * @param encoder Executor for the encoding, null to encode on the completing thread
+     */
+    public CompletionStage<EncodedResponse> dispatchAsync(HttpRequest request, boolean keepAlive, FrameWriter writer,
+                                                          Executor encoder) {
+        if (isFileRoute(request.getPath())) {
+            return CompletableFuture.completedFuture(HttpResponseWriter.encodeAsset(serveFile(request), keepAlive));
+        }
+
+        String body;
+        try {
+            body = decodeBody(request);
+        } catch (HttpParseException e) {
+            return CompletableFuture.completedFuture(errorResponse(e.getStatusCode(), e.getMessage()));
+        }
+
+        String method = request.getMethod().name();
+        ContentCoding accepted = ContentCoding.negotiate(request.getHeaders().get(HeaderNames.ACCEPT_ENCODING));
+        if (batchHandler.matches(request)) {
+            return encode(batchHandler.handle(request, body), keepAlive, accepted, encoder);
+        }
+        if (writer != null) {
+            Router.Route route = router.findRoute(method, request.getPath());
+            if (route != null && route.isStreaming()) {
+                // Conditional GET is decided before anything is streamed
+                String etag;
+                try {
+                    etag = route.currentETag(request.getPath(), request.getHeaders());
+                } catch (RejectedExecutionException e) {
+                    return CompletableFuture.completedFuture(overloadedResponse(retryAfterSeconds));
+                }
+                String matched = ETags.match(request.getHeaders().get(HeaderNames.IF_NONE_MATCH), etag);
+                if (matched != null) {
+                    return CompletableFuture.completedFuture(
+                            HttpResponseWriter.encode(route.notModified(matched), keepAlive, compressor, accepted));
+                }
+                return CompletableFuture.completedFuture(
+                        stream(route, request, body, route.cachingHeaders(etag), keepAlive, writer, accepted));
+            }
+        }
+
+        return encode(router.handleRequestAsync(method, request.getPath(), request.getHeaders(), body),
+                keepAlive, accepted, encoder);
+    }
+
+    private CompletionStage<EncodedResponse> encode(CompletionStage<HttpResponse> response, boolean keepAlive,
+                                                    ContentCoding accepted, Executor encoder) {
+        if (encoder == null) {
+            return response.thenApply(done -> HttpResponseWriter.encode(done, keepAlive, compressor, accepted));
+        }
+        return response.thenApplyAsync(done -> HttpResponseWriter.encode(done, keepAlive, compressor, accepted),
+                encoder);
+    }
+
+    /**
+     * Route a request for a protocol that does its own framing (HTTP/2).
+     * Streaming routes are buffered; routes on a bulkhead complete the stage later.
+     *
+     * @return The route's response
+     * @throws HttpParseException when the request body cannot be decoded
+     */
+    public CompletionStage<HttpResponse> handleAsync(HttpRequest request) throws HttpParseException {
+        String body = decodeBody(request);
+        if (batchHandler.matches(request)) {
+            return batchHandler.handle(request, body);
+        }
+        return router.handleRequestAsync(request.getMethod().name(), request.getPath(), request.getHeaders(), body);
+    }
+
+    /**
+     * Take a token from the client's bucket for the request's route. Cheap and non-blocking, the engines
+     * call it on the I/O thread before any worker or DB time is spent on the request.
+     *
+     * @return 0 when the request may proceed, otherwise the seconds until the client may retry
+     */
+    public long rateLimit(HttpRequest request) {
+        return rateLimiter.acquire(request);
+    }
+
+    public ResponseCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Whether the path is answered with a file (static asset or product image) instead of a route.
+     */
+    public boolean isFileRoute(String path) {
+        return assets.matches(path) || thumbnails.matches(path);
+    }
+
+    /**
+     * Answer a request for which {@link #isFileRoute} is true. May block while a thumbnail is generated.
+     */
+    public StaticAssets.Reply serveFile(HttpRequest request) {
+        return thumbnails.matches(request.getPath()) ? thumbnails.serve(request) : assets.serve(request);
+    }
+
+    private EncodedResponse stream(Router.Route route, HttpRequest request, String body, Map<String, String> headers,
+                                   boolean keepAlive, FrameWriter writer, ContentCoding accepted) {
+        boolean chunked = HttpRequest.HTTP_1_1.equals(request.getVersion());
+        ChunkedResponseSink sink = new ChunkedResponseSink(writer, 200, headers, streamingChunkSize, keepAlive,
+                chunked);
+        try {
+            route.stream(request.getPath(), body, request.getHeaders(), sink);
+            return sink.finish(compressor, accepted);
+        } catch (IOException | RuntimeException e) {
+            if (sink.isCommitted()) {
+                System.err.println("❗ Streaming response aborted: " + e.getMessage());
+                return sink.abort();
+            }
+            if (e instanceof RejectedExecutionException) {
+                return overloadedResponse(retryAfterSeconds);
+            }
+            if (e instanceof DeadlineExceededException) {
+                return errorResponse(504, "Gateway Timeout");
+            }
+            return errorResponse(500, "Internal Server Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Request body as a String, inflated first when the client sent Content-Encoding: gzip/deflate.
+     */
+    private String decodeBody(HttpRequest request) throws HttpParseException {
+        ContentCoding coding = ContentCoding.fromContentEncoding(request.getHeaders().get(HeaderNames.CONTENT_ENCODING));
+        if (coding == ContentCoding.IDENTITY) {
+            return request.getBody();
+        }
+        byte[] inflated = coding.inflate(request.getBodyBytes(), compressor.getMaxRequestInflatedBytes());
+        return new String(inflated, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build an error response that never reaches the router (malformed request, etc.).
+     * The connection is always closed after an error response.
+     *
+     * @param statusCode HTTP status code
+     * @param message    Error message
+     * @return Encoded response
+     */
+    public EncodedResponse errorResponse(int statusCode, String message) {
+        return errorResponse(statusCode, message, null);
+    }
+
+    /**
+     * Build a 503 for work refused by admission control, telling the client when to retry.
+     *
+     * @param retryAfterSeconds Value of the Retry-After header
+     * @return Encoded response
+     */
+    public EncodedResponse overloadedResponse(int retryAfterSeconds) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Retry-After", String.valueOf(retryAfterSeconds));
+        return errorResponse(503, "Service Unavailable", headers);
+    }
+
+    /**
+     * Build a 429 for a client over its rate limit. Unlike other errors it keeps the connection open,
+     * the client did nothing wrong at the protocol level.
+     *
+     * @param retryAfterSeconds Value of the Retry-After header
+     * @param keepAlive         Whether the connection stays open after this response
+     * @return Encoded response
+     */
+    public EncodedResponse tooManyRequestsResponse(long retryAfterSeconds, boolean keepAlive) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Retry-After", String.valueOf(retryAfterSeconds));
+        Map<String, Object> error = new HashMap<>();
+        error.put("status", 429);
+        error.put("error", "Too Many Requests");
+        return HttpResponseWriter.encode(429, headers, JsonUtil.getInstance().toJson(error), keepAlive,
+                null, ContentCoding.IDENTITY);
+    }
+
+    private EncodedResponse errorResponse(int statusCode, String message, Map<String, String> headers) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("status", statusCode);
+        error.put("error", message);
+
+        return HttpResponseWriter.encode(statusCode, headers, JsonUtil.getInstance().toJson(error), false,
+                null, ContentCoding.IDENTITY);
+    }
+}
@@ -3,39 +3,88 @@ package com.bitas.ecommerce.server;
 import com.bitas.ecommerce.controller.ProductController;
 import com.bitas.ecommerce.controller.UserController;
 import com.bitas.ecommerce.controller.AuthController;
+import com.bitas.ecommerce.model.Product;
 import com.bitas.ecommerce.repository.ProductRepository;
 import com.bitas.ecommerce.repository.UserRepository;
 import com.bitas.ecommerce.router.Router;
+import com.bitas.ecommerce.server.h2.Http2Connection;
+import com.bitas.ecommerce.server.h2.Http2Settings;
+import com.bitas.ecommerce.server.h2.Http2Transport;
+import com.bitas.ecommerce.server.nio.NioHttpServer;
+import com.bitas.ecommerce.server.tls.TlsSettings;
 import com.bitas.ecommerce.service.ProductService;
 import com.bitas.ecommerce.service.UserService;
 import com.bitas.ecommerce.service.AuthService;
 import com.bitas.ecommerce.utils.AppConfig;
-import com.bitas.ecommerce.utils.JsonUtil;
 
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import com.bitas.ecommerce.server.http.BufferPool;
+import com.bitas.ecommerce.server.http.EncodedResponse;
+import com.bitas.ecommerce.server.http.FrameWriter;
+import com.bitas.ecommerce.server.http.HttpParseException;
+import com.bitas.ecommerce.server.http.HttpRequest;
+import com.bitas.ecommerce.server.http.HttpRequestParser;
+import com.bitas.ecommerce.server.http.PooledBuffer;
+import com.bitas.ecommerce.server.http.ProductThumbnails;
+import com.bitas.ecommerce.server.http.ResponseCompressor;
+import com.bitas.ecommerce.server.http.StaticAssets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class HttpServer {
     // Singleton instance
     private static HttpServer instance;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // Logging every request costs its toString() and the stdout lock, development only
+    private static final boolean LOG_REQUESTS = AppConfig.getBoolean("debug", false);
 
     private final int PORT;
+    // Unix domain socket for a co-located proxy, next to the TCP port or instead of it
+    private final Path unixSocket;
+    private final String unixSocketPermissions;
+    private final boolean tcpEnabled;
     private final Router router;
+    private final HttpDispatcher dispatcher;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final Http2Settings http2Settings;
+    private TlsSettings tlsSettings;
+    private ConnectionTimeouts timeouts;
     private Connection connection;
-
-    private boolean isRunning = true;
+    private NioHttpServer nioServer;
+    private volatile ServerSocketChannel[] serverChannels = new ServerSocketChannel[0];
+    private volatile List<Acceptor> acceptors = List.of();
+    private AdmissionController admission;
+    private StagedPipeline pipeline;
 
     // Private constructor to prevent instantiation
     private HttpServer() {
         this.PORT = AppConfig.getInt("server.port"); // Default to 8080 if not set
+        String unixSocketPath = AppConfig.get("server.unix-socket.path", "").trim();
+        this.unixSocket = unixSocketPath.isEmpty() ? null : Paths.get(unixSocketPath);
+        this.unixSocketPermissions = AppConfig.get("server.unix-socket.permissions", "").trim();
+        this.tcpEnabled = unixSocket == null || !AppConfig.getBoolean("server.unix-socket.only", false);
         this.router = Router.getInstance();
+        StaticAssets assets = StaticAssets.fromConfig();
+        ProductService productService = new ProductService(new ProductRepository());
+        this.dispatcher = new HttpDispatcher(router, ResponseCompressor.fromConfig(), assets,
+                ProductThumbnails.fromConfig(assets,
+                        id -> productService.getProductById(id).map(Product::getImageUrl).orElse(null)),
+                RateLimiter.fromConfig());
+        this.keepAlivePolicy = KeepAlivePolicy.fromConfig();
+        this.http2Settings = Http2Settings.fromConfig();
     }
 
     // Get singleton instance
@@ -47,21 +96,72 @@ public class HttpServer {
     }
 
     public void startServer() {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server is listening http://localhost:" + PORT);
+        int cpu = Runtime.getRuntime().availableProcessors();
 
-            int cpu = Runtime.getRuntime().availableProcessors();
+        // server.executor=fixed|virtual|forkjoin
+        ExecutorService executor = WorkerExecutors.fromConfig();
+        this.admission = AdmissionController.fromConfig(executor);
+        this.timeouts = ConnectionTimeouts.fromConfig();
+        this.tlsSettings = TlsSettings.fromConfig(http2Settings.isEnabled());
 
-            int threadCount = cpu * 4;
-            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        // server.engine=nio switches to the selector based engine
+        if ("nio".equalsIgnoreCase(AppConfig.get("server.engine", "blocking"))) {
+            startNioServer(executor, AppConfig.getInt("server.nio.io-threads", cpu), AppConfig.getInt("server.acceptors", 1));
+            return;
+        }
+        if (tlsSettings.isEnabled()) {
+            // Never fall back to plaintext when HTTPS was asked for
+            executor.shutdown();
+            throw new IllegalStateException("server.tls.enabled requires server.engine=nio");
+        }
 
-            while (isRunning) {
-                Socket clientSocket = serverSocket.accept();
-                executor.submit(() -> this.handleClient(clientSocket));
+        // server.stages.enabled splits handling, encoding and writing off the connection thread
+        this.pipeline = StagedPipeline.fromConfig(dispatcher, admission.getRetryAfterSeconds());
+        int acceptors = AppConfig.getInt("server.acceptors", 1);
+        try {
+            ServerSocketChannel[] channels = tcpEnabled ? Acceptor.open(PORT, acceptors) : new ServerSocketChannel[0];
+            serverChannels = channels;
+            if (tcpEnabled) {
+                System.out.println("Server is listening http://localhost:" + PORT + " (" + channels.length + " acceptors)");
+            }
+            if (unixSocket != null) {
+                channels = Arrays.copyOf(channels, channels.length + 1);
+                channels[channels.length - 1] = Acceptor.openUnix(unixSocket, unixSocketPermissions);
+                serverChannels = channels;
+                System.out.println("Server is listening on unix:" + unixSocket);
             }
 
+            // Refuse straight away when the workers are saturated, before reading the request
+            this.acceptors = Acceptor.startAll(serverChannels, clientChannel -> {
+                if (!admission.submit(() -> this.handleClient(clientChannel), () -> this.rejectClient(clientChannel))) {
+                    this.rejectClient(clientChannel);
+                }
+            });
+            for (Acceptor acceptor : this.acceptors) {
+                acceptor.join();
+            }
         } catch (IOException e) {
             System.err.println("Could not start server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Acceptor.close(serverChannels);
+            executor.shutdown();
+            if (pipeline != null) {
+                pipeline.shutdown();
+            }
+        }
+    }
+
+    private void startNioServer(ExecutorService executor, int ioThreads, int acceptors) {
+        nioServer = new NioHttpServer(tcpEnabled ? PORT : -1, acceptors, ioThreads, dispatcher, keepAlivePolicy,
+                http2Settings, timeouts, admission, tlsSettings, unixSocket, unixSocketPermissions);
+        try {
+            nioServer.start();
+        } catch (IOException e) {
+            System.err.println("Could not start server: " + e.getMessage());
+        } finally {
+            executor.shutdown();
         }
     }
 
@@ -69,99 +169,262 @@ public class HttpServer {
         router.initializeRoutes();
     }
 
-    private void handleClient(Socket socket) {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))
-        ) {
-            // Read the first line of the HTTP request
-            String requestLine = in.readLine();
-            if (requestLine == null) {
-                return; // Empty request
+    private void rejectClient(SocketChannel channel) {
+        try {
+            this.dispatcher.overloadedResponse(this.admission.getRetryAfterSeconds()).writeFully(channel);
+        } catch (IOException e) {
+            System.err.println("❗ Error rejecting client: " + e.getMessage());
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("❗ Error closing socket: " + e.getMessage());
             }
+        }
+    }
 
-            System.out.println("📥 Request: " + requestLine);
-
-            // Parse the request line (e.g., "GET /users HTTP/1.1")
-            String[] requestParts = requestLine.split(" ");
-            if (requestParts.length < 3) {
-                this.sendErrorResponse(out, 400, "Bad Request");
-                return;
+    private void handleClient(SocketChannel channel) {
+        // A missed read deadline shuts the input down, so the blocked read returns and a 408 can be sent;
+        // a missed idle or write deadline just closes the socket
+        AtomicReference<ConnectionTimeouts.Phase> expired = new AtomicReference<>();
+        ConnectionTimeouts.Deadline deadline = timeouts.newDeadline(phase -> {
+            expired.set(phase);
+            timeouts.countExpired(phase);
+            try {
+                if (phase == ConnectionTimeouts.Phase.HEADER_READ || phase == ConnectionTimeouts.Phase.BODY_READ) {
+                    channel.shutdownInput();
+                } else {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                System.err.println("❗ Error closing socket: " + e.getMessage());
             }
+        });
+        PooledBuffer pooled = BufferPool.getInstance().acquire(READ_BUFFER_SIZE);
+        try {
+            String remoteAddress = Acceptor.remoteAddress(channel);
+            // The HTTP/2 path reads through the socket adaptor stream and relies on its SO_TIMEOUT,
+            // which Unix domain sockets do not have: they get HTTP/1.1 only in this engine
+            boolean http2 = http2Settings.isEnabled() && !Acceptor.UNIX_PEER.equals(remoteAddress);
 
-            String method = requestParts[0]; // GET, POST, PUT, DELETE, etc.
-            String path = requestParts[1];   // /users, /products, etc.
+            ByteBuffer buffer = pooled.buffer();
+            HttpRequestParser parser = new HttpRequestParser();
+            // Streamed bodies go straight to the socket, the channel is in blocking mode
+            FrameWriter streamWriter = frame -> {
+                deadline.arm(ConnectionTimeouts.Phase.WRITE_STALL);
+                while (FrameWriter.remaining(frame) > 0) {
+                    channel.write(frame);
+                }
+                deadline.disarm();
+            };
 
-            // Parse headers
-            Map<String, String> headers = new HashMap<>();
-            String headerLine;
-            while ((headerLine = in.readLine()) != null && !headerLine.isEmpty()) {
-                int colonPos = headerLine.indexOf(':');
-                if (colonPos > 0) {
-                    String headerName = headerLine.substring(0, colonPos).trim();
-                    String headerValue = headerLine.substring(colonPos + 1).trim();
-                    headers.put(headerName, headerValue);
+            int requestsServed = 0;
+            // Parser time of the request being read, over every read it took
+            long parseNanos = 0;
+            boolean keepAlive = true;
+            deadline.arm(ConnectionTimeouts.Phase.HEADER_READ);
+            while (keepAlive) {
+                buffer.flip();
+                // h2c with prior knowledge starts with the HTTP/2 preface instead of a request line
+                int preface = requestsServed == 0 && http2
+                        ? Http2Connection.matchPreface(buffer) : Http2Connection.PREFACE_MISMATCH;
+                if (preface == Http2Connection.PREFACE_MATCH) {
+                    deadline.cancel();
+                    PooledBuffer handedOver = pooled;
+                    pooled = null;
+                    serveHttp2(channel, channel.socket().getInputStream(), handedOver, null);
+                    return;
+                }
+                long parseStart = System.nanoTime();
+                HttpRequest request = preface == Http2Connection.PREFACE_PARTIAL ? null : parser.parse(buffer);
+                parseNanos += System.nanoTime() - parseStart;
+                if (request == null) {
+                    buffer.compact();
+                    if (parser.isReadingBody()) {
+                        deadline.arm(ConnectionTimeouts.Phase.BODY_READ);
+                    } else if (buffer.position() > 0) {
+                        // The head deadline runs from the first byte of the request, not from the latest read
+                        deadline.enter(ConnectionTimeouts.Phase.HEADER_READ);
+                    }
+                    if (!buffer.hasRemaining()) {
+                        pooled = HttpRequestParser.expand(pooled);
+                        buffer = pooled.buffer();
+                    }
+                    int read = channel.read(buffer);
+                    if (read < 0) {
+                        ConnectionTimeouts.Phase phase = expired.get();
+                        if (phase == ConnectionTimeouts.Phase.HEADER_READ || phase == ConnectionTimeouts.Phase.BODY_READ) {
+                            this.dispatcher.errorResponse(408, "Request Timeout").writeFully(channel);
+                        }
+                        return; // Client closed the connection, or took too long
+                    }
+                    continue;
                 }
-            }
 
-            // Read request body if present
-            String body = "";
-            if (headers.containsKey("Content-Length")) {
-                int contentLength = Integer.parseInt(headers.get("Content-Length"));
-                if (contentLength > 0) {
-                    char[] bodyChars = new char[contentLength];
-                    in.read(bodyChars, 0, contentLength);
-                    body = new String(bodyChars);
+                if (pipeline != null) {
+                    pipeline.recordParse(parseNanos);
+                }
+                parseNanos = 0;
+                if (LOG_REQUESTS) {
+                    System.out.println("📥 Request: " + request);
+                }
+                deadline.disarm();
+                request.setRemoteAddress(remoteAddress);
+
+                if (http2 && Http2Connection.isUpgrade(request)) {
+                    deadline.cancel();
+                    PooledBuffer handedOver = pooled;
+                    pooled = null;
+                    serveHttp2(channel, channel.socket().getInputStream(), handedOver, request);
+                    return;
                 }
-            }
 
-            // Use the router to handle the request
-            String responseBody = this.router.handleRequest(method, path, headers, body);
-
-            // Create HTTP response
-            String response = "HTTP/1.1 200 OK\r\n" +
-                    "Content-Type: application/json\r\n" +
-                    "Content-Length: " + responseBody.length() + "\r\n" +
-                    "Access-Control-Allow-Origin: *\r\n" +  // Allow CORS
-                    "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, PATCH\r\n" +
-                    "Access-Control-Allow-Headers: Content-Type\r\n" +
-                    "\r\n" +
-                    responseBody;
-
-            // Send the response
-            out.write(response);
-            out.flush();
+                requestsServed++;
+                boolean reuse = keepAlivePolicy.keepAlive(request.getVersion(), request.getHeaders(), requestsServed);
+
+                // Use the router to handle the request and build the HTTP response, unless the client is over its rate limit
+                long retryAfter = this.dispatcher.rateLimit(request);
+                EncodedResponse response;
+                if (retryAfter > 0) {
+                    response = this.dispatcher.tooManyRequestsResponse(retryAfter, reuse);
+                } else if (pipeline != null) {
+                    response = pipeline.process(request, reuse, streamWriter);
+                } else {
+                    response = this.dispatcher.dispatch(request, reuse, streamWriter);
+                }
+                keepAlive = response.isKeepAlive();
+                deadline.arm(ConnectionTimeouts.Phase.WRITE_STALL);
+                response.writeFully(channel);
+                deadline.arm(ConnectionTimeouts.Phase.IDLE);
+
+                // The request sliced the buffer, only drop it once the response is out.
+                // Pipelined requests stay in the buffer and are answered in order.
+                buffer.compact();
+            }
+        } catch (HttpParseException e) {
+            try {
+                this.dispatcher.errorResponse(e.getStatusCode(), e.getMessage()).writeFully(channel);
+            } catch (IOException ex) {
+                System.err.println("❗ Error handling client: " + ex.getMessage());
+            }
         } catch (IOException e) {
-            System.err.println("❗ Error handling client: " + e.getMessage());
+            // A deadline closing the socket surfaces here, it is counted, not an error
+            if (expired.get() == null) {
+                System.err.println("❗ Error handling client: " + e.getMessage());
+            }
         } finally {
+            deadline.cancel();
             try {
-                socket.close();
+                channel.close();
             } catch (IOException e) {
                 System.err.println("❗ Error closing socket: " + e.getMessage());
             }
+            if (pooled != null) {
+                pooled.release();
+            }
         }
     }
 
+    /**
+     * Run an HTTP/2 connection on this worker. The worker reads frames; streams are answered by other
+     * workers, which write their frames under the connection lock.
+     *
+     * @param pooled  Bytes read so far, in read mode; released when the connection ends
+     * @param upgrade The HTTP/1.1 request that asked for h2c, or null for prior knowledge
+     */
+    private void serveHttp2(SocketChannel channel, InputStream in, PooledBuffer pooled, HttpRequest upgrade)
+            throws IOException, HttpParseException {
+        try {
+            // Idle HTTP/2 connections are detected with SO_TIMEOUT, only once no stream is active
+            channel.socket().setSoTimeout(keepAlivePolicy.getIdleTimeoutMs());
+            // Not synchronized: tasks write to the socket, which would pin a virtual thread's carrier
+            ReentrantLock lock = new ReentrantLock();
+            Http2Transport transport = new Http2Transport() {
+                @Override
+                public void execute(Runnable task) {
+                    lock.lock();
+                    try {
+                        task.run();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
 
-    private void sendErrorResponse(BufferedWriter out, int statusCode, String message) throws IOException {
-        Map<String, Object> error = new HashMap<>();
-        error.put("status", statusCode);
-        error.put("error", message);
+                @Override
+                public void write(ByteBuffer[] frames) throws IOException {
+                    while (FrameWriter.remaining(frames) > 0) {
+                        channel.write(frames);
+                    }
+                }
 
-        String errorJson = JsonUtil.getInstance().toJson(error);
+                @Override
+                public void close() {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        System.err.println("❗ Error closing socket: " + e.getMessage());
+                    }
+                }
 
-        String response = "HTTP/1.1 " + statusCode + " " + message + "\r\n" +
-                "Content-Type: application/json\r\n" +
-                "Content-Length: " + errorJson.length() + "\r\n" +
-                "Access-Control-Allow-Origin: *\r\n" +
-                "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, PATCH\r\n" +
-                "Access-Control-Allow-Headers: Content-Type\r\n" +
-                "\r\n" +
-                errorJson;
+                @Override
+                public String getRemoteAddress() {
+                    return Acceptor.remoteAddress(channel);
+                }
+            };
+
+            Http2Connection http2 = new Http2Connection(transport, dispatcher, admission, http2Settings);
+            if (upgrade == null) {
+                transport.execute(http2::start);
+            } else {
+                ByteBuffer switching = Http2Connection.switchingProtocols();
+                transport.execute(() -> {
+                    try {
+                        transport.write(new ByteBuffer[]{switching});
+                    } catch (IOException e) {
+                        transport.close();
+                        return;
+                    }
+                    http2.startUpgraded(upgrade);
+                });
+            }
 
-        out.write(response);
-        out.flush();
+            // The socket stream reads into arrays, the pooled buffer is direct
+            byte[] chunk = new byte[READ_BUFFER_SIZE];
+            while (true) {
+                ByteBuffer frames = pooled.buffer();
+                transport.execute(() -> http2.onBytes(frames));
+                if (http2.isClosed()) {
+                    return;
+                }
+                frames.compact();
+                if (!frames.hasRemaining()) {
+                    pooled = HttpRequestParser.expand(pooled);
+                }
+
+                ByteBuffer buffer = pooled.buffer();
+                int read;
+                try {
+                    read = in.read(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+                } catch (SocketTimeoutException e) {
+                    boolean[] idle = {false};
+                    transport.execute(() -> idle[0] = !http2.hasActiveStreams());
+                    if (idle[0]) {
+                        transport.execute(http2::shutdown);
+                        return;
+                    }
+                    read = 0;
+                }
+                if (read < 0) {
+                    return;
+                }
+                buffer.put(chunk, 0, read);
+                buffer.flip();
+            }
+        } finally {
+            pooled.release();
+        }
     }
+
     public void closDatabase() {
         if (this.connection != null) {
             try {
@@ -173,6 +436,12 @@ public class HttpServer {
     }
 
     public void closeServer() {
-        this.isRunning = false;
+        for (Acceptor acceptor : acceptors) {
+            acceptor.stop();
+        }
+        Acceptor.close(serverChannels);
+        if (nioServer != null) {
+            nioServer.stop();
+        }
     }
 }
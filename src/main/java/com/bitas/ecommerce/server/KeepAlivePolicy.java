@@ -0,0 +1,75 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.utils.AppConfig;
+
+import java.util.Map;
+
+/**
+ * Decides whether a connection stays open after a response (HTTP/1.1 persistent connections).
+ * Limits are read from application.properties:
+ * server.keepalive.enabled, server.keepalive.max-requests and server.keepalive.idle-timeout-ms.
+ */
+public class KeepAlivePolicy {
+    private final boolean enabled;
+    private final int maxRequests;
+    private final int idleTimeoutMs;
+
+    public KeepAlivePolicy(boolean enabled, int maxRequests, int idleTimeoutMs) {
+        this.enabled = enabled;
+        this.maxRequests = maxRequests;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public static KeepAlivePolicy fromConfig() {
+        return new KeepAlivePolicy(
+                AppConfig.getBoolean("server.keepalive.enabled", true),
+                AppConfig.getInt("server.keepalive.max-requests", 100),
+                AppConfig.getInt("server.keepalive.idle-timeout-ms", 5000));
+    }
+
+    /**
+     * Whether the connection may be reused after answering this request.
+     *
+     * @param version        HTTP version from the request line (HTTP/1.0, HTTP/1.1)
+     * @param headers        Request headers
+     * @param requestsServed Number of requests served on this connection, including this one
+     * @return true to keep the connection open
+     */
+    public boolean keepAlive(String version, Map<String, String> headers, int requestsServed) {
+        if (!enabled || requestsServed >= maxRequests) {
+            return false;
+        }
+        String connection = headerIgnoreCase(headers, "Connection");
+        if (connection != null) {
+            if (connection.equalsIgnoreCase("close")) {
+                return false;
+            }
+            if (connection.equalsIgnoreCase("keep-alive")) {
+                return true;
+            }
+        }
+        // HTTP/1.1 connections are persistent by default, HTTP/1.0 ones are not
+        return "HTTP/1.1".equals(version);
+    }
+
+    public int getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    private static String headerIgnoreCase(Map<String, String> headers, String name) {
+        String value = headers.get(name);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,264 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.server.http.HeaderNames;
+import com.bitas.ecommerce.server.http.HttpRequest;
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.auth.JWT;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client token buckets, checked by the engines before a request is queued for a worker, so a client
+ * over its limit gets 429 with Retry-After without costing a worker or a DB connection.
+ * Each rule (server.rate-limit.rules) matches methods and a path prefix and has its own burst and refill
+ * rate; the first matching rule applies and requests matching none are not limited.
+ * Clients are keyed by IP address, or by the subject of a valid bearer token (falling back to the IP).
+ * Requests over the Unix domain socket come from the local proxy, so their client is always taken from
+ * X-Forwarded-For.
+ * <p>
+ * A bucket is one AtomicLong: the time at which it is full again (GCRA). Taking a token moves that time
+ * one refill interval forward with a CAS, so the check takes no lock. A bucket whose time has passed is
+ * full and carries no state, which is what keeps the map bounded: full buckets are swept away, and a
+ * client whose bucket was swept starts again from exactly the same full bucket.
+ */
+public class RateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final List<Rule> rules;
+    private final boolean trustForwardedFor;
+    private final String jwtSecret;
+
+    public RateLimiter(List<Rule> rules, boolean trustForwardedFor, String jwtSecret) {
+        this.rules = rules;
+        this.trustForwardedFor = trustForwardedFor;
+        this.jwtSecret = jwtSecret;
+    }
+
+    public static RateLimiter fromConfig() {
+        List<Rule> rules = new ArrayList<>();
+        if (AppConfig.getBoolean("server.rate-limit.enabled", true)) {
+            String defaultKey = AppConfig.get("server.rate-limit.key", "subject");
+            int maxClients = AppConfig.getInt("server.rate-limit.max-clients", 100_000);
+            for (String name : AppConfig.get("server.rate-limit.rules", "").split(",")) {
+                name = name.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                String prefix = "server.rate-limit." + name + ".";
+                String route = AppConfig.get(prefix + "route", "");
+                int space = route.indexOf(' ');
+                if (space < 0) {
+                    System.err.println("❗ Rate limit rule " + name + " has no \"METHOD /path\" route, ignored");
+                    continue;
+                }
+                rules.add(new Rule(name,
+                        List.of(route.substring(0, space).trim().split(",")),
+                        route.substring(space + 1).trim(),
+                        AppConfig.getInt(prefix + "burst", 10),
+                        Double.parseDouble(AppConfig.get(prefix + "per-second", "1")),
+                        KeyType.fromConfig(AppConfig.get(prefix + "key", defaultKey)),
+                        maxClients));
+            }
+        }
+        return new RateLimiter(rules,
+                AppConfig.getBoolean("server.rate-limit.trust-forwarded-for", false),
+                AppConfig.get("jwt.secret", ""));
+    }
+
+    /**
+     * Take a token for the request from its client's bucket.
+     *
+     * @return 0 when the request may proceed, otherwise the seconds to send in Retry-After
+     */
+    public long acquire(HttpRequest request) {
+        if (rules.isEmpty()) {
+            return 0;
+        }
+        Rule rule = find(request.getMethod().name(), request.getPath());
+        if (rule == null) {
+            return 0;
+        }
+        long waitNanos = rule.tryAcquire(key(rule.keyType, request), System.nanoTime());
+        return waitNanos <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+    }
+
+    private Rule find(String method, String path) {
+        for (Rule rule : rules) {
+            if (rule.matches(method, path)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private String key(KeyType type, HttpRequest request) {
+        if (type == KeyType.SUBJECT) {
+            String subject = subject(request.getHeaders().get(HeaderNames.AUTHORIZATION));
+            if (subject != null) {
+                return "sub:" + subject;
+            }
+        }
+        return "ip:" + clientAddress(request);
+    }
+
+    /**
+     * The user id of a bearer token, only when its signature verifies; a forged or expired token is
+     * keyed by address like an anonymous request, so inventing tokens does not buy fresh buckets.
+     */
+    private String subject(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        String token = authorization.substring(7).trim();
+        try {
+            if (!JWT.verify(token, jwtSecret)) {
+                return null;
+            }
+            Map<?, ?> payload = JsonUtil.getInstance().fromJson(JWT.getPayload(token), Map.class);
+            Object subject = payload.get("sub") != null ? payload.get("sub") : payload.get("id");
+            return subject != null ? subject.toString() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private String clientAddress(HttpRequest request) {
+        String address = request.getRemoteAddress();
+        if (trustForwardedFor || Acceptor.UNIX_PEER.equals(address)) {
+            // The last entry was added by the proxy in front of us; earlier ones are client-supplied
+            String forwarded = request.getHeaders().get(HeaderNames.X_FORWARDED_FOR);
+            if (forwarded != null) {
+                String last = forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+                if (!last.isEmpty()) {
+                    return last;
+                }
+            }
+        }
+        return address != null ? address : "unknown";
+    }
+
+    /**
+     * What a rule counts requests per.
+     */
+    public enum KeyType {
+        IP, SUBJECT;
+
+        static KeyType fromConfig(String value) {
+            return "ip".equalsIgnoreCase(value.trim()) ? IP : SUBJECT;
+        }
+    }
+
+    /**
+     * One limit: a route and the buckets of the clients calling it.
+     */
+    public static final class Rule {
+        private final List<String> methods;
+        private final String pathPrefix;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final KeyType keyType;
+        private final int maxClients;
+
+        private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        private final AtomicBoolean sweeping = new AtomicBoolean();
+        private volatile long nextSweep = System.nanoTime() + SWEEP_INTERVAL_NANOS;
+        private final LongAdder allowed;
+        private final LongAdder rejected;
+
+        /**
+         * @param methods    HTTP methods, * for any
+         * @param pathPrefix Path the request path must start with, up to a segment boundary: /api/v1/products
+         *                   matches /api/v1/products/5 but not /api/v1/productsXYZ
+         * @param burst      Bucket capacity: requests a client with a full bucket may send at once
+         * @param perSecond  Refill rate, the sustained requests per second
+         * @param maxClients Buckets kept before full ones are swept early, and before live ones are evicted
+         */
+        public Rule(String name, List<String> methods, String pathPrefix, int burst, double perSecond, KeyType keyType,
+                    int maxClients) {
+            this.methods = methods;
+            this.pathPrefix = pathPrefix;
+            this.intervalNanos = Math.max(1, (long) (1_000_000_000L / perSecond));
+            this.burstNanos = Math.max(1, burst) * intervalNanos;
+            this.keyType = keyType;
+            this.maxClients = maxClients;
+
+            Metrics metrics = Metrics.getInstance();
+            this.allowed = metrics.counter("rate_limit." + name + ".allowed");
+            this.rejected = metrics.counter("rate_limit." + name + ".rejected");
+            metrics.gauge("rate_limit." + name + ".clients", buckets::size);
+        }
+
+        boolean matches(String requestMethod, String path) {
+            return matchesPath(path) && (methods.contains("*") || methods.contains(requestMethod));
+        }
+
+        private boolean matchesPath(String path) {
+            if (!path.startsWith(pathPrefix)) {
+                return false;
+            }
+            if (path.length() == pathPrefix.length() || pathPrefix.endsWith("/")) {
+                return true;
+            }
+            char next = path.charAt(pathPrefix.length());
+            return next == '/' || next == '?';
+        }
+
+        /**
+         * @return 0 when a token was taken, otherwise nanoseconds until one is available
+         */
+        long tryAcquire(String key, long now) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+            maybeSweep(now);
+
+            while (true) {
+                long fullAt = bucket.get();
+                // A bucket that has been full for a while holds no more than burst tokens
+                long next = (fullAt - now > 0 ? fullAt : now) + intervalNanos;
+                long excess = next - now - burstNanos;
+                if (excess > 0) {
+                    rejected.increment();
+                    return excess;
+                }
+                if (bucket.compareAndSet(fullAt, next)) {
+                    allowed.increment();
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Drop full buckets every sweep interval, or as soon as the map is over its bound. One caller
+         * sweeps while the others carry on; no thread of its own.
+         */
+        private void maybeSweep(long now) {
+            if ((now - nextSweep < 0 && buckets.size() <= maxClients) || !sweeping.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                buckets.entrySet().removeIf(entry -> entry.getValue().get() - now <= 0);
+                // Still over the bound: every client is mid-burst, evict arbitrary ones
+                Iterator<String> keys = buckets.keySet().iterator();
+                while (buckets.size() > maxClients && keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                }
+                nextSweep = now + SWEEP_INTERVAL_NANOS;
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Histogram;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * One stage of the {@link StagedPipeline}: a fixed pool of threads behind a bounded queue
+ * (server.stages.&lt;name&gt;.threads and .queue-size). A task offered to a full queue is refused with
+ * RejectedExecutionException, which the pipeline answers with 503.
+ * <p>
+ * Published per stage: stage.&lt;name&gt;.queue_depth and .busy (gauges), .time_in_queue and .service_time
+ * (histograms) and .rejected. A deep queue with short service times means the stage needs threads; long
+ * service times with an empty queue point at the work itself.
+ */
+public final class Stage implements Executor {
+    private final String name;
+    private final ThreadPoolExecutor pool;
+
+    private final LongAdder rejected;
+    private final Histogram timeInQueue;
+    private final Histogram serviceTime;
+
+    public Stage(String name, int threads, int queueSize) {
+        this.name = name;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), task -> {
+                    Thread thread = new Thread(task, "stage-" + name + "-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Metrics metrics = Metrics.getInstance();
+        String prefix = "stage." + name + ".";
+        this.rejected = metrics.counter(prefix + "rejected");
+        this.timeInQueue = metrics.histogram(prefix + "time_in_queue");
+        this.serviceTime = metrics.histogram(prefix + "service_time");
+        metrics.gauge(prefix + "queue_depth", () -> pool.getQueue().size());
+        metrics.gauge(prefix + "busy", pool::getActiveCount);
+    }
+
+    /**
+     * @param defaultThreads Threads when server.stages.&lt;name&gt;.threads is not set
+     */
+    public static Stage fromConfig(String name, int defaultThreads) {
+        String prefix = "server.stages." + name + ".";
+        int threads = AppConfig.getInt(prefix + "threads", 0);
+        return new Stage(name, threads > 0 ? threads : defaultThreads, AppConfig.getInt(prefix + "queue-size", 1000));
+    }
+
+    /**
+     * Queue a task, timing its wait and its run.
+     *
+     * @throws RejectedExecutionException when the queue is full
+     */
+    @Override
+    public void execute(Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                long start = System.nanoTime();
+                timeInQueue.recordNanos(start - enqueuedAt);
+                try {
+                    task.run();
+                } finally {
+                    serviceTime.recordNanos(System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Run the work on this stage.
+     *
+     * @return Stage completed with the work's result, or exceptionally when it threw or was refused
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, this);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
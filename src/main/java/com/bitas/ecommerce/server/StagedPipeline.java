@@ -0,0 +1,92 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.server.http.EncodedResponse;
+import com.bitas.ecommerce.server.http.FrameWriter;
+import com.bitas.ecommerce.server.http.HttpRequest;
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Histogram;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * The blocking engine's request path split into stages (server.stages.enabled), so each phase is sized
+ * and measured on its own instead of one worker doing everything:
+ * <ul>
+ *     <li>parse     - the connection thread (server.executor): reads the socket and parses. A read blocks
+ *                     for as long as the client is idle, so this stays one thread per connection; the
+ *                     parsing of each complete request is timed (stage.parse.service_time), its queue is
+ *                     admission.queue_depth</li>
+ *     <li>handle    - routing and the route itself, JDBC included; sized for blocking work</li>
+ *     <li>serialize - status line, headers and compression of the response; CPU only, sized to the cores,
+ *                     so compression does not hold the threads sized for JDBC</li>
+ * </ul>
+ * The connection thread waits for its request to go through the stages, then writes the response itself
+ * before parsing the next one, so responses stay in order: the bounded stages cap how many requests run
+ * and compress at once, they do not let a connection thread move on early. A write stage would be one
+ * more hop for the same wait. Streaming routes write their chunks from the handle stage, only the end of
+ * the response goes through serialize. A stage whose queue is full answers 503.
+ * HTTP/2 connections and the nio engine, which already parses and writes on its I/O threads, do not use it.
+ */
+public class StagedPipeline {
+    private final HttpDispatcher dispatcher;
+    private final int retryAfterSeconds;
+    private final Stage handle;
+    private final Stage serialize;
+    private final Histogram parseTime;
+
+    public StagedPipeline(HttpDispatcher dispatcher, int retryAfterSeconds, Stage handle, Stage serialize) {
+        this.dispatcher = dispatcher;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.handle = handle;
+        this.serialize = serialize;
+        this.parseTime = Metrics.getInstance().histogram("stage.parse.service_time");
+    }
+
+    /**
+     * @return The pipeline, or null when server.stages.enabled is false
+     */
+    public static StagedPipeline fromConfig(HttpDispatcher dispatcher, int retryAfterSeconds) {
+        if (!AppConfig.getBoolean("server.stages.enabled", false)) {
+            return null;
+        }
+        int cpu = Runtime.getRuntime().availableProcessors();
+        return new StagedPipeline(dispatcher, retryAfterSeconds,
+                Stage.fromConfig("handle", cpu * 4),
+                Stage.fromConfig("serialize", cpu));
+    }
+
+    /**
+     * Time spent in the parser for one complete request, over all the reads it took.
+     */
+    public void recordParse(long nanos) {
+        parseTime.recordNanos(nanos);
+    }
+
+    /**
+     * Run the request through the handle and serialize stages and wait for its encoded response.
+     *
+     * @param writer Connection to stream to, used from the handle stage
+     * @return Encoded response, or a 503 when a stage refused the work
+     */
+    public EncodedResponse process(HttpRequest request, boolean keepAlive, FrameWriter writer) {
+        try {
+            return handle.supply(() -> dispatcher.dispatchAsync(request, keepAlive, writer, serialize))
+                    .thenCompose(Function.identity())
+                    .join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                return dispatcher.overloadedResponse(retryAfterSeconds);
+            }
+            System.err.println("❗ Error handling request: " + e.getCause());
+            return dispatcher.errorResponse(500, "Internal Server Error");
+        }
+    }
+
+    public void shutdown() {
+        handle.shutdown();
+        serialize.shutdown();
+    }
+}
@@ -0,0 +1,228 @@
+package com.bitas.ecommerce.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timing wheel: one thread, a ring of buckets, one bucket swept per tick.
+ * Each owner (a connection) holds a single {@link Timer} for its whole life and re-arms it as it moves
+ * between phases. Pushing a deadline back only stores it; the timer is moved lazily when its old bucket
+ * comes up, so re-arming on every read costs one atomic write and no allocation, and there is never a
+ * scheduled task per connection. Only a deadline earlier than the bucket the timer sits in goes
+ * through the wheel thread's queue.
+ * Deadlines further away than one rotation simply stay in their bucket for another lap.
+ * Timeouts fire up to one tick late, which is plenty for socket timeouts.
+ */
+public class TimerWheel implements Runnable {
+    // The low bits of a timer's state carry the caller's tag, so deadline and tag change atomically
+    private static final int TAG_BITS = 3;
+    public static final int MAX_TAG = (1 << TAG_BITS) - 1;
+
+    private final long tickNanos;
+    private final Timer[] buckets;
+    private final int mask;
+    private final Queue<Timer> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final String name;
+    // Created by start(), so the constructor does not hand out this
+    private volatile Thread thread;
+
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param name      Thread name
+     * @param tickMs    Resolution of the wheel
+     * @param wheelSize Number of buckets, rounded up to a power of two
+     */
+    public TimerWheel(String name, long tickMs, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.buckets = new Timer[size];
+        this.mask = size - 1;
+        this.name = name;
+    }
+
+    public void start() {
+        Thread ticker = new Thread(this, name);
+        ticker.setDaemon(true);
+        thread = ticker;
+        ticker.start();
+    }
+
+    public void stop() {
+        running = false;
+        Thread ticker = thread;
+        if (ticker != null) {
+            LockSupport.unpark(ticker);
+        }
+    }
+
+    /**
+     * Create a disarmed timer.
+     *
+     * @param onExpired Called on the wheel thread with the tag of the deadline that passed; must not block
+     */
+    public Timer newTimer(IntConsumer onExpired) {
+        return new Timer(onExpired);
+    }
+
+    private long now() {
+        return System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public void run() {
+        long nextTick = tickNanos;
+        while (running) {
+            long sleep = nextTick - now();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+                continue;
+            }
+
+            Timer timer;
+            while ((timer = pending.poll()) != null) {
+                timer.queued.set(false);
+                remove(timer);
+                if (timer.state.get() != 0) {
+                    place(timer);
+                }
+            }
+            expireBucket(now());
+            tick++;
+            nextTick += tickNanos;
+        }
+    }
+
+    private void place(Timer timer) {
+        long deadline = timer.state.get() >>> TAG_BITS;
+        long deadlineTick = (deadline + tickNanos - 1) / tickNanos;
+        int index = (int) (Math.max(deadlineTick, tick + 1) & mask);
+        Timer head = buckets[index];
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        buckets[index] = timer;
+        timer.bucket = index;
+        timer.placedDeadline = deadline;
+    }
+
+    private void remove(Timer timer) {
+        if (timer.bucket < 0) {
+            return;
+        }
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            buckets[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.next = null;
+        timer.prev = null;
+        timer.bucket = -1;
+        timer.placedDeadline = Long.MAX_VALUE;
+    }
+
+    private void expireBucket(long now) {
+        int index = (int) (tick & mask);
+        Timer timer = buckets[index];
+        buckets[index] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.next = null;
+            timer.prev = null;
+            timer.bucket = -1;
+            timer.placedDeadline = Long.MAX_VALUE;
+
+            long state = timer.state.get();
+            if (state != 0 && (state >>> TAG_BITS) <= now && timer.state.compareAndSet(state, 0)) {
+                try {
+                    timer.onExpired.accept((int) (state & MAX_TAG));
+                } catch (RuntimeException e) {
+                    System.err.println("❗ Timer callback failed: " + e.getMessage());
+                }
+            }
+            // Not due yet (a later lap, or pushed back since it was placed), or re-armed by the callback
+            if (timer.state.get() != 0 && timer.bucket < 0) {
+                place(timer);
+            }
+            timer = next;
+        }
+    }
+
+    /**
+     * A re-armable deadline. At most one deadline is armed at a time; arming replaces it.
+     */
+    public class Timer {
+        private final IntConsumer onExpired;
+        // 0 when disarmed, otherwise (deadline in nanos since the wheel started) << TAG_BITS | tag
+        private final AtomicLong state = new AtomicLong();
+        private final AtomicBoolean queued = new AtomicBoolean();
+        // Deadline the timer was filed under, Long.MAX_VALUE when it is in no bucket
+        private volatile long placedDeadline = Long.MAX_VALUE;
+        private volatile boolean cancelled;
+        // Bucket links, only touched by the wheel thread
+        private Timer prev;
+        private Timer next;
+        private int bucket = -1;
+
+        private Timer(IntConsumer onExpired) {
+            this.onExpired = onExpired;
+        }
+
+        /**
+         * Arm (or re-arm) the timer.
+         *
+         * @param delayMs Time from now until the deadline
+         * @param tag     Passed back to the callback, 0..{@link #MAX_TAG}
+         */
+        public void arm(long delayMs, int tag) {
+            if (cancelled) {
+                return;
+            }
+            long deadline = Math.max(1, now() + TimeUnit.MILLISECONDS.toNanos(delayMs));
+            state.set(deadline << TAG_BITS | (tag & MAX_TAG));
+            // A later deadline is picked up lazily when the current bucket comes up; an earlier one
+            // (or a timer in no bucket) has to be moved by the wheel thread
+            if (deadline < placedDeadline && queued.compareAndSet(false, true)) {
+                pending.add(this);
+            }
+        }
+
+        /**
+         * Forget the current deadline. The timer leaves the wheel when its bucket comes up.
+         */
+        public void disarm() {
+            state.set(0);
+        }
+
+        /**
+         * Disarm for good, arming afterwards has no effect.
+         */
+        public void cancel() {
+            cancelled = true;
+            state.set(0);
+        }
+
+        public boolean isArmed() {
+            return state.get() != 0;
+        }
+
+        /**
+         * @return Tag of the armed deadline, -1 when disarmed
+         */
+        public int tag() {
+            long current = state.get();
+            return current == 0 ? -1 : (int) (current & MAX_TAG);
+        }
+    }
+}
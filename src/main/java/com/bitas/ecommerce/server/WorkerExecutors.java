@@ -0,0 +1,44 @@
+package com.bitas.ecommerce.server;
+
+import com.bitas.ecommerce.utils.AppConfig;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Creates the executor that runs request handling, selected with server.executor:
+ * <ul>
+ *     <li>fixed    - fixed pool of server.executor.threads platform threads (default cpu * 4)</li>
+ *     <li>virtual  - one virtual thread per task, suited to routes that block on JDBC</li>
+ *     <li>forkjoin - work-stealing pool with server.executor.threads parallelism (default cpu)</li>
+ * </ul>
+ */
+public class WorkerExecutors {
+
+    private WorkerExecutors() {
+    }
+
+    public static ExecutorService fromConfig() {
+        return create(AppConfig.get("server.executor", "fixed"), AppConfig.getInt("server.executor.threads", 0));
+    }
+
+    /**
+     * @param mode    fixed, virtual or forkjoin
+     * @param threads Pool size for fixed and forkjoin, 0 to use the default
+     */
+    public static ExecutorService create(String mode, int threads) {
+        int cpu = Runtime.getRuntime().availableProcessors();
+        switch (mode.trim().toLowerCase()) {
+            case "virtual":
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("worker-v-", 0).factory());
+            case "forkjoin":
+                return new ForkJoinPool(threads > 0 ? threads : cpu,
+                        ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+            case "fixed":
+                return Executors.newFixedThreadPool(threads > 0 ? threads : cpu * 4);
+            default:
+                throw new IllegalArgumentException("Unknown server.executor: " + mode);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.bitas.ecommerce.server.h2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header table: the 61 entry static table followed by the connection's dynamic table.
+ * Index 1 is the first static entry, index 62 the most recently added dynamic entry.
+ * Each side of a connection has its own table (one for decoding, one for encoding).
+ */
+class HeaderTable {
+    static final String[][] STATIC = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+    private static final int ENTRY_OVERHEAD = 32;
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC[i][0] + '\0' + STATIC[i][1], i + 1);
+        }
+    }
+
+    // Oldest first, so the newest entry is at the end
+    private final List<String[]> dynamic = new ArrayList<>();
+    private int size;
+    private int maxSize;
+
+    HeaderTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Entry at a 1-based HPACK index.
+     *
+     * @return {name, value}
+     * @throws Http2Exception COMPRESSION_ERROR for an index outside the table
+     */
+    String[] get(int index) throws Http2Exception {
+        if (index >= 1 && index <= STATIC.length) {
+            return STATIC[index - 1];
+        }
+        int dynamicIndex = index - STATIC.length - 1;
+        if (dynamicIndex < 0 || dynamicIndex >= dynamic.size()) {
+            throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Invalid header index " + index);
+        }
+        return dynamic.get(dynamic.size() - 1 - dynamicIndex);
+    }
+
+    /**
+     * Find a header for the encoder.
+     *
+     * @return The index of an entry with the same name and value, or minus the index of an entry
+     *         with the same name, or 0
+     */
+    int indexOf(String name, String value) {
+        for (int i = dynamic.size() - 1; i >= 0; i--) {
+            String[] entry = dynamic.get(i);
+            if (entry[0].equals(name) && entry[1].equals(value)) {
+                return STATIC.length + dynamic.size() - i;
+            }
+        }
+        Integer field = STATIC_FIELDS.get(name + '\0' + value);
+        if (field != null) {
+            return field;
+        }
+        Integer nameIndex = STATIC_NAMES.get(name);
+        return nameIndex != null ? -nameIndex : 0;
+    }
+
+    void add(String name, String value) {
+        int entrySize = entrySize(name, value);
+        evict(maxSize - entrySize);
+        // An entry larger than the table just empties it
+        if (entrySize <= maxSize) {
+            dynamic.add(new String[]{name, value});
+            size += entrySize;
+        }
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    private void evict(int targetSize) {
+        while (size > Math.max(0, targetSize) && !dynamic.isEmpty()) {
+            String[] oldest = dynamic.remove(0);
+            size -= entrySize(oldest[0], oldest[1]);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.bitas.ecommerce.server.h2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541) sent by the client.
+ * The dynamic table is shared by every block of the connection, so every block must be decoded
+ * in order, even those of streams that end up refused.
+ */
+class HpackDecoder {
+    private final HeaderTable table;
+    private final int maxTableSize;
+
+    /**
+     * @param maxTableSize SETTINGS_HEADER_TABLE_SIZE announced to the client
+     */
+    HpackDecoder(int maxTableSize) {
+        this.table = new HeaderTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+    }
+
+    /**
+     * Decode a complete header block.
+     *
+     * @return {name, value} pairs in block order
+     * @throws Http2Exception COMPRESSION_ERROR for a malformed block (a connection error)
+     */
+    List<String[]> decode(ByteBuffer block) throws Http2Exception {
+        List<String[]> fields = new ArrayList<>();
+        while (block.hasRemaining()) {
+            int b = block.get(block.position()) & 0xff;
+            if ((b & 0x80) != 0) {
+                // Indexed field
+                int index = readInteger(block, 7);
+                if (index == 0) {
+                    throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Header index 0");
+                }
+                fields.add(table.get(index));
+            } else if ((b & 0x40) != 0) {
+                fields.add(readLiteral(block, 6, true));
+            } else if ((b & 0x20) != 0) {
+                // Dynamic table size update, only allowed before the first field
+                if (!fields.isEmpty()) {
+                    throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Late table size update");
+                }
+                int size = readInteger(block, 5);
+                if (size > maxTableSize) {
+                    throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Table size " + size + " above limit");
+                }
+                table.setMaxSize(size);
+            } else {
+                // Literal without indexing (0000) or never indexed (0001)
+                fields.add(readLiteral(block, 4, false));
+            }
+        }
+        return fields;
+    }
+
+    private String[] readLiteral(ByteBuffer block, int prefixBits, boolean addToTable) throws Http2Exception {
+        int nameIndex = readInteger(block, prefixBits);
+        String name = nameIndex == 0 ? readString(block) : table.get(nameIndex)[0];
+        String value = readString(block);
+        if (addToTable) {
+            table.add(name, value);
+        }
+        return new String[]{name, value};
+    }
+
+    private static String readString(ByteBuffer block) throws Http2Exception {
+        if (!block.hasRemaining()) {
+            throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Truncated header block");
+        }
+        boolean huffman = (block.get(block.position()) & 0x80) != 0;
+        int length = readInteger(block, 7);
+        if (length > block.remaining()) {
+            throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Truncated header string");
+        }
+        if (huffman) {
+            return Huffman.decode(block, length);
+        }
+        byte[] bytes = new byte[length];
+        block.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read an integer with an N-bit prefix (RFC 7541, 5.1).
+     */
+    static int readInteger(ByteBuffer block, int prefixBits) throws Http2Exception {
+        int max = (1 << prefixBits) - 1;
+        int value = block.get() & max;
+        if (value < max) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (!block.hasRemaining() || shift > 21) {
+                throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Invalid integer");
+            }
+            b = block.get() & 0xff;
+            value += (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (value < 0) {
+            throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "Integer overflow");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bitas.ecommerce.server.h2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes response header blocks.
+ * Headers that repeat on every response (content type, CORS, ...) are added to the dynamic table
+ * and shrink to a single byte from the second response on. Values that change per response are
+ * sent as literals so they do not churn the table. Strings are Huffman coded when that is shorter.
+ */
+class HpackEncoder {
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final Set<String> NOT_INDEXED = Set.of(
+            "content-length", "date", "etag", "last-modified", "retry-after", "set-cookie", "location");
+
+    private final HeaderTable table = new HeaderTable(DEFAULT_TABLE_SIZE);
+    private int pendingSizeUpdate = -1;
+
+    /**
+     * Apply the client's SETTINGS_HEADER_TABLE_SIZE. The table never grows past the default size.
+     */
+    void setMaxTableSize(int peerMaxSize) {
+        int size = Math.min(peerMaxSize, DEFAULT_TABLE_SIZE);
+        if (size != table.getMaxSize()) {
+            table.setMaxSize(size);
+            pendingSizeUpdate = size;
+        }
+    }
+
+    /**
+     * Encode a header block.
+     *
+     * @param fields {name, value} pairs, names in lower case
+     * @return The block, flipped
+     */
+    ByteBuffer encode(List<String[]> fields) {
+        int capacity = 8;
+        for (String[] field : fields) {
+            capacity += field[0].length() + field[1].length() + 12;
+        }
+        ByteBuffer out = ByteBuffer.allocate(capacity);
+
+        if (pendingSizeUpdate >= 0) {
+            writeInteger(out, 0x20, 5, pendingSizeUpdate);
+            pendingSizeUpdate = -1;
+        }
+        for (String[] field : fields) {
+            encode(field[0], field[1], out);
+        }
+        return out.flip();
+    }
+
+    private void encode(String name, String value, ByteBuffer out) {
+        int index = table.indexOf(name, value);
+        if (index > 0) {
+            writeInteger(out, 0x80, 7, index);
+            return;
+        }
+        int nameIndex = -index;
+        if (NOT_INDEXED.contains(name)) {
+            writeInteger(out, 0x00, 4, nameIndex);
+        } else {
+            writeInteger(out, 0x40, 6, nameIndex);
+            table.add(name, value);
+        }
+        if (nameIndex == 0) {
+            writeString(name, out);
+        }
+        writeString(value, out);
+    }
+
+    private static void writeString(String s, ByteBuffer out) {
+        int huffmanLength = Huffman.encodedLength(s);
+        if (huffmanLength < s.length()) {
+            writeInteger(out, 0x80, 7, huffmanLength);
+            Huffman.encode(s, out);
+        } else {
+            writeInteger(out, 0x00, 7, s.length());
+            out.put(s.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Write an integer with an N-bit prefix after the given pattern bits (RFC 7541, 5.1).
+     */
+    static void writeInteger(ByteBuffer out, int pattern, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.put((byte) (pattern | value));
+            return;
+        }
+        out.put((byte) (pattern | max));
+        value -= max;
+        while (value >= 0x80) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
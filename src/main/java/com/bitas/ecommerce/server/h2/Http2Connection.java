@@ -0,0 +1,908 @@
+package com.bitas.ecommerce.server.h2;
+
+import com.bitas.ecommerce.server.AdmissionController;
+import com.bitas.ecommerce.server.HttpDispatcher;
+import com.bitas.ecommerce.server.http.ContentCoding;
+import com.bitas.ecommerce.server.http.ETags;
+import com.bitas.ecommerce.server.http.FileRegion;
+import com.bitas.ecommerce.server.http.HeaderNames;
+import com.bitas.ecommerce.server.http.HttpHeaders;
+import com.bitas.ecommerce.server.http.HttpMethod;
+import com.bitas.ecommerce.server.http.HttpParseException;
+import com.bitas.ecommerce.server.http.HttpRequest;
+import com.bitas.ecommerce.server.http.HttpRequestParser;
+import com.bitas.ecommerce.server.http.HttpResponse;
+import com.bitas.ecommerce.server.http.ResponseCompressor;
+import com.bitas.ecommerce.server.http.StaticAssets;
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An HTTP/2 connection over cleartext (h2c), started with prior knowledge or through Upgrade: h2c.
+ * Frames are parsed as they arrive; every stream whose request is complete is handed to the workers
+ * through {@link AdmissionController}, so many requests are in flight on one connection and are
+ * answered in whatever order they finish. Responses are sent as HEADERS and DATA frames within the
+ * client's flow control windows; request bodies are credited back with WINDOW_UPDATE once half of
+ * the window has been used.
+ * Not thread-safe: everything runs in the transport's context (see {@link Http2Transport}).
+ */
+public class Http2Connection {
+    public static final int PREFACE_MISMATCH = -1;
+    public static final int PREFACE_PARTIAL = 0;
+    public static final int PREFACE_MATCH = 1;
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final boolean LOG_REQUESTS = AppConfig.getBoolean("debug", false);
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Upgrade: h2c\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    private static final String HTTP2_SETTINGS = "HTTP2-Settings";
+    private static final int MAX_HEADER_BLOCK_SIZE = 2 * HttpRequestParser.MAX_HEAD_SIZE;
+
+    // Same headers as HttpResponseWriter's common block, in HTTP/2 lower case
+    private static final List<String[]> COMMON_FIELDS = List.of(
+            new String[]{"content-type", "application/json"},
+            new String[]{"access-control-allow-origin", "*"},
+            new String[]{"access-control-allow-methods", "GET, POST, PUT, DELETE, PATCH"},
+            new String[]{"access-control-allow-headers", "Content-Type"});
+    private static final Set<String> CONNECTION_HEADERS = Set.of(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    private static final LongAdder CONNECTIONS = Metrics.getInstance().counter("http2.connections");
+    private static final LongAdder STREAMS = Metrics.getInstance().counter("http2.streams");
+    private static final LongAdder REFUSED_STREAMS = Metrics.getInstance().counter("http2.streams.refused");
+
+    private final Http2Transport transport;
+    private final HttpDispatcher dispatcher;
+    private final ResponseCompressor compressor;
+    private final AdmissionController admission;
+    private final Http2Settings settings;
+    private final HpackDecoder decoder;
+    private final HpackEncoder encoder = new HpackEncoder();
+
+    private final Map<Integer, Http2Stream> streams = new HashMap<>();
+    // Streams with response data waiting for flow control window, in the order they got ready
+    private final Set<Http2Stream> sending = new LinkedHashSet<>();
+    private final List<ByteBuffer> outbound = new ArrayList<>();
+
+    private boolean prefaceReceived;
+    private volatile boolean closed;
+    private boolean goAwayReceived;
+    private int lastStreamId;
+
+    private int peerInitialWindowSize = Http2Frame.DEFAULT_WINDOW_SIZE;
+    private int peerMaxFrameSize = Http2Frame.DEFAULT_MAX_FRAME_SIZE;
+    private int connectionSendWindow = Http2Frame.DEFAULT_WINDOW_SIZE;
+    private int connectionReceiveWindow = Http2Frame.DEFAULT_WINDOW_SIZE;
+
+    // HEADERS + CONTINUATION being collected
+    private int headerBlockStreamId;
+    private boolean headerBlockEndStream;
+    private ByteBuffer headerBlock;
+
+    public Http2Connection(Http2Transport transport, HttpDispatcher dispatcher, AdmissionController admission,
+                           Http2Settings settings) {
+        this.transport = transport;
+        this.dispatcher = dispatcher;
+        this.compressor = dispatcher.getCompressor();
+        this.admission = admission;
+        this.settings = settings;
+        this.decoder = new HpackDecoder(settings.getHeaderTableSize());
+        CONNECTIONS.increment();
+    }
+
+    /**
+     * Check whether a connection starts with the HTTP/2 client preface (prior knowledge).
+     *
+     * @param buffer Received bytes in read mode, not consumed
+     * @return PREFACE_MATCH, PREFACE_PARTIAL while the bytes so far are a prefix of it, or PREFACE_MISMATCH
+     */
+    public static int matchPreface(ByteBuffer buffer) {
+        int available = Math.min(buffer.remaining(), PREFACE.length);
+        for (int i = 0; i < available; i++) {
+            if (buffer.get(buffer.position() + i) != PREFACE[i]) {
+                return PREFACE_MISMATCH;
+            }
+        }
+        return available == PREFACE.length ? PREFACE_MATCH : PREFACE_PARTIAL;
+    }
+
+    /**
+     * Whether an HTTP/1.1 request asks to switch to h2c.
+     */
+    public static boolean isUpgrade(HttpRequest request) {
+        return HttpRequest.HTTP_1_1.equals(request.getVersion())
+                && request.getHeaders().containsToken(HeaderNames.UPGRADE, "h2c")
+                && request.getHeaders().containsKey(HTTP2_SETTINGS);
+    }
+
+    /**
+     * The 101 response that accepts an upgrade.
+     */
+    public static ByteBuffer switchingProtocols() {
+        return ByteBuffer.wrap(SWITCHING_PROTOCOLS).asReadOnlyBuffer();
+    }
+
+    /**
+     * Start a prior knowledge connection: send the server preface.
+     */
+    public void start() {
+        sendPreface();
+        flushOutbound();
+    }
+
+    /**
+     * Start a connection upgraded from HTTP/1.1 (after the 101 has been written).
+     * The upgrade request becomes stream 1 and is answered over HTTP/2.
+     *
+     * @param upgrade The HTTP/1.1 request; it is copied, its buffer may be reused afterwards
+     */
+    public void startUpgraded(HttpRequest upgrade) {
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(upgrade.getHeaders().get(HTTP2_SETTINGS).trim());
+            applySettings(ByteBuffer.wrap(payload));
+        } catch (IllegalArgumentException | Http2Exception e) {
+            goAway(Http2Frame.PROTOCOL_ERROR, "Invalid HTTP2-Settings: " + e.getMessage());
+            return;
+        }
+        sendPreface();
+
+        HttpHeaders headers = new HttpHeaders();
+        for (Map.Entry<String, String> header : upgrade.getHeaders().entrySet()) {
+            headers.put(header.getKey(), header.getValue());
+        }
+        ByteBuffer body = ByteBuffer.allocate(upgrade.getBodyLength());
+        body.put(upgrade.getBodyBytes()).flip();
+
+        Http2Stream stream = new Http2Stream(1, List.of(), peerInitialWindowSize, settings.getInitialWindowSize());
+        stream.endStreamReceived = true;
+        stream.request = new HttpRequest(upgrade.getMethod(), HttpRequest.HTTP_2, upgrade.getPath(), headers, body);
+        stream.request.setRemoteAddress(upgrade.getRemoteAddress());
+        streams.put(1, stream);
+        lastStreamId = 1;
+        STREAMS.increment();
+        dispatch(stream);
+        flushOutbound();
+    }
+
+    /**
+     * Consume as many complete frames as the buffer holds. A partial frame is left in the buffer.
+     *
+     * @param in Received bytes in read mode
+     */
+    public void onBytes(ByteBuffer in) {
+        try {
+            if (!prefaceReceived) {
+                if (in.remaining() < PREFACE.length) {
+                    return;
+                }
+                if (matchPreface(in) != PREFACE_MATCH) {
+                    throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid connection preface");
+                }
+                in.position(in.position() + PREFACE.length);
+                prefaceReceived = true;
+            }
+
+            while (!closed && in.remaining() >= Http2Frame.HEADER_LENGTH) {
+                int start = in.position();
+                int length = ((in.get(start) & 0xff) << 16) | ((in.get(start + 1) & 0xff) << 8) | (in.get(start + 2) & 0xff);
+                if (length > settings.getMaxFrameSize()) {
+                    throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+                }
+                if (in.remaining() < Http2Frame.HEADER_LENGTH + length) {
+                    break;
+                }
+                int type = in.get(start + 3) & 0xff;
+                int flags = in.get(start + 4) & 0xff;
+                int streamId = in.getInt(start + 5) & 0x7fffffff;
+                ByteBuffer payload = in.slice(start + Http2Frame.HEADER_LENGTH, length);
+                in.position(start + Http2Frame.HEADER_LENGTH + length);
+
+                try {
+                    onFrame(type, flags, streamId, payload);
+                } catch (Http2Exception e) {
+                    if (!e.isStreamError()) {
+                        throw e;
+                    }
+                    resetStream(e.getStreamId(), e.getErrorCode());
+                }
+            }
+        } catch (Http2Exception e) {
+            goAway(e.getErrorCode(), e.getMessage());
+            return;
+        }
+        flushOutbound();
+    }
+
+    /**
+     * Whether requests are still being answered; a connection without them may be closed when idle.
+     */
+    public boolean hasActiveStreams() {
+        return !streams.isEmpty();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close gracefully: tell the client which streams were processed, then close the socket.
+     */
+    public void shutdown() {
+        goAway(Http2Frame.NO_ERROR, null);
+    }
+
+    private void sendPreface() {
+        ByteBuffer frame = Http2Frame.allocate(5 * 6, Http2Frame.SETTINGS, 0, 0);
+        putSetting(frame, Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS, settings.getMaxConcurrentStreams());
+        putSetting(frame, Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE, settings.getInitialWindowSize());
+        putSetting(frame, Http2Frame.SETTINGS_MAX_FRAME_SIZE, settings.getMaxFrameSize());
+        putSetting(frame, Http2Frame.SETTINGS_HEADER_TABLE_SIZE, settings.getHeaderTableSize());
+        putSetting(frame, Http2Frame.SETTINGS_MAX_HEADER_LIST_SIZE, settings.getMaxHeaderListSize());
+        outbound.add(frame.flip());
+
+        // The connection window can only be raised with WINDOW_UPDATE
+        int increment = settings.getInitialWindowSize() - connectionReceiveWindow;
+        if (increment > 0) {
+            outbound.add(Http2Frame.windowUpdate(0, increment));
+            connectionReceiveWindow += increment;
+        }
+    }
+
+    private static void putSetting(ByteBuffer frame, int id, int value) {
+        frame.putShort((short) id);
+        frame.putInt(value);
+    }
+
+    private void onFrame(int type, int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (headerBlock != null && (type != Http2Frame.CONTINUATION || streamId != headerBlockStreamId)) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Expected CONTINUATION");
+        }
+        switch (type) {
+            case Http2Frame.DATA:
+                onData(flags, streamId, payload);
+                break;
+            case Http2Frame.HEADERS:
+                onHeaders(flags, streamId, payload);
+                break;
+            case Http2Frame.CONTINUATION:
+                onContinuation(flags, streamId, payload);
+                break;
+            case Http2Frame.PRIORITY:
+                if (payload.remaining() != 5) {
+                    throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, streamId, "PRIORITY length");
+                }
+                break;
+            case Http2Frame.RST_STREAM:
+                onRstStream(streamId, payload);
+                break;
+            case Http2Frame.SETTINGS:
+                onSettings(flags, streamId, payload);
+                break;
+            case Http2Frame.PING:
+                onPing(flags, streamId, payload);
+                break;
+            case Http2Frame.GOAWAY:
+                goAwayReceived = true;
+                if (streams.isEmpty()) {
+                    goAway(Http2Frame.NO_ERROR, null);
+                }
+                break;
+            case Http2Frame.WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+            case Http2Frame.PUSH_PROMISE:
+                throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "PUSH_PROMISE from client");
+            default:
+                // Unknown frame types are ignored
+                break;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid stream id " + streamId);
+        }
+        ByteBuffer fragment = unpad(flags, payload);
+        if ((flags & Http2Frame.FLAG_PRIORITY) != 0) {
+            if (fragment.remaining() < 5) {
+                throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "HEADERS too short");
+            }
+            fragment.position(fragment.position() + 5);
+        }
+
+        headerBlockStreamId = streamId;
+        headerBlockEndStream = (flags & Http2Frame.FLAG_END_STREAM) != 0;
+        headerBlock = ByteBuffer.allocate(Math.max(256, fragment.remaining()));
+        headerBlock.put(fragment);
+        if ((flags & Http2Frame.FLAG_END_HEADERS) != 0) {
+            onHeaderBlock();
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (headerBlock == null) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        if (headerBlock.position() + payload.remaining() > MAX_HEADER_BLOCK_SIZE) {
+            throw new Http2Exception(Http2Frame.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        if (headerBlock.remaining() < payload.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(headerBlock.capacity() * 2, headerBlock.position() + payload.remaining()));
+            headerBlock = larger.put(headerBlock.flip());
+        }
+        headerBlock.put(payload);
+        if ((flags & Http2Frame.FLAG_END_HEADERS) != 0) {
+            onHeaderBlock();
+        }
+    }
+
+    private void onHeaderBlock() throws Http2Exception {
+        int streamId = headerBlockStreamId;
+        boolean endStream = headerBlockEndStream;
+        ByteBuffer block = headerBlock.flip();
+        headerBlock = null;
+
+        // Always decode, the HPACK table must stay in sync even for streams we refuse
+        List<String[]> fields = decoder.decode(block);
+
+        Http2Stream existing = streams.get(streamId);
+        if (existing != null) {
+            // Trailers: they end the request, their content is not used
+            if (!endStream || existing.endStreamReceived) {
+                throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, streamId, "Unexpected HEADERS");
+            }
+            existing.endStreamReceived = true;
+            dispatch(existing);
+            return;
+        }
+        if (streamId <= lastStreamId) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Stream id " + streamId + " reused");
+        }
+        lastStreamId = streamId;
+
+        if (goAwayReceived) {
+            return;
+        }
+        if (streams.size() >= settings.getMaxConcurrentStreams()) {
+            REFUSED_STREAMS.increment();
+            outbound.add(Http2Frame.rstStream(streamId, Http2Frame.REFUSED_STREAM));
+            return;
+        }
+
+        Http2Stream stream = new Http2Stream(streamId, fields, peerInitialWindowSize, settings.getInitialWindowSize());
+        streams.put(streamId, stream);
+        STREAMS.increment();
+        if (endStream) {
+            stream.endStreamReceived = true;
+            dispatch(stream);
+        }
+    }
+
+    private void onData(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        // Padding counts against flow control too
+        int flowControlled = payload.remaining();
+        connectionReceiveWindow -= flowControlled;
+        if (connectionReceiveWindow < 0) {
+            throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "Connection window exceeded");
+        }
+        replenishConnectionWindow();
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null || stream.endStreamReceived) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            throw new Http2Exception(Http2Frame.STREAM_CLOSED, streamId, "DATA on closed stream");
+        }
+        stream.receiveWindow -= flowControlled;
+        if (stream.receiveWindow < 0) {
+            throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        }
+
+        stream.appendBody(unpad(flags, payload), HttpRequestParser.MAX_BODY_SIZE);
+
+        if ((flags & Http2Frame.FLAG_END_STREAM) != 0) {
+            stream.endStreamReceived = true;
+            dispatch(stream);
+        } else if (stream.receiveWindow < settings.getInitialWindowSize() / 2) {
+            outbound.add(Http2Frame.windowUpdate(streamId, settings.getInitialWindowSize() - stream.receiveWindow));
+            stream.receiveWindow = settings.getInitialWindowSize();
+        }
+    }
+
+    private void replenishConnectionWindow() {
+        if (connectionReceiveWindow < settings.getInitialWindowSize() / 2) {
+            outbound.add(Http2Frame.windowUpdate(0, settings.getInitialWindowSize() - connectionReceiveWindow));
+            connectionReceiveWindow = settings.getInitialWindowSize();
+        }
+    }
+
+    private void onRstStream(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (payload.remaining() != 4) {
+            throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "RST_STREAM length");
+        }
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            closeStream(stream);
+        }
+    }
+
+    private void onSettings(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & Http2Frame.FLAG_ACK) != 0) {
+            if (payload.hasRemaining()) {
+                throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+            }
+            return;
+        }
+        applySettings(payload);
+        outbound.add(Http2Frame.allocate(0, Http2Frame.SETTINGS, Http2Frame.FLAG_ACK, 0).flip());
+        // A larger initial window may unblock responses
+        flushData();
+    }
+
+    private void applySettings(ByteBuffer payload) throws Http2Exception {
+        if (payload.remaining() % 6 != 0) {
+            throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "SETTINGS length");
+        }
+        while (payload.hasRemaining()) {
+            int id = payload.getShort() & 0xffff;
+            int value = payload.getInt();
+            switch (id) {
+                case Http2Frame.SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize(value);
+                    break;
+                case Http2Frame.SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) {
+                        throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid ENABLE_PUSH");
+                    }
+                    break;
+                case Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "Invalid INITIAL_WINDOW_SIZE");
+                    }
+                    int delta = value - peerInitialWindowSize;
+                    for (Http2Stream stream : streams.values()) {
+                        if ((long) stream.sendWindow + delta > Http2Frame.MAX_WINDOW_SIZE) {
+                            throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "Stream window overflow");
+                        }
+                        stream.sendWindow += delta;
+                    }
+                    peerInitialWindowSize = value;
+                    break;
+                case Http2Frame.SETTINGS_MAX_FRAME_SIZE:
+                    if (value < Http2Frame.DEFAULT_MAX_FRAME_SIZE || value > 16777215) {
+                        throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Invalid MAX_FRAME_SIZE");
+                    }
+                    peerMaxFrameSize = value;
+                    break;
+                default:
+                    // MAX_CONCURRENT_STREAMS limits pushes, which are never sent; unknown settings are ignored
+                    break;
+            }
+        }
+    }
+
+    private void onPing(int flags, int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "PING on a stream");
+        }
+        if (payload.remaining() != 8) {
+            throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "PING length");
+        }
+        if ((flags & Http2Frame.FLAG_ACK) == 0) {
+            ByteBuffer pong = Http2Frame.allocate(8, Http2Frame.PING, Http2Frame.FLAG_ACK, 0);
+            outbound.add(pong.put(payload).flip());
+        }
+    }
+
+    private void onWindowUpdate(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (payload.remaining() != 4) {
+            throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "WINDOW_UPDATE length");
+        }
+        int increment = payload.getInt() & 0x7fffffff;
+        if (increment == 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, streamId, "Zero window increment");
+        }
+        if (streamId == 0) {
+            if ((long) connectionSendWindow + increment > Http2Frame.MAX_WINDOW_SIZE) {
+                throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "Connection window overflow");
+            }
+            connectionSendWindow += increment;
+        } else {
+            Http2Stream stream = streams.get(streamId);
+            if (stream == null) {
+                return; // Already answered
+            }
+            if ((long) stream.sendWindow + increment > Http2Frame.MAX_WINDOW_SIZE) {
+                throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+            }
+            stream.sendWindow += increment;
+        }
+        flushData();
+    }
+
+    private static ByteBuffer unpad(int flags, ByteBuffer payload) throws Http2Exception {
+        if ((flags & Http2Frame.FLAG_PADDED) == 0) {
+            return payload;
+        }
+        if (!payload.hasRemaining()) {
+            throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "Missing pad length");
+        }
+        int padLength = payload.get() & 0xff;
+        if (padLength > payload.remaining()) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "Padding exceeds frame");
+        }
+        return payload.limit(payload.limit() - padLength);
+    }
+
+    /**
+     * Hand a complete request to a worker. The response comes back into the connection's context.
+     */
+    private void dispatch(Http2Stream stream) {
+        int streamId = stream.id;
+        if (stream.bodyTooLarge) {
+            respondError(streamId, 413, "Payload Too Large", null);
+            return;
+        }
+
+        HttpRequest request = stream.request;
+        if (request == null) {
+            try {
+                request = toRequest(stream);
+            } catch (Http2Exception e) {
+                resetStream(streamId, e.getErrorCode());
+                return;
+            } catch (HttpParseException e) {
+                respondError(streamId, e.getStatusCode(), e.getMessage(), null);
+                return;
+            }
+        }
+
+        if (LOG_REQUESTS) {
+            System.out.println("📥 Request: " + request);
+        }
+
+        long retryAfter = dispatcher.rateLimit(request);
+        if (retryAfter > 0) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("retry-after", String.valueOf(retryAfter));
+            respondError(streamId, 429, "Too Many Requests", headers);
+            return;
+        }
+
+        HttpRequest finalRequest = request;
+        Runnable work = dispatcher.isFileRoute(request.getPath())
+                ? () -> serveAsset(streamId, finalRequest)
+                : () -> {
+                CompletionStage<HttpResponse> response;
+                try {
+                    response = dispatcher.handleAsync(finalRequest);
+                } catch (HttpParseException e) {
+                    response = CompletableFuture.completedFuture(
+                            new HttpResponse(e.getStatusCode(), errorBody(e.getStatusCode(), e.getMessage())));
+                } catch (RuntimeException e) {
+                    response = CompletableFuture.completedFuture(new HttpResponse(500, errorBody(500, "Internal Server Error")));
+                }
+                // Routes on a bulkhead complete later, on its thread; the stream is answered from there
+                response.whenComplete((completed, error) -> respondWith(streamId, finalRequest, error == null
+                        ? completed
+                        : new HttpResponse(500, errorBody(500, "Internal Server Error"))));
+            };
+        Runnable tooLate = () -> transport.execute(() -> respondOverloaded(streamId));
+        if (!admission.submit(work, tooLate)) {
+            respondOverloaded(streamId);
+        }
+    }
+
+    /**
+     * Compress a route's response off the connection thread, then hand it to the connection to send.
+     */
+    private void respondWith(int streamId, HttpRequest request, HttpResponse response) {
+        ContentCoding accepted = ContentCoding.negotiate(request.getHeaders().get(HeaderNames.ACCEPT_ENCODING));
+        int finalStatus = response.getStatus();
+        Map<String, String> finalHeaders = response.getHeaders();
+        byte[] bytes = HttpResponse.hasBody(finalStatus)
+                ? response.getBody().getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        ContentCoding applied = ContentCoding.IDENTITY;
+        if (compressor.shouldCompress(accepted, bytes.length)) {
+            bytes = compressor.compress(ByteBuffer.wrap(bytes), accepted);
+            applied = accepted;
+        }
+        byte[] finalBytes = bytes;
+        ContentCoding finalCoding = applied;
+        transport.execute(() -> respond(streamId, finalStatus, finalHeaders, finalBytes, finalCoding));
+    }
+
+    /**
+     * Worker side of a file request (asset or product image). HTTP/2 frames the body itself, so instead of sendfile the file
+     * range is memory-mapped: the DATA frames are sliced from the mapping, outside the heap.
+     */
+    private void serveAsset(int streamId, HttpRequest request) {
+        StaticAssets.Reply reply = dispatcher.serveFile(request);
+        ByteBuffer body;
+        FileRegion region = reply.getBody();
+        if (region != null) {
+            try {
+                body = region.map();
+            } catch (IOException e) {
+                System.err.println("❗ Error mapping asset: " + e.getMessage());
+                transport.execute(() -> respondError(streamId, 500, "Internal Server Error", null));
+                return;
+            } finally {
+                region.release();
+            }
+        } else if (reply.getErrorBody() != null) {
+            body = ByteBuffer.wrap(reply.getErrorBody().getBytes(StandardCharsets.UTF_8));
+        } else {
+            body = ByteBuffer.allocate(0);
+        }
+
+        List<String[]> fields = new ArrayList<>(reply.getHeaders().size() + 3);
+        fields.add(new String[]{":status", String.valueOf(reply.getStatus())});
+        for (Map.Entry<String, String> header : reply.getHeaders().entrySet()) {
+            fields.add(new String[]{header.getKey().toLowerCase(), header.getValue()});
+        }
+        long contentLength = reply.getErrorBody() != null ? body.remaining() : reply.getContentLength();
+        if (contentLength >= 0) {
+            fields.add(new String[]{"content-length", String.valueOf(contentLength)});
+        }
+        fields.add(new String[]{"access-control-allow-origin", "*"});
+        transport.execute(() -> send(streamId, fields, body));
+    }
+
+    private HttpRequest toRequest(Http2Stream stream) throws Http2Exception, HttpParseException {
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        HttpHeaders headers = new HttpHeaders();
+        boolean regularSeen = false;
+        int listSize = 0;
+
+        for (String[] field : stream.fields) {
+            String name = field[0];
+            String value = field[1];
+            listSize += HeaderTable.entrySize(name, value);
+            if (name.startsWith(":")) {
+                if (regularSeen) {
+                    throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, stream.id, "Pseudo-header after headers");
+                }
+                switch (name) {
+                    case ":method":
+                        method = value;
+                        break;
+                    case ":path":
+                        path = value;
+                        break;
+                    case ":scheme":
+                        scheme = value;
+                        break;
+                    case ":authority":
+                        authority = value;
+                        break;
+                    default:
+                        throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, stream.id, "Unknown pseudo-header " + name);
+                }
+                continue;
+            }
+            regularSeen = true;
+            if (!name.equals(name.toLowerCase()) || CONNECTION_HEADERS.contains(name)
+                    || (name.equals("te") && !value.equals("trailers"))) {
+                throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, stream.id, "Invalid header " + name);
+            }
+            String previous = headers.get(name);
+            if (previous != null && name.equals("cookie")) {
+                value = previous + "; " + value;
+            }
+            headers.put(name, value);
+        }
+
+        if (method == null || path == null || scheme == null || path.isEmpty()) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, stream.id, "Missing pseudo-header");
+        }
+        if (listSize > settings.getMaxHeaderListSize()) {
+            throw new HttpParseException(431, "Request Header Fields Too Large");
+        }
+        if (authority != null && !headers.containsKey(HeaderNames.HOST)) {
+            headers.put(HeaderNames.HOST, authority);
+        }
+
+        HttpMethod httpMethod;
+        try {
+            httpMethod = HttpMethod.valueOf(method);
+        } catch (IllegalArgumentException e) {
+            throw new HttpParseException(501, "Not Implemented");
+        }
+        HttpRequest request = new HttpRequest(httpMethod, HttpRequest.HTTP_2, path, headers, stream.body());
+        request.setRemoteAddress(transport.getRemoteAddress());
+        return request;
+    }
+
+    private void respondOverloaded(int streamId) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("retry-after", String.valueOf(admission.getRetryAfterSeconds()));
+        respondError(streamId, 503, "Service Unavailable", headers);
+    }
+
+    private void respondError(int streamId, int status, String message, Map<String, String> headers) {
+        respond(streamId, status, headers, errorBody(status, message).getBytes(StandardCharsets.UTF_8), ContentCoding.IDENTITY);
+    }
+
+    private static String errorBody(int status, String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("status", status);
+        error.put("error", message);
+        return JsonUtil.getInstance().toJson(error);
+    }
+
+    /**
+     * Send a response on a stream: HEADERS now, DATA as flow control allows.
+     */
+    private void respond(int streamId, int status, Map<String, String> extraHeaders, byte[] body, ContentCoding coding) {
+        Http2Stream stream = streams.get(streamId);
+        if (closed || stream == null) {
+            return; // Reset by the client in the meantime
+        }
+
+        List<String[]> fields = new ArrayList<>(COMMON_FIELDS.size() + 5);
+        fields.add(new String[]{":status", String.valueOf(status)});
+        // A route's own Content-Type replaces the JSON one, the first common field
+        fields.addAll(HttpResponse.hasContentType(extraHeaders) ? COMMON_FIELDS.subList(1, COMMON_FIELDS.size())
+                : COMMON_FIELDS);
+        if (HttpResponse.hasBody(status)) {
+            fields.add(new String[]{"content-length", String.valueOf(body.length)});
+        }
+        if (coding != ContentCoding.IDENTITY) {
+            fields.add(new String[]{"content-encoding", coding.getToken()});
+        }
+        if (compressor.isEnabled()) {
+            fields.add(new String[]{"vary", "accept-encoding"});
+        }
+        if (extraHeaders != null) {
+            for (Map.Entry<String, String> header : extraHeaders.entrySet()) {
+                String name = header.getKey().toLowerCase();
+                String value = name.equals("etag") ? ETags.forCoding(header.getValue(), coding) : header.getValue();
+                fields.add(new String[]{name, value});
+            }
+        }
+
+        send(streamId, fields, ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Send HEADERS now and the body as DATA frames as flow control allows.
+     */
+    private void send(int streamId, List<String[]> fields, ByteBuffer body) {
+        Http2Stream stream = streams.get(streamId);
+        if (closed || stream == null) {
+            return; // Reset by the client in the meantime
+        }
+        queueHeaders(streamId, encoder.encode(fields), !body.hasRemaining());
+        if (!body.hasRemaining()) {
+            closeStream(stream);
+        } else {
+            stream.pendingData = body;
+            sending.add(stream);
+            flushData();
+        }
+        flushOutbound();
+    }
+
+    private void queueHeaders(int streamId, ByteBuffer block, boolean endStream) {
+        boolean first = true;
+        do {
+            int length = Math.min(block.remaining(), peerMaxFrameSize);
+            ByteBuffer fragment = block.slice(block.position(), length);
+            block.position(block.position() + length);
+
+            int type = first ? Http2Frame.HEADERS : Http2Frame.CONTINUATION;
+            int flags = (first && endStream ? Http2Frame.FLAG_END_STREAM : 0)
+                    | (block.hasRemaining() ? 0 : Http2Frame.FLAG_END_HEADERS);
+            outbound.add(Http2Frame.header(length, type, flags, streamId));
+            outbound.add(fragment);
+            first = false;
+        } while (block.hasRemaining());
+    }
+
+    /**
+     * Send as much pending response data as the connection and stream windows allow.
+     */
+    private void flushData() {
+        Iterator<Http2Stream> it = sending.iterator();
+        while (it.hasNext() && connectionSendWindow > 0) {
+            Http2Stream stream = it.next();
+            ByteBuffer data = stream.pendingData;
+            while (data.hasRemaining() && connectionSendWindow > 0 && stream.sendWindow > 0) {
+                int length = Math.min(data.remaining(), Math.min(peerMaxFrameSize,
+                        Math.min(connectionSendWindow, stream.sendWindow)));
+                int flags = length == data.remaining() ? Http2Frame.FLAG_END_STREAM : 0;
+                outbound.add(Http2Frame.header(length, Http2Frame.DATA, flags, stream.id));
+                outbound.add(data.slice(data.position(), length));
+                data.position(data.position() + length);
+                connectionSendWindow -= length;
+                stream.sendWindow -= length;
+            }
+            if (!data.hasRemaining()) {
+                it.remove();
+                streams.remove(stream.id);
+            }
+        }
+        if (goAwayReceived && streams.isEmpty()) {
+            goAway(Http2Frame.NO_ERROR, null);
+        }
+    }
+
+    private void resetStream(int streamId, int errorCode) {
+        outbound.add(Http2Frame.rstStream(streamId, errorCode));
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            closeStream(stream);
+        }
+    }
+
+    private void closeStream(Http2Stream stream) {
+        streams.remove(stream.id);
+        sending.remove(stream);
+        if (goAwayReceived && streams.isEmpty()) {
+            goAway(Http2Frame.NO_ERROR, null);
+        }
+    }
+
+    private void goAway(int errorCode, String message) {
+        if (closed) {
+            return;
+        }
+        if (message != null) {
+            System.err.println("❗ HTTP/2 connection error: " + message);
+        }
+        outbound.add(Http2Frame.goAway(lastStreamId, errorCode));
+        flushOutbound();
+        closed = true;
+        streams.clear();
+        sending.clear();
+        transport.close();
+    }
+
+    private void flushOutbound() {
+        if (outbound.isEmpty() || closed) {
+            return;
+        }
+        ByteBuffer[] frames = outbound.toArray(new ByteBuffer[0]);
+        outbound.clear();
+        try {
+            transport.write(frames);
+        } catch (IOException e) {
+            closed = true;
+            streams.clear();
+            sending.clear();
+            transport.close();
+        }
+    }
+}
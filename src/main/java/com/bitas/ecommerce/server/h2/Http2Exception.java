@@ -0,0 +1,40 @@
+package com.bitas.ecommerce.server.h2;
+
+/**
+ * A protocol violation found while reading frames.
+ * Stream errors reset one stream, connection errors end the connection with GOAWAY.
+ */
+class Http2Exception extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int errorCode;
+    private final int streamId;
+
+    /**
+     * Connection error.
+     */
+    Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    /**
+     * Stream error, or a connection error when streamId is 0.
+     */
+    Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    int getErrorCode() {
+        return errorCode;
+    }
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    boolean isStreamError() {
+        return streamId != 0;
+    }
+}
@@ -0,0 +1,101 @@
+package com.bitas.ecommerce.server.h2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame types, flags, settings and error codes of RFC 9113, and the 9 byte frame header.
+ */
+final class Http2Frame {
+    static final int HEADER_LENGTH = 9;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    // Frame types
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    // Flags
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    // Settings
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    // Error codes
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private Http2Frame() {
+    }
+
+    /**
+     * Allocate a frame with its header written and room for the payload, positioned after the header.
+     */
+    static ByteBuffer allocate(int payloadLength, int type, int flags, int streamId) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payloadLength);
+        putHeader(frame, payloadLength, type, flags, streamId);
+        return frame;
+    }
+
+    /**
+     * A frame header on its own, flipped; the payload is written as a separate buffer.
+     */
+    static ByteBuffer header(int payloadLength, int type, int flags, int streamId) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        putHeader(header, payloadLength, type, flags, streamId);
+        return header.flip();
+    }
+
+    static void putHeader(ByteBuffer buffer, int payloadLength, int type, int flags, int streamId) {
+        buffer.put((byte) (payloadLength >>> 16));
+        buffer.put((byte) (payloadLength >>> 8));
+        buffer.put((byte) payloadLength);
+        buffer.put((byte) type);
+        buffer.put((byte) flags);
+        buffer.putInt(streamId & 0x7fffffff);
+    }
+
+    static ByteBuffer rstStream(int streamId, int errorCode) {
+        ByteBuffer frame = allocate(4, RST_STREAM, 0, streamId);
+        frame.putInt(errorCode);
+        return frame.flip();
+    }
+
+    static ByteBuffer windowUpdate(int streamId, int increment) {
+        ByteBuffer frame = allocate(4, WINDOW_UPDATE, 0, streamId);
+        frame.putInt(increment);
+        return frame.flip();
+    }
+
+    static ByteBuffer goAway(int lastStreamId, int errorCode) {
+        ByteBuffer frame = allocate(8, GOAWAY, 0, 0);
+        frame.putInt(lastStreamId & 0x7fffffff);
+        frame.putInt(errorCode);
+        return frame.flip();
+    }
+}
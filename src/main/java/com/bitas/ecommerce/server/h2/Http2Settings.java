@@ -0,0 +1,61 @@
+package com.bitas.ecommerce.server.h2;
+
+import com.bitas.ecommerce.server.http.HttpRequestParser;
+import com.bitas.ecommerce.utils.AppConfig;
+
+/**
+ * Server side HTTP/2 settings, read from application.properties:
+ * server.http2.enabled, .max-concurrent-streams, .initial-window-size, .max-frame-size and .header-table-size.
+ */
+public class Http2Settings {
+    private final boolean enabled;
+    private final int maxConcurrentStreams;
+    private final int initialWindowSize;
+    private final int maxFrameSize;
+    private final int headerTableSize;
+    private final int maxHeaderListSize;
+
+    public Http2Settings(boolean enabled, int maxConcurrentStreams, int initialWindowSize, int maxFrameSize,
+                         int headerTableSize, int maxHeaderListSize) {
+        this.enabled = enabled;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.initialWindowSize = Math.max(Http2Frame.DEFAULT_WINDOW_SIZE, initialWindowSize);
+        this.maxFrameSize = Math.min(16777215, Math.max(Http2Frame.DEFAULT_MAX_FRAME_SIZE, maxFrameSize));
+        this.headerTableSize = headerTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    public static Http2Settings fromConfig() {
+        return new Http2Settings(
+                AppConfig.getBoolean("server.http2.enabled", true),
+                AppConfig.getInt("server.http2.max-concurrent-streams", 100),
+                AppConfig.getInt("server.http2.initial-window-size", 1024 * 1024),
+                AppConfig.getInt("server.http2.max-frame-size", Http2Frame.DEFAULT_MAX_FRAME_SIZE),
+                AppConfig.getInt("server.http2.header-table-size", HpackEncoder.DEFAULT_TABLE_SIZE),
+                HttpRequestParser.MAX_HEAD_SIZE);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public int getHeaderTableSize() {
+        return headerTableSize;
+    }
+
+    public int getMaxHeaderListSize() {
+        return maxHeaderListSize;
+    }
+}
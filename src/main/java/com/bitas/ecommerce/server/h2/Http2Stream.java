@@ -0,0 +1,66 @@
+package com.bitas.ecommerce.server.h2;
+
+import com.bitas.ecommerce.server.http.HttpRequest;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * State of one request/response exchange on an HTTP/2 connection.
+ * A stream lives from its HEADERS frame until the last DATA frame of the response has been
+ * written, or until either side resets it.
+ */
+class Http2Stream {
+    private static final int INITIAL_BODY_SIZE = 1024;
+
+    final int id;
+    final List<String[]> fields;
+    int sendWindow;
+    int receiveWindow;
+    boolean endStreamReceived;
+    boolean bodyTooLarge;
+    HttpRequest request;
+    ByteBuffer pendingData;
+
+    private ByteBuffer body;
+
+    Http2Stream(int id, List<String[]> fields, int sendWindow, int receiveWindow) {
+        this.id = id;
+        this.fields = fields;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+    }
+
+    /**
+     * Append request body bytes.
+     *
+     * @return false once the body is larger than maxBytes; nothing more is kept
+     */
+    boolean appendBody(ByteBuffer data, int maxBytes) {
+        if (bodyTooLarge || bodyLength() + data.remaining() > maxBytes) {
+            bodyTooLarge = true;
+            body = null;
+            return false;
+        }
+        if (body == null) {
+            body = ByteBuffer.allocate(Math.max(INITIAL_BODY_SIZE, data.remaining()));
+        } else if (body.remaining() < data.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(body.capacity() * 2, body.position() + data.remaining()));
+            larger.put(body.flip());
+            body = larger;
+        }
+        body.put(data);
+        return true;
+    }
+
+    /**
+     * The request body, flipped.
+     */
+    ByteBuffer body() {
+        return body == null ? ByteBuffer.allocate(0) : body.duplicate().flip();
+    }
+
+    private int bodyLength() {
+        return body == null ? 0 : body.position();
+    }
+}
@@ -0,0 +1,33 @@
+package com.bitas.ecommerce.server.h2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The engine side of an HTTP/2 connection.
+ * All calls into an {@link Http2Connection} happen in its context: on the NIO loop thread that owns
+ * the socket, or under the connection lock in the blocking engine. Workers get back into that context
+ * through {@link #execute(Runnable)}.
+ */
+public interface Http2Transport {
+
+    /**
+     * Run a task in the connection's context.
+     */
+    void execute(Runnable task);
+
+    /**
+     * Write frames in order. Only called in the connection's context.
+     */
+    void write(ByteBuffer[] frames) throws IOException;
+
+    /**
+     * Close the socket.
+     */
+    void close();
+
+    /**
+     * IP address of the peer, null when unknown.
+     */
+    String getRemoteAddress();
+}
@@ -0,0 +1,84 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level helpers for the HTTP parser. All methods use absolute indexing,
+ * so they work on heap and direct buffers and never move the buffer position.
+ */
+final class Ascii {
+
+    private Ascii() {
+    }
+
+    static int toLower(int b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    /**
+     * Case-insensitive comparison of buffer bytes with an ASCII string of the same length.
+     */
+    static boolean equalsIgnoreCase(ByteBuffer buffer, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (toLower(buffer.get(offset + i)) != toLower(ascii.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a comma separated header value contains the given token (case-insensitive).
+     */
+    static boolean containsToken(ByteBuffer buffer, int offset, int length, String token) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            while (i < end && (buffer.get(i) == ' ' || buffer.get(i) == ',')) {
+                i++;
+            }
+            int start = i;
+            while (i < end && buffer.get(i) != ',' && buffer.get(i) != ';') {
+                i++;
+            }
+            int tokenEnd = i;
+            while (tokenEnd > start && buffer.get(tokenEnd - 1) == ' ') {
+                tokenEnd--;
+            }
+            if (tokenEnd - start == token.length() && equalsIgnoreCase(buffer, start, token)) {
+                return true;
+            }
+            while (i < end && buffer.get(i) != ',') {
+                i++; // Skip parameters such as ;q=0.5
+            }
+        }
+        return false;
+    }
+
+    static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String decode(ByteBuffer buffer, int offset, int length) {
+        return decode(buffer, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    static String decode(ByteBuffer buffer, int offset, int length, Charset charset) {
+        if (length == 0) {
+            return "";
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, charset);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, charset);
+    }
+}
@@ -0,0 +1,261 @@
+package com.bitas.ecommerce.server.http;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct buffers for socket reads, request accumulation and response bodies.
+ * Buffers come in power-of-two size classes from 4 KiB to 1 MiB and are cut from slabs
+ * (server.buffers.slab-bytes), so native memory is allocated once per slab instead of once per buffer,
+ * and the channels read into and write from it without the copy through a temporary direct buffer that
+ * heap buffers cost. Slabs are never freed: past server.buffers.max-pool-bytes, and above the largest
+ * class, plain heap buffers are handed out instead.
+ * <p>
+ * Each platform thread keeps a few buffers per class (server.buffers.thread-cache-bytes) in front of the
+ * shared free lists, so an I/O loop or worker that acquires and releases in turn touches no shared state.
+ * Virtual threads are short-lived and go to the shared lists directly; the cache of a platform thread
+ * that ends is handed back to them.
+ * <p>
+ * server.buffers.leak-detection: sample (default) tracks one acquisition in 128, all tracks every one
+ * (slow, for debugging), off disables it. A tracked buffer that is garbage collected without having been
+ * released is reported with the stack that acquired it.
+ */
+public final class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 20;
+    private static final int CLASSES = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    private static final int SAMPLE_INTERVAL = 128;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static BufferPool instance;
+
+    private final boolean enabled;
+    private final long maxPoolBytes;
+    private final int slabBytes;
+    private final int[] threadCacheCapacity = new int[CLASSES];
+    private final int sampleInterval;
+
+    private final ConcurrentLinkedQueue<PooledBuffer>[] free;
+    private final Object[] slabLocks = new Object[CLASSES];
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial(() -> new ThreadCache(this));
+
+    private final LongAdder acquired;
+    private final LongAdder released;
+    private final LongAdder threadCacheHits;
+    private final LongAdder sharedHits;
+    private final LongAdder unpooled;
+    private final LongAdder slabs;
+    private final LongAdder leaked;
+    private final LongAdder outstandingBytes = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private BufferPool() {
+        this.enabled = AppConfig.getBoolean("server.buffers.enabled", true);
+        this.maxPoolBytes = AppConfig.getLong("server.buffers.max-pool-bytes", 64L * 1024 * 1024);
+        this.slabBytes = AppConfig.getInt("server.buffers.slab-bytes", 1024 * 1024);
+        int threadCacheBytes = AppConfig.getInt("server.buffers.thread-cache-bytes", 256 * 1024);
+        String leakDetection = AppConfig.get("server.buffers.leak-detection", "sample");
+        this.sampleInterval = leakDetection.equals("all") ? 1 : leakDetection.equals("off") ? 0 : SAMPLE_INTERVAL;
+
+        this.free = (ConcurrentLinkedQueue<PooledBuffer>[]) new ConcurrentLinkedQueue<?>[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            slabLocks[i] = new Object();
+            threadCacheCapacity[i] = threadCacheBytes >> (i + MIN_CLASS_SHIFT);
+        }
+
+        Metrics metrics = Metrics.getInstance();
+        this.acquired = metrics.counter("buffers.acquired");
+        this.released = metrics.counter("buffers.released");
+        this.threadCacheHits = metrics.counter("buffers.thread_cache_hits");
+        this.sharedHits = metrics.counter("buffers.shared_hits");
+        this.unpooled = metrics.counter("buffers.unpooled");
+        this.slabs = metrics.counter("buffers.slabs_allocated");
+        this.leaked = metrics.counter("buffers.leaked");
+        metrics.gauge("buffers.hit_rate_percent", () -> {
+            long total = acquired.sum();
+            return total == 0 ? 0 : (threadCacheHits.sum() + sharedHits.sum()) * 100 / total;
+        });
+        metrics.gauge("buffers.outstanding", () -> acquired.sum() - released.sum());
+        metrics.gauge("buffers.outstanding_bytes", outstandingBytes::sum);
+        metrics.gauge("buffers.pooled_bytes", pooledBytes::get);
+    }
+
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) {
+            instance = new BufferPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Borrow a buffer of at least the given size, cleared. Never fails: when the pool cannot serve the
+     * size a heap buffer of exactly that size is returned, to be released all the same.
+     */
+    public PooledBuffer acquire(int size) {
+        acquired.increment();
+        int sizeClass = enabled ? sizeClass(size) : -1;
+        PooledBuffer buffer = sizeClass < 0 ? null : take(sizeClass);
+        if (buffer == null) {
+            unpooled.increment();
+            buffer = new PooledBuffer(this, ByteBuffer.allocate(size), -1);
+        }
+        buffer.inUse = true;
+        buffer.buffer().clear();
+        outstandingBytes.add(buffer.capacity());
+
+        if (sampleInterval == 0 || (sampleInterval > 1 && ThreadLocalRandom.current().nextInt(sampleInterval) != 0)) {
+            return buffer;
+        }
+        Leak leak = new Leak(buffer.capacity(), leaked);
+        PooledBuffer tracked = new PooledBuffer(this, buffer.buffer(), buffer.sizeClass, buffer, leak);
+        tracked.inUse = true;
+        leak.cleanable = CLEANER.register(tracked, leak);
+        return tracked;
+    }
+
+    void release(PooledBuffer buffer) {
+        if (!buffer.inUse) {
+            System.err.println("❗ Pooled buffer of " + buffer.capacity() + " bytes released twice");
+            return;
+        }
+        buffer.inUse = false;
+        if (buffer.leak != null) {
+            buffer.leak.close();
+            buffer = buffer.origin;
+            buffer.inUse = false;
+        }
+        released.increment();
+        outstandingBytes.add(-buffer.capacity());
+        if (buffer.sizeClass < 0) {
+            return;
+        }
+
+        if (!Thread.currentThread().isVirtual() && threadCacheCapacity[buffer.sizeClass] > 0) {
+            ArrayDeque<PooledBuffer> cache = threadCache.get().lists[buffer.sizeClass];
+            if (cache.size() < threadCacheCapacity[buffer.sizeClass]) {
+                cache.push(buffer);
+                return;
+            }
+        }
+        free[buffer.sizeClass].offer(buffer);
+    }
+
+    private PooledBuffer take(int sizeClass) {
+        if (!Thread.currentThread().isVirtual() && threadCacheCapacity[sizeClass] > 0) {
+            PooledBuffer buffer = threadCache.get().lists[sizeClass].poll();
+            if (buffer != null) {
+                threadCacheHits.increment();
+                return buffer;
+            }
+        }
+        PooledBuffer buffer = free[sizeClass].poll();
+        if (buffer != null) {
+            sharedHits.increment();
+            return buffer;
+        }
+        return cutSlab(sizeClass);
+    }
+
+    /**
+     * Allocate a slab for a class: one buffer is returned, the rest go to the shared list.
+     *
+     * @return null once the pool has reached its size limit
+     */
+    private PooledBuffer cutSlab(int sizeClass) {
+        int classSize = 1 << (sizeClass + MIN_CLASS_SHIFT);
+        if (pooledBytes.get() + classSize > maxPoolBytes) {
+            return null;
+        }
+        synchronized (slabLocks[sizeClass]) {
+            // Another thread may have cut a slab while this one waited
+            PooledBuffer buffer = free[sizeClass].poll();
+            if (buffer != null) {
+                sharedHits.increment();
+                return buffer;
+            }
+            int size = Math.max(classSize, slabBytes - slabBytes % classSize);
+            if (pooledBytes.addAndGet(size) > maxPoolBytes) {
+                pooledBytes.addAndGet(-size);
+                return null;
+            }
+            ByteBuffer slab = ByteBuffer.allocateDirect(size);
+            for (int offset = classSize; offset < size; offset += classSize) {
+                free[sizeClass].offer(new PooledBuffer(this, slab.slice(offset, classSize), sizeClass));
+            }
+            slabs.increment();
+            return new PooledBuffer(this, slab.slice(0, classSize), sizeClass);
+        }
+    }
+
+    private static int sizeClass(int size) {
+        if (size > 1 << MAX_CLASS_SHIFT) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+        return Math.max(0, shift - MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * Free buffers of one platform thread. The lists go back to the shared ones when the thread has
+     * ended and its cache became unreachable.
+     */
+    private static final class ThreadCache {
+        private final ArrayDeque<PooledBuffer>[] lists;
+
+        @SuppressWarnings("unchecked")
+        ThreadCache(BufferPool pool) {
+            ArrayDeque<PooledBuffer>[] lists = (ArrayDeque<PooledBuffer>[]) new ArrayDeque<?>[CLASSES];
+            for (int i = 0; i < CLASSES; i++) {
+                lists[i] = new ArrayDeque<>(Math.max(1, pool.threadCacheCapacity[i]));
+            }
+            this.lists = lists;
+            // The cleanup must not reference the cache itself, or it would never become unreachable
+            ConcurrentLinkedQueue<PooledBuffer>[] shared = pool.free;
+            CLEANER.register(this, () -> {
+                for (int i = 0; i < CLASSES; i++) {
+                    shared[i].addAll(lists[i]);
+                }
+            });
+        }
+    }
+
+    /**
+     * Tracks one sampled acquisition; runs when the handle given out is collected.
+     */
+    static final class Leak implements Runnable {
+        private final Throwable acquiredAt = new Throwable("Acquired here");
+        private final int capacity;
+        private final LongAdder leaked;
+        private volatile boolean released;
+        private Cleaner.Cleanable cleanable;
+
+        Leak(int capacity, LongAdder leaked) {
+            this.capacity = capacity;
+            this.leaked = leaked;
+        }
+
+        void close() {
+            released = true;
+            cleanable.clean();
+        }
+
+        @Override
+        public void run() {
+            if (!released) {
+                leaked.increment();
+                System.err.println("❗ Pooled buffer of " + capacity + " bytes was garbage collected without release()");
+                acquiredAt.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.bitas.ecommerce.server.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects a streamed body into a String, for callers that need the whole body at once.
+ */
+public class BufferedResponseSink implements ResponseSink {
+    private final StringBuilder body = new StringBuilder();
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private int status = 200;
+
+    @Override
+    public void write(CharSequence text) {
+        body.append(text);
+    }
+
+    @Override
+    public void flush() {
+        // Nothing leaves before the action returns
+    }
+
+    @Override
+    public boolean isBuffered() {
+        return true;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void reset() {
+        body.setLength(0);
+    }
+
+    @Override
+    public String toString() {
+        return body.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package com.bitas.ecommerce.server.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streams a response body with Transfer-Encoding: chunked.
+ * Text is encoded to UTF-8 into a chunk buffer; every full buffer goes out as one chunk through the
+ * {@link FrameWriter}, the first one together with the response head. A body that never fills a chunk
+ * is not streamed at all: {@link #finish} turns it into a normal Content-Length response, which can
+ * still be compressed. {@link #flush()} sends a partial chunk right away, for bodies made of messages.
+ * HTTP/1.0 clients do not understand chunked framing, for them the body is written raw and
+ * delimited by closing the connection.
+ */
+public class ChunkedResponseSink implements ResponseSink {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private final FrameWriter writer;
+    private final int chunkSize;
+    private final boolean chunked;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private int status;
+    private Map<String, String> headers;
+    private boolean keepAlive;
+    private ByteBuffer buffer;
+    private boolean committed;
+
+    /**
+     * @param writer    Engine side of the connection
+     * @param status    HTTP status code
+     * @param headers   Extra headers of a successful response (ETag, Cache-Control), may be null;
+     *                  dropped when the status is changed
+     * @param chunkSize Bytes buffered before a chunk is sent
+     * @param keepAlive Whether the connection stays open after this response
+     * @param chunked   False for HTTP/1.0 clients
+     */
+    public ChunkedResponseSink(FrameWriter writer, int status, Map<String, String> headers, int chunkSize,
+                               boolean keepAlive, boolean chunked) {
+        this.writer = writer;
+        this.status = status;
+        this.headers = headers;
+        this.chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize);
+        this.keepAlive = keepAlive;
+        this.chunked = chunked;
+        this.buffer = ByteBuffer.allocate(this.chunkSize);
+    }
+
+    @Override
+    public void write(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, false);
+            if (!result.isOverflow()) {
+                return;
+            }
+            sendChunk();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!committed || buffer.position() > 0) {
+            sendChunk();
+        }
+    }
+
+    @Override
+    public boolean isBuffered() {
+        return false;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        if (headers == null) {
+            headers = new LinkedHashMap<>();
+        }
+        headers.put(name, value);
+    }
+
+    @Override
+    public void setStatus(int status) {
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        if (status != this.status) {
+            this.status = status;
+            headers = null;
+        }
+    }
+
+    @Override
+    public void reset() {
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        buffer.clear();
+        encoder.reset();
+    }
+
+    /**
+     * Complete the response.
+     *
+     * @param compressor Compressor for a body that fits in one chunk, may be null
+     * @param accepted   Coding negotiated from the request's Accept-Encoding
+     * @return The rest of the response: the last chunk, or the whole response when nothing was sent yet
+     */
+    public EncodedResponse finish(ResponseCompressor compressor, ContentCoding accepted) throws IOException {
+        encoder.encode(CharBuffer.allocate(0), buffer, true);
+        encoder.flush(buffer);
+        if (!committed) {
+            buffer.flip();
+            // Chunk buffers are handed to the writer and freed by the GC, this one never left the sink
+            return HttpResponseWriter.encode(status, headers, PooledBuffer.wrap(buffer), keepAlive, compressor,
+                    accepted);
+        }
+        sendChunk();
+        return HttpResponseWriter.lastChunk(status, keepAlive, chunked);
+    }
+
+    /**
+     * Give up on a committed response. Nothing more is written and the connection is closed,
+     * so the client sees a truncated body instead of a complete one.
+     */
+    public EncodedResponse abort() {
+        return HttpResponseWriter.lastChunk(status, false, false);
+    }
+
+    private void sendChunk() throws IOException {
+        buffer.flip();
+        ByteBuffer[] head = null;
+        if (!committed) {
+            // Without chunked framing the end of the body is the end of the connection
+            keepAlive = keepAlive && chunked;
+            head = HttpResponseWriter.encodeStreamingHead(status, headers, keepAlive, chunked);
+            committed = true;
+        }
+
+        ByteBuffer[] body;
+        if (!buffer.hasRemaining()) {
+            body = new ByteBuffer[0];
+        } else if (chunked) {
+            byte[] size = (Integer.toHexString(buffer.remaining()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            body = new ByteBuffer[]{ByteBuffer.wrap(size), buffer, ByteBuffer.wrap(CRLF).asReadOnlyBuffer()};
+        } else {
+            body = new ByteBuffer[]{buffer};
+        }
+
+        ByteBuffer[] frame = body;
+        if (head != null) {
+            frame = new ByteBuffer[head.length + body.length];
+            System.arraycopy(head, 0, frame, 0, head.length);
+            System.arraycopy(body, 0, frame, head.length, body.length);
+        }
+        if (frame.length > 0) {
+            writer.write(frame);
+        }
+        // The writer owns the buffer now
+        buffer = ByteBuffer.allocate(chunkSize);
+    }
+}
@@ -0,0 +1,81 @@
+package com.bitas.ecommerce.server.http;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of compressed bodies keyed by a digest of the uncompressed content and the coding.
+ * A hot response such as the product catalog is deflated once and then served from here
+ * for as long as its content does not change. Bounded by the total size of cached bodies.
+ */
+public class CompressionCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private long hits;
+    private long misses;
+
+    public CompressionCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized byte[] get(byte[] digest, ContentCoding coding) {
+        byte[] value = entries.get(new Key(digest, coding));
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(byte[] digest, ContentCoding coding, byte[] compressed) {
+        if (compressed.length > maxBytes) {
+            return;
+        }
+        byte[] previous = entries.put(new Key(digest, coding), compressed);
+        currentBytes += compressed.length - (previous == null ? 0 : previous.length);
+
+        Iterator<Map.Entry<Key, byte[]>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static final class Key {
+        private final byte[] digest;
+        private final ContentCoding coding;
+        private final int hash;
+
+        Key(byte[] digest, ContentCoding coding) {
+            this.digest = digest;
+            this.coding = coding;
+            this.hash = 31 * Arrays.hashCode(digest) + coding.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return coding == other.coding && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.bitas.ecommerce.server.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Content codings supported for responses (Accept-Encoding) and request bodies (Content-Encoding).
+ */
+public enum ContentCoding {
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String token;
+
+    ContentCoding(String token) {
+        this.token = token;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Pick the response coding from an Accept-Encoding value. gzip wins over deflate on equal weight,
+     * codings with q=0 are never chosen.
+     *
+     * @param acceptEncoding Header value, may be null
+     */
+    public static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        double gzip = 0;
+        double deflate = 0;
+        double wildcard = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                wildcard = q;
+            }
+        }
+        if (wildcard > 0) {
+            gzip = gzip == 0 ? wildcard : gzip;
+            deflate = deflate == 0 ? wildcard : deflate;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : IDENTITY;
+    }
+
+    /**
+     * Resolve a Content-Encoding request header.
+     *
+     * @throws HttpParseException 415 for codings the server cannot decode
+     */
+    public static ContentCoding fromContentEncoding(String contentEncoding) throws HttpParseException {
+        if (contentEncoding == null) {
+            return IDENTITY;
+        }
+        String coding = contentEncoding.trim().toLowerCase();
+        switch (coding) {
+            case "":
+            case "identity":
+                return IDENTITY;
+            case "gzip":
+            case "x-gzip":
+                return GZIP;
+            case "deflate":
+                return DEFLATE;
+            default:
+                throw new HttpParseException(415, "Unsupported Media Type");
+        }
+    }
+
+    /**
+     * Inflate a compressed request body.
+     *
+     * @param body     Compressed bytes
+     * @param maxBytes Limit on the inflated size, protects against compression bombs
+     * @throws HttpParseException 400 for corrupt input, 413 when the limit is exceeded
+     */
+    public byte[] inflate(ByteBuffer body, int maxBytes) throws HttpParseException {
+        if (this == IDENTITY) {
+            byte[] bytes = new byte[body.remaining()];
+            body.duplicate().get(bytes);
+            return bytes;
+        }
+        Inflater inflater = new Inflater(this == GZIP);
+        try {
+            ByteBuffer input = body.duplicate();
+            if (this == GZIP) {
+                Gzip.skipHeader(input);
+            }
+            inflater.setInput(input);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, input.remaining() * 4 + 64));
+            byte[] chunk = new byte[8 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new HttpParseException(400, "Truncated compressed body");
+                }
+                if (out.size() + n > maxBytes) {
+                    throw new HttpParseException(413, "Payload Too Large");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException | ZipException e) {
+            throw new HttpParseException(400, "Invalid compressed body");
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Strong entity tags and If-None-Match evaluation.
+ * A tag is the first 128 bits of a SHA-256, quoted. A compressed response is a different
+ * representation, so it carries the tag with the coding appended ("...-gzip"); comparisons ignore the
+ * suffix, so a client holding either variant revalidates against the same resource state, and the 304
+ * names the variant the client holds.
+ */
+public final class ETags {
+    private static final HexFormat HEX = HexFormat.of();
+
+    private ETags() {
+    }
+
+    /**
+     * Tag of a response body, or of a version string that changes whenever the body does.
+     */
+    public static String of(String content) {
+        return tag(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The tag of a representation sent with a content coding.
+     */
+    public static String forCoding(String etag, ContentCoding coding) {
+        if (coding == ContentCoding.IDENTITY || !etag.endsWith("\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + coding.getToken() + "\"";
+    }
+
+    /**
+     * Evaluate If-None-Match with the weak comparison RFC 9110 prescribes for it.
+     *
+     * @param ifNoneMatch Header value, may be null
+     * @param etag        Current tag of the resource
+     * @return The tag to send with the 304 (the current one, in the coding variant the client named),
+     * or null when the client's copy is not current
+     */
+    public static String match(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return null;
+        }
+        String current = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*")) {
+                return etag;
+            }
+            if (opaque(trimmed).equals(current)) {
+                return forCoding(etag, coding(trimmed));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The tag without W/ prefix, quotes and coding suffix.
+     */
+    private static String opaque(String etag) {
+        String value = etag.startsWith("W/") ? etag.substring(2) : etag;
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        ContentCoding coding = coding(value);
+        return coding == ContentCoding.IDENTITY
+                ? value
+                : value.substring(0, value.length() - coding.getToken().length() - 1);
+    }
+
+    /**
+     * The coding a tag was sent with, from its suffix.
+     */
+    private static ContentCoding coding(String etag) {
+        String value = etag.endsWith("\"") ? etag.substring(0, etag.length() - 1) : etag;
+        for (ContentCoding coding : ContentCoding.values()) {
+            if (coding != ContentCoding.IDENTITY && value.endsWith("-" + coding.getToken())) {
+                return coding;
+            }
+        }
+        return ContentCoding.IDENTITY;
+    }
+
+    private static String tag(byte[] bytes) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return "\"" + HEX.formatHex(sha256.digest(bytes), 0, 16) + "\"";
+    }
+}
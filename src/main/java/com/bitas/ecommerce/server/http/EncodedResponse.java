@@ -0,0 +1,100 @@
+package com.bitas.ecommerce.server.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A response ready to go on the wire: shared pre-encoded header buffers, the per-response
+ * headers and the body (a {@link PooledBuffer}, or cached compressed bytes). Written with one gathering write.
+ * A file body ({@link FileRegion}) follows the buffers and is sent with transferTo.
+ * {@link #release()} must be called once the response has been written or dropped.
+ */
+public class EncodedResponse {
+    private final ByteBuffer[] buffers;
+    private final PooledBuffer pooled;
+    private final FileRegion file;
+    private final int statusCode;
+    private final boolean keepAlive;
+    private boolean released;
+
+    EncodedResponse(int statusCode, boolean keepAlive, ByteBuffer[] buffers, PooledBuffer pooled) {
+        this(statusCode, keepAlive, buffers, pooled, null);
+    }
+
+    EncodedResponse(int statusCode, boolean keepAlive, ByteBuffer[] buffers, PooledBuffer pooled, FileRegion file) {
+        this.statusCode = statusCode;
+        this.keepAlive = keepAlive;
+        this.buffers = buffers;
+        this.pooled = pooled;
+        this.file = file;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Whether the response announced Connection: keep-alive.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public boolean hasRemaining() {
+        return buffersRemaining() || (file != null && file.remaining() > 0);
+    }
+
+    private boolean buffersRemaining() {
+        for (int i = buffers.length - 1; i >= 0; i--) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write(GatheringByteChannel channel) throws IOException {
+        if (buffersRemaining()) {
+            channel.write(buffers);
+        }
+        if (file != null && !buffersRemaining()) {
+            file.transferTo(channel);
+        }
+    }
+
+    /**
+     * Write as much as the channel accepts.
+     *
+     * @return true once everything has been written
+     */
+    public boolean writeTo(GatheringByteChannel channel) throws IOException {
+        write(channel);
+        return !hasRemaining();
+    }
+
+    /**
+     * Write everything, for channels in blocking mode.
+     */
+    public void writeFully(GatheringByteChannel channel) throws IOException {
+        try {
+            while (hasRemaining()) {
+                write(channel);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    public void release() {
+        if (!released) {
+            released = true;
+            if (pooled != null) {
+                pooled.release();
+            }
+            if (file != null) {
+                file.release();
+            }
+        }
+    }
+}
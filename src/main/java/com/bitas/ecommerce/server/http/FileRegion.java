@@ -0,0 +1,55 @@
+package com.bitas.ecommerce.server.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A byte range of an open file used as a response body.
+ * Over HTTP/1.1 it is sent with {@link FileChannel#transferTo} (sendfile), so the bytes go from the page
+ * cache to the socket without being copied into the Java heap.
+ * The region holds a reference on the cached file until {@link #release()}.
+ */
+public class FileRegion {
+    private final OpenFileCache.OpenFile file;
+    private final long end;
+    private long position;
+    private boolean released;
+
+    FileRegion(OpenFileCache.OpenFile file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    public long remaining() {
+        return end - position;
+    }
+
+    /**
+     * Send as much as the channel accepts.
+     *
+     * @return Bytes written
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long written = file.getChannel().transferTo(position, end - position, target);
+        position += written;
+        return written;
+    }
+
+    /**
+     * Map the remaining bytes, for protocols that frame the body themselves (HTTP/2).
+     * The mapping lives outside the heap and stays valid after the region is released.
+     */
+    public ByteBuffer map() throws IOException {
+        return file.getChannel().map(FileChannel.MapMode.READ_ONLY, position, remaining());
+    }
+
+    public void release() {
+        if (!released) {
+            released = true;
+            file.release();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.bitas.ecommerce.server.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Engine side of a streamed response: puts the frames produced by a {@link ChunkedResponseSink}
+ * on the connection. The writer owns the buffers once they are handed over.
+ */
+@FunctionalInterface
+public interface FrameWriter {
+
+    /**
+     * Write one frame, in order with the frames before it. May block the caller to apply backpressure.
+     *
+     * @throws IOException when the connection is closed
+     */
+    void write(ByteBuffer[] frame) throws IOException;
+
+    /**
+     * Bytes left to write in a frame.
+     */
+    static long remaining(ByteBuffer[] frame) {
+        long remaining = 0;
+        for (ByteBuffer buffer : frame) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,67 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+import java.util.zip.ZipException;
+
+/**
+ * GZIP member framing (RFC 1952) around raw deflate data, so a pooled nowrap Deflater/Inflater
+ * can be used instead of allocating GZIP streams per request.
+ */
+final class Gzip {
+    static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FHCRC = 2;
+
+    private Gzip() {
+    }
+
+    /**
+     * Advance the buffer past a GZIP member header.
+     */
+    static void skipHeader(ByteBuffer input) throws ZipException {
+        if (input.remaining() < 10 || (input.get() & 0xff) != 0x1f || (input.get() & 0xff) != 0x8b) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (input.get() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = input.get() & 0xff;
+        input.position(input.position() + 6); // mtime, xfl, os
+        try {
+            if ((flags & FEXTRA) != 0) {
+                int length = (input.get() & 0xff) | ((input.get() & 0xff) << 8);
+                input.position(input.position() + length);
+            }
+            if ((flags & FNAME) != 0) {
+                while (input.get() != 0) {
+                    // skip zero terminated file name
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (input.get() != 0) {
+                    // skip zero terminated comment
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                input.position(input.position() + 2);
+            }
+        } catch (RuntimeException e) {
+            throw new ZipException("Truncated GZIP header");
+        }
+    }
+
+    static void writeTrailer(byte[] out, int offset, int crc, int size) {
+        writeIntLe(out, offset, crc);
+        writeIntLe(out, offset + 4, size);
+    }
+
+    private static void writeIntLe(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+}
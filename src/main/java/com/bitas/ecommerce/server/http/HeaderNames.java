@@ -0,0 +1,77 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Canonical, interned names of the headers this server looks at.
+ * Parsed header names are matched case-insensitively against this table so known headers
+ * never allocate a String and can be compared by reference.
+ */
+public final class HeaderNames {
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String AUTHORIZATION = "Authorization";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String CONNECTION = "Connection";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String COOKIE = "Cookie";
+    public static final String EXPECT = "Expect";
+    public static final String HOST = "Host";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_RANGE = "If-Range";
+    public static final String KEEP_ALIVE = "Keep-Alive";
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
+    public static final String ORIGIN = "Origin";
+    public static final String RANGE = "Range";
+    public static final String REFERER = "Referer";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String UPGRADE = "Upgrade";
+    public static final String USER_AGENT = "User-Agent";
+    public static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    public static final String X_REQUEST_TIMEOUT = "X-Request-Timeout";
+
+    private static final int MAX_LENGTH = 32;
+
+    // Known names bucketed by length, so a lookup only compares names of the right size
+    @SuppressWarnings("unchecked")
+    private static final List<String>[] BY_LENGTH = (List<String>[]) new List<?>[MAX_LENGTH + 1];
+
+    static {
+        String[] known = {
+                ACCEPT, ACCEPT_ENCODING, AUTHORIZATION, CACHE_CONTROL, CONNECTION, CONTENT_ENCODING,
+                CONTENT_LENGTH, CONTENT_TYPE, COOKIE, EXPECT, HOST, IF_MODIFIED_SINCE, IF_NONE_MATCH,
+                IF_RANGE, KEEP_ALIVE, LAST_EVENT_ID, ORIGIN, RANGE, REFERER, TRANSFER_ENCODING, UPGRADE,
+                USER_AGENT, X_FORWARDED_FOR, X_REQUEST_TIMEOUT
+        };
+        for (String name : known) {
+            if (BY_LENGTH[name.length()] == null) {
+                BY_LENGTH[name.length()] = new ArrayList<>();
+            }
+            BY_LENGTH[name.length()].add(name);
+        }
+    }
+
+    private HeaderNames() {
+    }
+
+    /**
+     * Resolve a header name from raw bytes.
+     *
+     * @return The canonical instance for a known header, otherwise a new String
+     */
+    public static String resolve(ByteBuffer buffer, int offset, int length) {
+        if (length <= MAX_LENGTH && BY_LENGTH[length] != null) {
+            for (String name : BY_LENGTH[length]) {
+                if (Ascii.equalsIgnoreCase(buffer, offset, name)) {
+                    return name;
+                }
+            }
+        }
+        return Ascii.decode(buffer, offset, length);
+    }
+}
@@ -0,0 +1,208 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Case-insensitive request headers.
+ * Values parsed from the wire are kept as slices of the request buffer and only decoded
+ * into a String when somebody reads them. Known names are the interned {@link HeaderNames}
+ * constants, so lookups by those constants usually succeed on a reference comparison.
+ */
+public class HttpHeaders extends AbstractMap<String, String> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ByteBuffer buffer;
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int[] valueOffsets = new int[INITIAL_CAPACITY];
+    private int[] valueLengths = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Headers backed by a request buffer.
+     */
+    HttpHeaders(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Empty, String-valued headers (responses, synthetic requests).
+     */
+    public HttpHeaders() {
+        this(null);
+    }
+
+    void addSlice(String name, int valueOffset, int valueLength) {
+        int index = indexOf(name);
+        if (index < 0) {
+            index = append(name);
+        }
+        // Repeated headers keep the last value, like the previous HashMap based parser
+        values[index] = null;
+        valueOffsets[index] = valueOffset;
+        valueLengths[index] = valueLength;
+    }
+
+    /**
+     * Whether the comma separated value of a header contains the token, without decoding it.
+     */
+    public boolean containsToken(String name, String token) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+        if (values[index] == null) {
+            return Ascii.containsToken(buffer, valueOffsets[index], valueLengths[index], token);
+        }
+        for (String part : values[index].split(",")) {
+            String value = part.trim();
+            int semicolon = value.indexOf(';');
+            if ((semicolon < 0 ? value : value.substring(0, semicolon).trim()).equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) key);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public String put(String name, String value) {
+        int index = indexOf(name);
+        String previous = null;
+        if (index < 0) {
+            index = append(name);
+        } else {
+            previous = value(index);
+        }
+        values[index] = value;
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) key);
+        if (index < 0) {
+            return null;
+        }
+        String previous = value(index);
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new SimpleImmutableEntry<>(names[index], value(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String value(int index) {
+        if (values[index] == null) {
+            values[index] = Ascii.decode(buffer, valueOffsets[index], valueLengths[index]);
+        }
+        return values[index];
+    }
+
+    private int append(String name) {
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            valueOffsets = Arrays.copyOf(valueOffsets, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+        }
+        names[size] = name;
+        return size++;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(names, index + 1, names, index, moved);
+        System.arraycopy(values, index + 1, values, index, moved);
+        System.arraycopy(valueOffsets, index + 1, valueOffsets, index, moved);
+        System.arraycopy(valueLengths, index + 1, valueLengths, index, moved);
+        size--;
+        names[size] = null;
+        values[size] = null;
+    }
+
+    /**
+     * Copy an arbitrary map into case-insensitive headers.
+     */
+    public static HttpHeaders of(Map<String, String> source) {
+        if (source instanceof HttpHeaders) {
+            return (HttpHeaders) source;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (source != null) {
+            source.forEach(headers::put);
+        }
+        return headers;
+    }
+}
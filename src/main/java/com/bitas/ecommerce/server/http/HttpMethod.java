@@ -0,0 +1,50 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HTTP request methods understood by the server.
+ * {@link #decode(ByteBuffer, int, int)} matches the raw request-line bytes without building a String.
+ */
+public enum HttpMethod {
+    GET, POST, PUT, DELETE, PATCH, HEAD, OPTIONS;
+
+    private final byte[] bytes = name().getBytes();
+
+    /**
+     * Decode a method token.
+     *
+     * @param buffer Buffer holding the request line (absolute indexing, position is ignored)
+     * @param offset Start of the token
+     * @param length Length of the token
+     * @return The method, or null if the token is not a known method
+     */
+    public static HttpMethod decode(ByteBuffer buffer, int offset, int length) {
+        HttpMethod candidate;
+        switch (length) {
+            case 3:
+                candidate = buffer.get(offset) == 'G' ? GET : PUT;
+                break;
+            case 4:
+                candidate = buffer.get(offset) == 'P' ? POST : HEAD;
+                break;
+            case 5:
+                candidate = PATCH;
+                break;
+            case 6:
+                candidate = DELETE;
+                break;
+            case 7:
+                candidate = OPTIONS;
+                break;
+            default:
+                return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != candidate.bytes[i]) {
+                return null;
+            }
+        }
+        return candidate;
+    }
+}
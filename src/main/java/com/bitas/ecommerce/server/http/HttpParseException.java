@@ -0,0 +1,19 @@
+package com.bitas.ecommerce.server.http;
+
+/**
+ * Thrown when a request cannot be parsed. Carries the status code the client should receive.
+ */
+public class HttpParseException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpParseException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
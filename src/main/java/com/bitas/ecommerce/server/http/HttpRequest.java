@@ -0,0 +1,119 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A parsed HTTP/1.x request.
+ * The path and the body are slices of the connection's read buffer and are decoded lazily.
+ * The buffer is not reused until the response for this request has been written, so a request
+ * must not be kept after that point.
+ */
+public class HttpRequest {
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+    public static final String HTTP_2 = "HTTP/2.0";
+
+    private final HttpMethod method;
+    private final String version;
+    private final HttpHeaders headers;
+    private final ByteBuffer buffer;
+    private final int pathOffset;
+    private final int pathLength;
+    private final int bodyOffset;
+    private final int bodyLength;
+
+    private String path;
+    private String body;
+    private String remoteAddress;
+
+    HttpRequest(HttpMethod method, String version, HttpHeaders headers, ByteBuffer buffer,
+                int pathOffset, int pathLength, int bodyOffset, int bodyLength) {
+        this.method = method;
+        this.version = version;
+        this.headers = headers;
+        this.buffer = buffer;
+        this.pathOffset = pathOffset;
+        this.pathLength = pathLength;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+    }
+
+    /**
+     * Build a request that did not come from the wire (tests, sub-requests).
+     */
+    public HttpRequest(HttpMethod method, String path, HttpHeaders headers, String body) {
+        this(method, HTTP_1_1, headers, null, 0, 0, 0, 0);
+        this.path = path;
+        this.body = body == null ? "" : body;
+    }
+
+    /**
+     * Build a request from parts decoded by another protocol (HTTP/2).
+     *
+     * @param body Body bytes between position and limit, owned by the request
+     */
+    public HttpRequest(HttpMethod method, String version, String path, HttpHeaders headers, ByteBuffer body) {
+        this(method, version, headers, body, 0, 0, body.position(), body.remaining());
+        this.path = path;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * IP address of the client connection, null when unknown (requests built in-process).
+     */
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public void setRemoteAddress(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    public String getPath() {
+        if (path == null) {
+            path = Ascii.decode(buffer, pathOffset, pathLength);
+        }
+        return path;
+    }
+
+    /**
+     * Body decoded as UTF-8 from exactly Content-Length bytes.
+     */
+    public String getBody() {
+        if (body == null) {
+            body = Ascii.decode(buffer, bodyOffset, bodyLength, StandardCharsets.UTF_8);
+        }
+        return body;
+    }
+
+    /**
+     * Raw body bytes as a read-only view of the request buffer.
+     */
+    public ByteBuffer getBodyBytes() {
+        if (buffer == null) {
+            return ByteBuffer.wrap(getBody().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        }
+        return buffer.asReadOnlyBuffer().limit(bodyOffset + bodyLength).position(bodyOffset).slice();
+    }
+
+    public int getBodyLength() {
+        return buffer == null ? getBody().getBytes(StandardCharsets.UTF_8).length : bodyLength;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + getPath() + " " + version;
+    }
+}
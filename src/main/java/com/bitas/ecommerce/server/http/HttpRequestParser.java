@@ -0,0 +1,175 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental HTTP/1.x request parser working directly on a ByteBuffer.
+ * It scans for the end of the head, decodes the method from {@link HttpMethod}, records the
+ * path and header values as offsets into the buffer and frames the body by Content-Length bytes.
+ * One parser is used per connection; it remembers how far it already searched for the end
+ * of the head so a request arriving in many small reads is not rescanned from the start.
+ */
+public class HttpRequestParser {
+    public static final int MAX_HEAD_SIZE = 16 * 1024;
+    public static final int MAX_BODY_SIZE = 1024 * 1024;
+    public static final int MAX_REQUEST_SIZE = MAX_HEAD_SIZE + MAX_BODY_SIZE;
+
+    private int scanned;
+    private boolean readingBody;
+
+    /**
+     * Try to parse one request starting at the buffer position.
+     *
+     * @param buffer Buffer in read mode (position..limit holds unparsed bytes)
+     * @return The request, with the buffer position moved past it, or null if more bytes are needed
+     * @throws HttpParseException if the request is malformed or too large
+     */
+    public HttpRequest parse(ByteBuffer buffer) throws HttpParseException {
+        int start = buffer.position();
+        int limit = buffer.limit();
+
+        readingBody = false;
+        int headEnd = findHeadEnd(buffer, start, limit);
+        if (headEnd < 0) {
+            if (limit - start > MAX_HEAD_SIZE) {
+                throw new HttpParseException(431, "Request Header Fields Too Large");
+            }
+            return null;
+        }
+
+        // Request line: METHOD SP request-target SP HTTP-version
+        int lineEnd = indexOfCrlf(buffer, start, headEnd + 2);
+        int methodEnd = Ascii.indexOf(buffer, (byte) ' ', start, lineEnd);
+        if (methodEnd <= start) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        HttpMethod method = HttpMethod.decode(buffer, start, methodEnd - start);
+        if (method == null) {
+            throw new HttpParseException(501, "Not Implemented");
+        }
+        int pathStart = methodEnd + 1;
+        int pathEnd = Ascii.indexOf(buffer, (byte) ' ', pathStart, lineEnd);
+        if (pathEnd <= pathStart) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        String version = decodeVersion(buffer, pathEnd + 1, lineEnd);
+
+        // Header fields
+        HttpHeaders headers = new HttpHeaders(buffer);
+        long contentLength = 0;
+        int lineStart = lineEnd + 2;
+        while (lineStart < headEnd + 2) {
+            int end = indexOfCrlf(buffer, lineStart, headEnd + 2);
+            int colon = Ascii.indexOf(buffer, (byte) ':', lineStart, end);
+            if (colon <= lineStart) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+            int nameEnd = colon;
+            while (nameEnd > lineStart && buffer.get(nameEnd - 1) == ' ') {
+                nameEnd--;
+            }
+            int valueStart = colon + 1;
+            while (valueStart < end && (buffer.get(valueStart) == ' ' || buffer.get(valueStart) == '\t')) {
+                valueStart++;
+            }
+            int valueEnd = end;
+            while (valueEnd > valueStart && (buffer.get(valueEnd - 1) == ' ' || buffer.get(valueEnd - 1) == '\t')) {
+                valueEnd--;
+            }
+
+            String name = HeaderNames.resolve(buffer, lineStart, nameEnd - lineStart);
+            if (name == HeaderNames.CONTENT_LENGTH) {
+                contentLength = parseContentLength(buffer, valueStart, valueEnd);
+            } else if (name == HeaderNames.TRANSFER_ENCODING) {
+                throw new HttpParseException(501, "Not Implemented");
+            }
+            headers.addSlice(name, valueStart, valueEnd - valueStart);
+            lineStart = end + 2;
+        }
+
+        if (contentLength > MAX_BODY_SIZE) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+        int bodyStart = headEnd + 4;
+        if (limit - bodyStart < contentLength) {
+            readingBody = true;
+            return null; // Body not complete yet, the head is re-parsed on the next attempt
+        }
+
+        scanned = 0;
+        buffer.position(bodyStart + (int) contentLength);
+        return new HttpRequest(method, version, headers, buffer,
+                pathStart, pathEnd - pathStart, bodyStart, (int) contentLength);
+    }
+
+    /**
+     * Whether the last {@link #parse} returned null with the head complete and only body bytes missing.
+     */
+    public boolean isReadingBody() {
+        return readingBody;
+    }
+
+    /**
+     * Grow a pooled buffer (in write mode) that is full but holds an incomplete request.
+     * The bytes move to a buffer twice the size and the old one is released.
+     *
+     * @throws HttpParseException once the request would exceed {@link #MAX_REQUEST_SIZE}
+     */
+    public static PooledBuffer expand(PooledBuffer pooled) throws HttpParseException {
+        ByteBuffer buffer = pooled.buffer();
+        if (buffer.capacity() >= MAX_REQUEST_SIZE) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+        PooledBuffer bigger = BufferPool.getInstance().acquire(Math.min(buffer.capacity() * 2, MAX_REQUEST_SIZE));
+        buffer.flip();
+        bigger.buffer().put(buffer);
+        pooled.release();
+        return bigger;
+    }
+
+    private int findHeadEnd(ByteBuffer buffer, int start, int limit) {
+        int from = Math.max(start, start + scanned - 3);
+        for (int i = from; i + 3 < limit; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n'
+                    && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        scanned = limit - start;
+        return -1;
+    }
+
+    private static int indexOfCrlf(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static String decodeVersion(ByteBuffer buffer, int offset, int end) throws HttpParseException {
+        if (end - offset == 8 && Ascii.equalsIgnoreCase(buffer, offset, HttpRequest.HTTP_1_1)) {
+            return HttpRequest.HTTP_1_1;
+        }
+        if (end - offset == 8 && Ascii.equalsIgnoreCase(buffer, offset, HttpRequest.HTTP_1_0)) {
+            return HttpRequest.HTTP_1_0;
+        }
+        throw new HttpParseException(505, "HTTP Version Not Supported");
+    }
+
+    private static long parseContentLength(ByteBuffer buffer, int offset, int end) throws HttpParseException {
+        if (offset == end || end - offset > 10) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        long value = 0;
+        for (int i = offset; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw new HttpParseException(400, "Bad Request");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,84 @@
+package com.bitas.ecommerce.server.http;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of a route: status, extra headers and JSON body.
+ * Handlers return one instead of a bare body, so a 404 built by a controller leaves the server as a 404.
+ */
+public class HttpResponse {
+    private final int status;
+    private final String body;
+    private Map<String, String> headers;
+
+    public HttpResponse(int status, String body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    public static HttpResponse ok(String body) {
+        return new HttpResponse(200, body);
+    }
+
+    public static HttpResponse created(String body) {
+        return new HttpResponse(201, body);
+    }
+
+    /**
+     * 304 for a conditional GET whose validator still matches; it has no body.
+     */
+    public static HttpResponse notModified() {
+        return new HttpResponse(304, "");
+    }
+
+    /**
+     * Add a header.
+     *
+     * @return This response
+     */
+    public HttpResponse header(String name, String value) {
+        if (headers == null) {
+            headers = new LinkedHashMap<>();
+        }
+        headers.put(name, value);
+        return this;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Extra headers, in the order they were added; empty for most responses.
+     */
+    public Map<String, String> getHeaders() {
+        return headers != null ? headers : Collections.emptyMap();
+    }
+
+    /**
+     * Whether extra headers set their own Content-Type, which then replaces application/json.
+     */
+    public static boolean hasContentType(Map<String, String> headers) {
+        if (headers != null) {
+            for (String name : headers.keySet()) {
+                if (name.equalsIgnoreCase(HeaderNames.CONTENT_TYPE)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the status allows a body (everything but 204 and 304).
+     */
+    public static boolean hasBody(int status) {
+        return status != 204 && status != 304;
+    }
+}
@@ -0,0 +1,344 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes responses straight to bytes.
+ * Status lines and the constant header block (content type and CORS) are encoded once and
+ * shared as read-only buffers; a response with a Content-Type of its own gets the block without it. The body is encoded to UTF-8 straight into a direct buffer from the
+ * {@link BufferPool}, so Content-Length is the real byte count and no intermediate byte[] is built.
+ */
+public final class HttpResponseWriter {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final String CORS_HEADERS =
+            "Access-Control-Allow-Origin: *\r\n" +  // Allow CORS
+            "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, PATCH\r\n" +
+            "Access-Control-Allow-Headers: Content-Type\r\n";
+    private static final byte[] COMMON_HEADERS = ascii("Content-Type: application/json\r\n" + CORS_HEADERS);
+    private static final byte[] COMMON_HEADERS_WITHOUT_TYPE = ascii(CORS_HEADERS);
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] ACCESS_CONTROL_ALLOW_ORIGIN = ascii("Access-Control-Allow-Origin: *\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONTENT_ENCODING_GZIP = ascii("Content-Encoding: gzip\r\n");
+    private static final byte[] CONTENT_ENCODING_DEFLATE = ascii("Content-Encoding: deflate\r\n");
+    private static final byte[] VARY_ACCEPT_ENCODING = ascii("Vary: Accept-Encoding\r\n");
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+    private static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+    private static final byte[] COLON_SPACE = {':', ' '};
+    private static final int DYNAMIC_HEADERS_SIZE = 128;
+
+    private static final Map<Integer, String> REASONS = new HashMap<>();
+    private static final byte[][] STATUS_LINES = new byte[600][];
+
+    private static final ThreadLocal<CharsetEncoder> ENCODER =
+            ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
+
+    static {
+        reason(200, "OK");
+        reason(201, "Created");
+        reason(204, "No Content");
+        reason(206, "Partial Content");
+        reason(304, "Not Modified");
+        reason(400, "Bad Request");
+        reason(401, "Unauthorized");
+        reason(403, "Forbidden");
+        reason(404, "Not Found");
+        reason(405, "Method Not Allowed");
+        reason(408, "Request Timeout");
+        reason(411, "Length Required");
+        reason(413, "Payload Too Large");
+        reason(415, "Unsupported Media Type");
+        reason(416, "Range Not Satisfiable");
+        reason(429, "Too Many Requests");
+        reason(431, "Request Header Fields Too Large");
+        reason(500, "Internal Server Error");
+        reason(501, "Not Implemented");
+        reason(503, "Service Unavailable");
+        reason(504, "Gateway Timeout");
+        reason(505, "HTTP Version Not Supported");
+    }
+
+    private HttpResponseWriter() {
+    }
+
+    private static void reason(int status, String phrase) {
+        REASONS.put(status, phrase);
+        STATUS_LINES[status] = ascii("HTTP/1.1 " + status + " " + phrase + "\r\n");
+    }
+
+    public static String reasonPhrase(int status) {
+        return REASONS.getOrDefault(status, "Unknown");
+    }
+
+    /**
+     * Encode a route's response.
+     *
+     * @param response   Status, headers and body
+     * @param keepAlive  Whether the connection stays open after this response
+     * @param compressor Compressor to use, null to never compress
+     * @param accepted   Coding negotiated from the request's Accept-Encoding
+     */
+    public static EncodedResponse encode(HttpResponse response, boolean keepAlive,
+                                         ResponseCompressor compressor, ContentCoding accepted) {
+        Map<String, String> headers = response.getHeaders();
+        return encode(response.getStatus(), headers.isEmpty() ? null : headers, response.getBody(), keepAlive,
+                compressor, accepted);
+    }
+
+    /**
+     * Encode a JSON response without compression.
+     *
+     * @param status    HTTP status code
+     * @param body      JSON body
+     * @param keepAlive Whether the connection stays open after this response
+     */
+    public static EncodedResponse encode(int status, String body, boolean keepAlive) {
+        return encode(status, body, keepAlive, null, ContentCoding.IDENTITY);
+    }
+
+    /**
+     * Encode a JSON response, compressing the body when the client accepts it and it is large enough.
+     *
+     * @param status     HTTP status code
+     * @param body       JSON body
+     * @param keepAlive  Whether the connection stays open after this response
+     * @param compressor Compressor to use, null to never compress
+     * @param accepted   Coding negotiated from the request's Accept-Encoding
+     */
+    public static EncodedResponse encode(int status, String body, boolean keepAlive,
+                                         ResponseCompressor compressor, ContentCoding accepted) {
+        return encode(status, null, body, keepAlive, compressor, accepted);
+    }
+
+    /**
+     * Encode a JSON response with additional headers.
+     *
+     * @param status     HTTP status code
+     * @param headers    Extra response headers (Retry-After, ETag, ...), may be null
+     * @param body       JSON body
+     * @param keepAlive  Whether the connection stays open after this response
+     * @param compressor Compressor to use, null to never compress
+     * @param accepted   Coding negotiated from the request's Accept-Encoding
+     */
+    public static EncodedResponse encode(int status, Map<String, String> headers, String body, boolean keepAlive,
+                                         ResponseCompressor compressor, ContentCoding accepted) {
+        return encode(status, headers, encodeUtf8(body), keepAlive, compressor, accepted);
+    }
+
+    /**
+     * Encode a response whose body is already UTF-8 bytes.
+     * The buffer is owned by the response from now on and recycled when it is released.
+     * A 204 or 304 is sent without body and Content-Length.
+     */
+    static EncodedResponse encode(int status, Map<String, String> headers, PooledBuffer pooled, boolean keepAlive,
+                                  ResponseCompressor compressor, ContentCoding accepted) {
+        boolean hasBody = HttpResponse.hasBody(status);
+        ByteBuffer payload = pooled.buffer();
+        ContentCoding applied = ContentCoding.IDENTITY;
+        if (!hasBody) {
+            payload.limit(payload.position());
+        } else if (compressor != null && compressor.shouldCompress(accepted, payload.remaining())) {
+            payload = ByteBuffer.wrap(compressor.compress(payload, accepted));
+            applied = accepted;
+        }
+
+        ByteBuffer head = ByteBuffer.allocate(DYNAMIC_HEADERS_SIZE + extraHeadersSize(headers));
+        if (hasBody) {
+            head.put(CONTENT_LENGTH);
+            putDecimal(head, payload.remaining());
+            head.put(CRLF);
+        }
+        if (applied != ContentCoding.IDENTITY) {
+            head.put(applied == ContentCoding.GZIP ? CONTENT_ENCODING_GZIP : CONTENT_ENCODING_DEFLATE);
+        }
+        if (compressor != null && compressor.isEnabled()) {
+            head.put(VARY_ACCEPT_ENCODING);
+        }
+        putHeaders(head, headers, applied);
+        head.put(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+        head.put(CRLF);
+        head.flip();
+
+        return new EncodedResponse(status, keepAlive, new ByteBuffer[]{
+                statusLine(status), commonHeaders(headers), head, payload
+        }, pooled);
+    }
+
+    /**
+     * Encode a static asset reply. A file body is attached as a {@link FileRegion} and never copied;
+     * error replies carry their JSON body. Asset responses are not compressed.
+     */
+    public static EncodedResponse encodeAsset(StaticAssets.Reply reply, boolean keepAlive) {
+        int status = reply.getStatus();
+        PooledBuffer body = reply.getErrorBody() != null ? encodeUtf8(reply.getErrorBody()) : null;
+        long contentLength = body != null ? body.buffer().remaining() : reply.getContentLength();
+
+        ByteBuffer head = ByteBuffer.allocate(DYNAMIC_HEADERS_SIZE + extraHeadersSize(reply.getHeaders()));
+        for (Map.Entry<String, String> header : reply.getHeaders().entrySet()) {
+            putAscii(head, header.getKey());
+            head.put(COLON_SPACE);
+            putAscii(head, header.getValue());
+            head.put(CRLF);
+        }
+        if (contentLength >= 0) {
+            head.put(CONTENT_LENGTH);
+            putDecimal(head, contentLength);
+            head.put(CRLF);
+        }
+        head.put(ACCESS_CONTROL_ALLOW_ORIGIN);
+        head.put(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+        head.put(CRLF);
+        head.flip();
+
+        ByteBuffer[] buffers = body != null
+                ? new ByteBuffer[]{statusLine(status), head, body.buffer()}
+                : new ByteBuffer[]{statusLine(status), head};
+        return new EncodedResponse(status, keepAlive, buffers, body, reply.getBody());
+    }
+
+    /**
+     * Encode the head of a streamed response, the body follows in frames.
+     *
+     * @param chunked False for HTTP/1.0 clients, the body then ends when the connection is closed
+     */
+    static ByteBuffer[] encodeStreamingHead(int status, Map<String, String> headers, boolean keepAlive,
+                                            boolean chunked) {
+        ByteBuffer head = ByteBuffer.allocate(DYNAMIC_HEADERS_SIZE + extraHeadersSize(headers));
+        if (chunked) {
+            head.put(TRANSFER_ENCODING_CHUNKED);
+        }
+        putHeaders(head, headers, ContentCoding.IDENTITY);
+        head.put(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+        head.put(CRLF);
+        head.flip();
+        return new ByteBuffer[]{statusLine(status), commonHeaders(headers), head};
+    }
+
+    private static ByteBuffer commonHeaders(Map<String, String> headers) {
+        byte[] block = HttpResponse.hasContentType(headers) ? COMMON_HEADERS_WITHOUT_TYPE : COMMON_HEADERS;
+        return ByteBuffer.wrap(block).asReadOnlyBuffer();
+    }
+
+    /**
+     * The end of a streamed response: the zero-length chunk, or nothing when the body is not chunked.
+     */
+    static EncodedResponse lastChunk(int status, boolean keepAlive, boolean chunked) {
+        ByteBuffer[] buffers = chunked
+                ? new ByteBuffer[]{ByteBuffer.wrap(LAST_CHUNK).asReadOnlyBuffer()}
+                : new ByteBuffer[0];
+        return new EncodedResponse(status, keepAlive, buffers, null);
+    }
+
+    /**
+     * Write extra headers. The ETag of a compressed body is that of a different representation, so it
+     * gets the coding appended.
+     */
+    private static void putHeaders(ByteBuffer head, Map<String, String> headers, ContentCoding applied) {
+        if (headers == null) {
+            return;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String value = header.getValue();
+            if (applied != ContentCoding.IDENTITY && header.getKey().equalsIgnoreCase("ETag")) {
+                value = ETags.forCoding(value, applied);
+            }
+            putAscii(head, header.getKey());
+            head.put(COLON_SPACE);
+            putAscii(head, value);
+            head.put(CRLF);
+        }
+    }
+
+    private static int extraHeadersSize(Map<String, String> headers) {
+        int size = 0;
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                size += header.getKey().length() + header.getValue().length() + 4;
+            }
+        }
+        return size;
+    }
+
+    private static void putAscii(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // Header values are ASCII; never let CR/LF through (response splitting)
+            buffer.put(c == '\r' || c == '\n' || c > 0xff ? (byte) ' ' : (byte) c);
+        }
+    }
+
+    /**
+     * Encode a String as UTF-8 into a pooled buffer, returned flipped.
+     */
+    private static PooledBuffer encodeUtf8(String body) {
+        PooledBuffer pooled = BufferPool.getInstance().acquire(utf8Length(body));
+        ByteBuffer buffer = pooled.buffer();
+        CharsetEncoder encoder = ENCODER.get().reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(body), buffer, true);
+        if (result.isError()) {
+            // Unpaired surrogates: fall back to the replacing String encoder
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            buffer.clear();
+            buffer.put(bytes);
+        } else {
+            encoder.flush(buffer);
+        }
+        buffer.flip();
+        return pooled;
+    }
+
+    private static ByteBuffer statusLine(int status) {
+        byte[] line = status > 0 && status < STATUS_LINES.length ? STATUS_LINES[status] : null;
+        if (line == null) {
+            line = ascii("HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\n");
+        }
+        return ByteBuffer.wrap(line).asReadOnlyBuffer();
+    }
+
+    private static void putDecimal(ByteBuffer buffer, long value) {
+        if (value == 0) {
+            buffer.put((byte) '0');
+            return;
+        }
+        int digits = 0;
+        for (long v = value; v > 0; v /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        long v = value;
+        for (int i = end - 1; i >= buffer.position(); i--, v /= 10) {
+            buffer.put(i, (byte) ('0' + v % 10));
+        }
+        buffer.position(end);
+    }
+
+    static int utf8Length(CharSequence s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
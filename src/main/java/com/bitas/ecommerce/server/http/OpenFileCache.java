@@ -0,0 +1,167 @@
+package com.bitas.ecommerce.server.http;
+
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of open file channels, so hot assets are not opened and stat-ed on every request.
+ * Entries are reference counted: the cache holds one reference and every response being written holds
+ * another, so a file evicted (or replaced on disk) while it is being sent is only closed once the last
+ * response is done with it. Cached metadata is re-checked against the file system after revalidateMs.
+ */
+public class OpenFileCache {
+    private final int maxOpenFiles;
+    private final long revalidateMs;
+    private final Map<Path, OpenFile> files;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    private OpenFileCache(int maxOpenFiles, long revalidateMs) {
+        this.maxOpenFiles = maxOpenFiles;
+        this.revalidateMs = revalidateMs;
+        this.files = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, OpenFile> eldest) {
+                if (size() > OpenFileCache.this.maxOpenFiles) {
+                    eldest.getValue().release();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        Metrics metrics = Metrics.getInstance();
+        this.hits = metrics.counter("assets.fd_cache.hits");
+        this.misses = metrics.counter("assets.fd_cache.misses");
+    }
+
+    /**
+     * A cache with its size published as assets.fd_cache.open, registered once it is fully built.
+     */
+    public static OpenFileCache create(int maxOpenFiles, long revalidateMs) {
+        OpenFileCache cache = new OpenFileCache(maxOpenFiles, revalidateMs);
+        Metrics.getInstance().gauge("assets.fd_cache.open", cache::size);
+        return cache;
+    }
+
+    /**
+     * Get an open regular file. The caller owns one reference and must {@link OpenFile#release()} it.
+     *
+     * @throws NoSuchFileException when the file does not exist or is not a regular file
+     */
+    public synchronized OpenFile acquire(Path path) throws IOException {
+        long now = System.currentTimeMillis();
+        OpenFile cached = files.get(path);
+        if (cached != null && now - cached.checkedAt < revalidateMs && cached.retain()) {
+            hits.increment();
+            return cached;
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            evict(path);
+            throw e;
+        }
+        if (!attributes.isRegularFile()) {
+            evict(path);
+            throw new NoSuchFileException(path.toString());
+        }
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (cached != null && cached.size == attributes.size() && cached.lastModified == lastModified
+                && cached.retain()) {
+            cached.checkedAt = now;
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        evict(path);
+        OpenFile opened = new OpenFile(FileChannel.open(path, StandardOpenOption.READ),
+                attributes.size(), lastModified, now);
+        files.put(path, opened);
+        opened.retain();
+        return opened;
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    private void evict(Path path) {
+        OpenFile previous = files.remove(path);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * An open file and the metadata it was opened with.
+     */
+    public static final class OpenFile {
+        private final FileChannel channel;
+        private final long size;
+        private final long lastModified;
+        // The cache's own reference keeps this at 1 or more while the file is cached
+        private final AtomicInteger references = new AtomicInteger(1);
+        private long checkedAt;
+
+        private OpenFile(FileChannel channel, long size, long lastModified, long checkedAt) {
+            this.channel = channel;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checkedAt = checkedAt;
+        }
+
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Last modification time in epoch milliseconds.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int current = references.get();
+                if (current == 0) {
+                    return false; // Already closed
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println("❗ Error closing file: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
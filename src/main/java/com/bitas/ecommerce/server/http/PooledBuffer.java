@@ -0,0 +1,50 @@
+package com.bitas.ecommerce.server.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer on loan from the {@link BufferPool}. Whoever holds it calls {@link #release()} exactly once,
+ * after which neither the handle nor {@link #buffer()} (or slices of it) may be used again.
+ */
+public final class PooledBuffer {
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    final int sizeClass;
+    // Set on the handle given out for a sampled acquisition: the pooled handle behind it, and its tracker
+    final PooledBuffer origin;
+    final BufferPool.Leak leak;
+    boolean inUse;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this(pool, buffer, sizeClass, null, null);
+    }
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass, PooledBuffer origin, BufferPool.Leak leak) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        this.origin = origin;
+        this.leak = leak;
+    }
+
+    /**
+     * A handle for a buffer that does not come from the pool; releasing it does nothing.
+     */
+    public static PooledBuffer wrap(ByteBuffer buffer) {
+        return new PooledBuffer(null, buffer, -1);
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public void release() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.bitas.ecommerce.server.http;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Histogram;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resized variants of product images, served at /api/v1/products/{id}/image?w=N.
+ * The source is the product's imageUrl, which has to point into the static asset directory.
+ * A variant is generated once with javax.imageio and written to a content-addressed cache directory:
+ * the file name is a SHA-256 of the source bytes plus the width, so products sharing an image share its
+ * variants and a replaced image never serves a stale thumbnail. Cached variants are sent like any other
+ * asset (sendfile, Range, If-Modified-Since).
+ * Resizing runs on its own bounded pool (server.thumbnails.threads, server.thumbnails.queue-size), so a
+ * burst of cold images cannot take over the request workers; when the pool is full the request gets 503.
+ * Concurrent requests for a variant that is being generated wait for the same job.
+ * Requested widths are rounded up to one of server.thumbnails.widths so clients cannot fill the cache
+ * with arbitrary sizes; without w the original image is served.
+ */
+public class ProductThumbnails {
+    private static final Pattern PATH = Pattern.compile("/api/v1/products/(\\d+)/image");
+    // Source digests kept in memory, keyed by path and checked against size and mtime
+    private static final int MAX_DIGESTS = 4096;
+
+    static {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    private final boolean enabled;
+    private final StaticAssets assets;
+    private final LongFunction<String> imageUrls;
+    private final Path cacheDir;
+    private final int[] widths;
+    private final ThreadPoolExecutor pool;
+    private final long timeoutMs;
+    private final float jpegQuality;
+    private final int retryAfterSeconds;
+
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    private final Map<Path, SourceDigest> digests = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, SourceDigest> eldest) {
+                    return size() > MAX_DIGESTS;
+                }
+            });
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder joined;
+    private final LongAdder rejected;
+    private final LongAdder failures;
+    private final Histogram resizeTime;
+
+    /**
+     * @param imageUrls Looks up the imageUrl of a product id, null when there is no such product or image
+     * @param widths    Allowed widths, ascending
+     */
+    public ProductThumbnails(boolean enabled, StaticAssets assets, LongFunction<String> imageUrls, Path cacheDir,
+                             int[] widths, int threads, int queueSize, long timeoutMs, float jpegQuality,
+                             int retryAfterSeconds) {
+        this.enabled = enabled;
+        this.assets = assets;
+        this.imageUrls = imageUrls;
+        this.cacheDir = cacheDir.toAbsolutePath().normalize();
+        this.widths = widths;
+        this.timeoutMs = timeoutMs;
+        this.jpegQuality = jpegQuality;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), task -> {
+                    Thread thread = new Thread(task, "thumbnail-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Metrics metrics = Metrics.getInstance();
+        this.hits = metrics.counter("thumbnails.cache.hits");
+        this.misses = metrics.counter("thumbnails.cache.misses");
+        this.joined = metrics.counter("thumbnails.jobs.joined");
+        this.rejected = metrics.counter("thumbnails.jobs.rejected");
+        this.failures = metrics.counter("thumbnails.jobs.failed");
+        this.resizeTime = metrics.histogram("thumbnails.resize");
+        metrics.gauge("thumbnails.pool.queued", () -> pool.getQueue().size());
+        metrics.gauge("thumbnails.pool.active", pool::getActiveCount);
+    }
+
+    public static ProductThumbnails fromConfig(StaticAssets assets, LongFunction<String> imageUrls) {
+        int[] widths = Arrays.stream(AppConfig.get("server.thumbnails.widths", "64,128,200,400,800").split(","))
+                .map(String::trim)
+                .filter(width -> !width.isEmpty())
+                .mapToInt(Integer::parseInt)
+                .sorted()
+                .toArray();
+        return new ProductThumbnails(
+                AppConfig.getBoolean("server.thumbnails.enabled", true),
+                assets,
+                imageUrls,
+                Paths.get(AppConfig.get("server.thumbnails.cache-dir", "cache/thumbnails")),
+                widths,
+                AppConfig.getInt("server.thumbnails.threads", 2),
+                AppConfig.getInt("server.thumbnails.queue-size", 64),
+                AppConfig.getLong("server.thumbnails.timeout-ms", 10000),
+                Float.parseFloat(AppConfig.get("server.thumbnails.jpeg-quality", "0.85")),
+                AppConfig.getInt("server.admission.retry-after-seconds", 1));
+    }
+
+    /**
+     * Whether a request path is a product image.
+     */
+    public boolean matches(String path) {
+        return enabled && PATH.matcher(stripQuery(path)).matches();
+    }
+
+    /**
+     * Answer a product image request, generating the variant first when it is not cached yet.
+     * Blocks the calling worker while the resize pool works on it, up to server.thumbnails.timeout-ms.
+     */
+    public StaticAssets.Reply serve(HttpRequest request) {
+        HttpMethod method = request.getMethod();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return StaticAssets.methodNotAllowed();
+        }
+
+        String path = request.getPath();
+        Matcher matcher = PATH.matcher(stripQuery(path));
+        if (!matcher.matches()) {
+            return StaticAssets.Reply.error(404, "Not Found");
+        }
+        int requested;
+        try {
+            requested = requestedWidth(path);
+        } catch (NumberFormatException e) {
+            return StaticAssets.Reply.error(400, "Invalid width");
+        }
+
+        long productId;
+        try {
+            productId = Long.parseLong(matcher.group(1));
+        } catch (NumberFormatException e) {
+            return StaticAssets.Reply.error(404, "Not Found");
+        }
+        Path source = assets.resolveUrl(imageUrls.apply(productId));
+        if (source == null) {
+            return StaticAssets.Reply.error(404, "Product image not found");
+        }
+        if (requested == 0) {
+            return assets.serveFile(request, source);
+        }
+
+        Path variant;
+        try {
+            variant = variantPath(source, snapWidth(requested));
+        } catch (NoSuchFileException e) {
+            return StaticAssets.Reply.error(404, "Product image not found");
+        } catch (IOException e) {
+            System.err.println("❗ Error reading product image " + source + ": " + e.getMessage());
+            return StaticAssets.Reply.error(500, "Internal Server Error");
+        }
+        if (Files.isRegularFile(variant)) {
+            hits.increment();
+            return assets.serveFile(request, variant);
+        }
+
+        misses.increment();
+        try {
+            generate(source, variant, snapWidth(requested)).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The job keeps running, a retry will most likely find the variant on disk
+            return unavailable();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return unavailable();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                return unavailable();
+            }
+            System.err.println("❗ Error generating thumbnail of " + source + ": " + e.getCause().getMessage());
+            return StaticAssets.Reply.error(500, "Internal Server Error");
+        }
+        return assets.serveFile(request, variant);
+    }
+
+    /**
+     * Start the resize job of a variant, or join the one already running.
+     */
+    private CompletableFuture<Path> generate(Path source, Path variant, int width) {
+        String key = variant.getFileName().toString();
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(key, created);
+        if (running != null) {
+            joined.increment();
+            return running;
+        }
+        try {
+            pool.execute(() -> {
+                try {
+                    // A job that finished just before this one was registered may have written it already
+                    if (!Files.isRegularFile(variant)) {
+                        long start = System.nanoTime();
+                        resize(source, variant, width);
+                        resizeTime.recordNanos(System.nanoTime() - start);
+                    }
+                    created.complete(variant);
+                } catch (IOException | RuntimeException e) {
+                    failures.increment();
+                    created.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, created);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * Scale the source down to the width (never up) and write it atomically to the variant path.
+     * Large reductions halve the image step by step, a single bilinear pass would alias badly.
+     */
+    private void resize(Path source, Path variant, int width) throws IOException {
+        BufferedImage image = ImageIO.read(source.toFile());
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        boolean png = variant.getFileName().toString().endsWith(".png");
+        int type = png ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        int targetWidth = Math.min(width, image.getWidth());
+        int targetHeight = Math.max(1, (int) Math.round((double) image.getHeight() * targetWidth / image.getWidth()));
+
+        BufferedImage current = image;
+        boolean flatten = !png;
+        do {
+            int nextWidth = Math.max(targetWidth, current.getWidth() / 2);
+            int nextHeight = nextWidth == targetWidth ? targetHeight : Math.max(targetHeight, current.getHeight() / 2);
+            BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                if (flatten) {
+                    // JPEG has no alpha, paint transparent sources onto white
+                    graphics.setColor(Color.WHITE);
+                    graphics.fillRect(0, 0, nextWidth, nextHeight);
+                    flatten = false;
+                }
+                graphics.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (current.getWidth() != targetWidth);
+
+        Files.createDirectories(variant.getParent());
+        Path temp = Files.createTempFile(variant.getParent(), "tmp-", ".part");
+        try {
+            write(current, png ? "png" : "jpeg", temp);
+            Files.move(temp, variant, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void write(BufferedImage image, String format, Path target) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for " + format);
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed() && "jpeg".equals(format)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Cache path of a variant: cache-dir/ab/abcdef...-w200.jpg, named after the source bytes.
+     */
+    private Path variantPath(Path source, int width) throws IOException {
+        String name = source.getFileName().toString().toLowerCase(Locale.ROOT);
+        // Formats with transparency stay PNG, everything else becomes JPEG
+        String extension = name.endsWith(".png") || name.endsWith(".gif") ? "png" : "jpg";
+        String digest = digest(source);
+        return cacheDir.resolve(digest.substring(0, 2)).resolve(digest + "-w" + width + "." + extension);
+    }
+
+    private String digest(Path source) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        SourceDigest cached = digests.get(source);
+        if (cached != null && cached.size == attributes.size() && cached.lastModified == lastModified) {
+            return cached.hex;
+        }
+
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream input = Files.newInputStream(source)) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                sha256.update(buffer, 0, read);
+            }
+        }
+        String hex = HexFormat.of().formatHex(sha256.digest());
+        digests.put(source, new SourceDigest(attributes.size(), lastModified, hex));
+        return hex;
+    }
+
+    /**
+     * The smallest allowed width that is at least the requested one, the largest when none is.
+     */
+    private int snapWidth(int requested) {
+        for (int width : widths) {
+            if (width >= requested) {
+                return width;
+            }
+        }
+        return widths[widths.length - 1];
+    }
+
+    /**
+     * Value of the w query parameter, 0 when absent.
+     *
+     * @throws NumberFormatException when w is not a positive number
+     */
+    private static int requestedWidth(String path) {
+        int query = path.indexOf('?');
+        if (query < 0) {
+            return 0;
+        }
+        for (String parameter : path.substring(query + 1).split("&")) {
+            if (parameter.startsWith("w=")) {
+                int width = Integer.parseInt(parameter.substring(2));
+                if (width <= 0) {
+                    throw new NumberFormatException("Width must be positive");
+                }
+                return width;
+            }
+        }
+        return 0;
+    }
+
+    private static String stripQuery(String path) {
+        int query = path.indexOf('?');
+        return query < 0 ? path : path.substring(0, query);
+    }
+
+    private StaticAssets.Reply unavailable() {
+        StaticAssets.Reply reply = StaticAssets.Reply.error(503, "Service Unavailable");
+        reply.getHeaders().put("Retry-After", String.valueOf(retryAfterSeconds));
+        return reply;
+    }
+
+    private static final class SourceDigest {
+        private final long size;
+        private final long lastModified;
+        private final String hex;
+
+        private SourceDigest(long size, long lastModified, String hex) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hex = hex;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.bitas.ecommerce.server.http;
+
+import com.bitas.ecommerce.utils.AppConfig;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses response bodies with the coding negotiated from Accept-Encoding.
+ * Bodies below the size threshold are sent as is. Compressed output is cached by content
+ * digest, so repeated identical responses are only deflated once.
+ * Deflaters are pooled rather than thread-local because workers may be virtual threads.
+ * Configured with server.compression.enabled, .min-size, .level, .cache-bytes and
+ * .max-request-inflated-bytes.
+ */
+public class ResponseCompressor {
+    private final boolean enabled;
+    private final int minSize;
+    private final int level;
+    private final int maxRequestInflatedBytes;
+    private final CompressionCache cache;
+    private final ConcurrentLinkedQueue<Deflater> gzipDeflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Deflater> zlibDeflaters = new ConcurrentLinkedQueue<>();
+
+    public ResponseCompressor(boolean enabled, int minSize, int level, long cacheBytes, int maxRequestInflatedBytes) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.level = level;
+        this.maxRequestInflatedBytes = maxRequestInflatedBytes;
+        this.cache = cacheBytes > 0 ? new CompressionCache(cacheBytes) : null;
+    }
+
+    public static ResponseCompressor fromConfig() {
+        return new ResponseCompressor(
+                AppConfig.getBoolean("server.compression.enabled", true),
+                AppConfig.getInt("server.compression.min-size", 1024),
+                AppConfig.getInt("server.compression.level", Deflater.DEFAULT_COMPRESSION),
+                AppConfig.getLong("server.compression.cache-bytes", 8L * 1024 * 1024),
+                AppConfig.getInt("server.compression.max-request-inflated-bytes", 8 * 1024 * 1024));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean shouldCompress(ContentCoding coding, int length) {
+        return enabled && coding != ContentCoding.IDENTITY && length >= minSize;
+    }
+
+    public int getMaxRequestInflatedBytes() {
+        return maxRequestInflatedBytes;
+    }
+
+    public CompressionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Compress a body, using the cache when possible. The buffer position is not changed.
+     */
+    public byte[] compress(ByteBuffer body, ContentCoding coding) {
+        byte[] digest = null;
+        if (cache != null) {
+            digest = digest(body);
+            byte[] cached = cache.get(digest, coding);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        byte[] compressed = coding == ContentCoding.GZIP ? gzip(body) : deflate(body, zlibDeflaters, false);
+        if (cache != null) {
+            cache.put(digest, coding, compressed);
+        }
+        return compressed;
+    }
+
+    private byte[] gzip(ByteBuffer body) {
+        byte[] deflated = deflate(body, gzipDeflaters, true);
+
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+
+        byte[] out = new byte[Gzip.HEADER.length + deflated.length + 8];
+        System.arraycopy(Gzip.HEADER, 0, out, 0, Gzip.HEADER.length);
+        System.arraycopy(deflated, 0, out, Gzip.HEADER.length, deflated.length);
+        Gzip.writeTrailer(out, Gzip.HEADER.length + deflated.length, (int) crc.getValue(), body.remaining());
+        return out;
+    }
+
+    private byte[] deflate(ByteBuffer body, ConcurrentLinkedQueue<Deflater> pool, boolean nowrap) {
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, nowrap);
+        }
+        try {
+            deflater.setInput(body.duplicate());
+            deflater.finish();
+
+            byte[] out = new byte[Math.max(64, body.remaining() / 4)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return length == out.length ? out : Arrays.copyOf(out, length);
+        } finally {
+            deflater.reset();
+            pool.offer(deflater);
+        }
+    }
+
+    private static byte[] digest(ByteBuffer body) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(body.duplicate());
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.bitas.ecommerce.server.http;
+
+import java.io.IOException;
+
+/**
+ * Destination for a response body that is produced piece by piece (rows from a ResultSet, ...).
+ * Output is buffered up to a chunk; once the first chunk has gone to the client the response is
+ * committed and the status can no longer change.
+ */
+public interface ResponseSink {
+
+    /**
+     * Append JSON text to the body.
+     *
+     * @throws IOException when the client went away
+     */
+    void write(CharSequence text) throws IOException;
+
+    /**
+     * Send what is buffered now instead of waiting for a full chunk, for bodies that are a sequence of
+     * messages (Server-Sent Events). Commits the response.
+     *
+     * @throws IOException when the client went away
+     */
+    void flush() throws IOException;
+
+    /**
+     * Whether the body only reaches the client once the action has returned (HTTP/2, callers that need the
+     * whole body), so {@link #flush()} sends nothing early: a stream that waits for events has to end instead.
+     */
+    boolean isBuffered();
+
+    /**
+     * Whether bytes have already been sent to the client.
+     */
+    boolean isCommitted();
+
+    /**
+     * Set a response header; a Content-Type replaces the default application/json.
+     *
+     * @throws IllegalStateException when the response is already committed
+     */
+    void setHeader(String name, String value);
+
+    /**
+     * Set the status, 200 until changed. Only possible before the response is committed, typically
+     * together with {@link #reset()} to send an error instead.
+     *
+     * @throws IllegalStateException when the response is already committed
+     */
+    void setStatus(int status);
+
+    /**
+     * Drop everything written so far, e.g. to send an error body instead.
+     *
+     * @throws IllegalStateException when the response is already committed
+     */
+    void reset();
+}
@@ -0,0 +1,355 @@
+package com.bitas.ecommerce.server.http;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.JsonUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves files below server.assets.dir under the server.assets.path-prefix URL prefix (product images).
+ * Supports GET and HEAD, Last-Modified / If-Modified-Since, and single byte ranges (Range, If-Range).
+ * File bodies are returned as {@link FileRegion}s, so they are never read into the heap.
+ * Settings: server.assets.enabled, server.assets.dir, server.assets.path-prefix,
+ * server.assets.fd-cache-size, server.assets.revalidate-ms and server.assets.cache-control.
+ */
+public class StaticAssets {
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("avif", "image/avif");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "text/javascript; charset=utf-8");
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+    }
+
+    private final boolean enabled;
+    private final String prefix;
+    private final Path root;
+    private final OpenFileCache files;
+    private final String cacheControl;
+
+    public StaticAssets(boolean enabled, String prefix, Path root, OpenFileCache files, String cacheControl) {
+        this.enabled = enabled;
+        this.prefix = prefix.endsWith("/") ? prefix : prefix + "/";
+        this.root = root.toAbsolutePath().normalize();
+        this.files = files;
+        this.cacheControl = cacheControl;
+    }
+
+    public static StaticAssets fromConfig() {
+        return new StaticAssets(
+                AppConfig.getBoolean("server.assets.enabled", true),
+                AppConfig.get("server.assets.path-prefix", "/api/v1/assets/"),
+                Paths.get(AppConfig.get("server.assets.dir", "assets")),
+                OpenFileCache.create(AppConfig.getInt("server.assets.fd-cache-size", 256),
+                        AppConfig.getLong("server.assets.revalidate-ms", 2000)),
+                AppConfig.get("server.assets.cache-control", "public, max-age=86400"));
+    }
+
+    /**
+     * Whether a request path belongs to the asset routes.
+     */
+    public boolean matches(String path) {
+        return enabled && path.startsWith(prefix);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Answer an asset request. Never throws for a missing or unreadable file, those become error replies.
+     */
+    public Reply serve(HttpRequest request) {
+        String path = request.getPath();
+        return serveFile(request, resolve(path.substring(prefix.length())));
+    }
+
+    /**
+     * Answer a GET or HEAD with the given file, with the same conditional and range handling as the
+     * asset routes. Also used for files that live outside the asset root (generated thumbnails).
+     *
+     * @param file The file, null to answer 404
+     */
+    public Reply serveFile(HttpRequest request, Path file) {
+        HttpMethod method = request.getMethod();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return methodNotAllowed();
+        }
+        if (file == null) {
+            return Reply.error(404, "Not Found");
+        }
+
+        OpenFileCache.OpenFile open;
+        try {
+            open = files.acquire(file);
+        } catch (NoSuchFileException e) {
+            return Reply.error(404, "Not Found");
+        } catch (IOException e) {
+            System.err.println("❗ Error opening asset " + file + ": " + e.getMessage());
+            return Reply.error(500, "Internal Server Error");
+        }
+
+        long size = open.getSize();
+        String lastModified = HTTP_DATE.format(Instant.ofEpochMilli(open.getLastModified()));
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(HeaderNames.CONTENT_TYPE, contentType(file));
+        headers.put("Last-Modified", lastModified);
+        headers.put("Accept-Ranges", "bytes");
+        if (!cacheControl.isEmpty()) {
+            headers.put(HeaderNames.CACHE_CONTROL, cacheControl);
+        }
+
+        HttpHeaders requestHeaders = request.getHeaders();
+        if (notModified(requestHeaders.get(HeaderNames.IF_MODIFIED_SINCE), open.getLastModified())) {
+            open.release();
+            return new Reply(304, headers, -1, null);
+        }
+
+        long start = 0;
+        long count = size;
+        int status = 200;
+        String range = requestHeaders.get(HeaderNames.RANGE);
+        String ifRange = requestHeaders.get(HeaderNames.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(lastModified))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                open.release();
+                Reply reply = Reply.error(416, "Range Not Satisfiable");
+                reply.headers.put("Content-Range", "bytes */" + size);
+                return reply;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                count = bounds[1] - bounds[0] + 1;
+                status = 206;
+                headers.put("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+            }
+        }
+
+        if (method == HttpMethod.HEAD || count == 0) {
+            open.release();
+            return new Reply(status, headers, count, null);
+        }
+        return new Reply(status, headers, count, new FileRegion(open, start, count));
+    }
+
+    /**
+     * Map an image URL as stored on a product (http://host/api/v1/assets/a.jpg, /api/v1/assets/a.jpg or
+     * a.jpg) to a file below the root.
+     *
+     * @return The file, or null when the URL points anywhere else
+     */
+    public Path resolveUrl(String url) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        String path = url;
+        int scheme = url.indexOf("://");
+        if (scheme >= 0) {
+            int slash = url.indexOf('/', scheme + 3);
+            if (slash < 0) {
+                return null;
+            }
+            path = url.substring(slash);
+        }
+        if (path.startsWith(prefix)) {
+            return resolve(path.substring(prefix.length()));
+        }
+        return path.startsWith("/") ? null : resolve(path);
+    }
+
+    static Reply methodNotAllowed() {
+        Reply reply = Reply.error(405, "Method Not Allowed");
+        reply.headers.put("Allow", "GET, HEAD");
+        return reply;
+    }
+
+    /**
+     * Map a path relative to the root (still percent-encoded, may carry a query) to a file below the
+     * root, or null when it would leave the root.
+     */
+    private Path resolve(String encodedPath) {
+        int query = encodedPath.indexOf('?');
+        String relative = percentDecode(query < 0 ? encodedPath : encodedPath.substring(0, query));
+        if (relative == null || relative.isEmpty() || relative.indexOf('\0') >= 0 || relative.indexOf('\\') >= 0) {
+            return null;
+        }
+        Path file = root.resolve(relative).normalize();
+        return file.startsWith(root) && !file.equals(root) ? file : null;
+    }
+
+    private static String percentDecode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '%') {
+                bytes.write(c);
+                continue;
+            }
+            if (i + 2 >= value.length()) {
+                return null;
+            }
+            int high = Character.digit(value.charAt(i + 1), 16);
+            int low = Character.digit(value.charAt(i + 2), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes.write(high << 4 | low);
+            i += 2;
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : "application/octet-stream";
+    }
+
+    private static boolean notModified(String ifModifiedSince, long lastModifiedMillis) {
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            // HTTP dates have one second resolution
+            return lastModifiedMillis / 1000 <= since;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse a Range header against the file size.
+     *
+     * @return {first, last} for one satisfiable range, an empty array to ignore the header
+     * (another unit, several ranges, malformed), null when the range cannot be satisfied
+     */
+    static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return new long[0];
+            }
+            if (start >= size) {
+                return null;
+            }
+            return new long[]{start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    /**
+     * Outcome of an asset request: status, headers, and either a file body, a JSON error body or nothing.
+     */
+    public static final class Reply {
+        private final int status;
+        private final Map<String, String> headers;
+        private final long contentLength;
+        private final FileRegion body;
+        private String errorBody;
+
+        private Reply(int status, Map<String, String> headers, long contentLength, FileRegion body) {
+            this.status = status;
+            this.headers = headers;
+            this.contentLength = contentLength;
+            this.body = body;
+        }
+
+        static Reply error(int status, String message) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", status);
+            error.put("error", message);
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put(HeaderNames.CONTENT_TYPE, "application/json");
+            Reply reply = new Reply(status, headers, -1, null);
+            reply.errorBody = JsonUtil.getInstance().toJson(error);
+            return reply;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Response headers, Content-Type first.
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Content-Length to announce: the length of the file range (also for HEAD), -1 when there is no
+         * file body (304 or an error).
+         */
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * The file range to send, null for HEAD, 304 and errors.
+         */
+        public FileRegion getBody() {
+            return body;
+        }
+
+        /**
+         * JSON body of an error reply, null otherwise.
+         */
+        public String getErrorBody() {
+            return errorBody;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.bitas.ecommerce.server.nio;
+
+import com.bitas.ecommerce.server.AdmissionController;
+import com.bitas.ecommerce.server.ConnectionTimeouts;
+import com.bitas.ecommerce.server.HttpDispatcher;
+import com.bitas.ecommerce.server.KeepAlivePolicy;
+import com.bitas.ecommerce.server.h2.Http2Settings;
+import com.bitas.ecommerce.server.tls.TlsSettings;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread that owns a set of connections.
+ * All state of a connection is only touched from its loop thread; other threads
+ * (acceptor, workers, the timer wheel) submit work through {@link #execute(Runnable)}.
+ */
+class IoLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final HttpDispatcher dispatcher;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final Http2Settings http2Settings;
+    private final ConnectionTimeouts timeouts;
+    private final AdmissionController admission;
+    private final TlsSettings tlsSettings;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    IoLoop(String name, HttpDispatcher dispatcher, KeepAlivePolicy keepAlivePolicy, Http2Settings http2Settings,
+           ConnectionTimeouts timeouts, AdmissionController admission, TlsSettings tlsSettings) throws IOException {
+        this.selector = Selector.open();
+        this.dispatcher = dispatcher;
+        this.keepAlivePolicy = keepAlivePolicy;
+        this.http2Settings = http2Settings;
+        this.timeouts = timeouts;
+        this.admission = admission;
+        this.tlsSettings = tlsSettings;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Run a task on the loop thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Take ownership of a freshly accepted channel.
+     *
+     * @param secure Whether the connection speaks TLS, if enabled
+     */
+    void register(SocketChannel channel, boolean secure) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(this, channel, key, dispatcher, keepAlivePolicy, http2Settings,
+                        timeouts, admission, secure && tlsSettings.isEnabled() ? tlsSettings : null));
+            } catch (ClosedChannelException e) {
+                System.err.println("❗ Connection closed before registration: " + e.getMessage());
+            }
+        });
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println("❗ Selector error: " + e.getMessage());
+                continue;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection == null || !key.isValid()) {
+                    continue;
+                }
+                try {
+                    if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection) {
+                ((NioConnection) key.attachment()).close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("❗ Error closing selector: " + e.getMessage());
+        }
+    }
+}
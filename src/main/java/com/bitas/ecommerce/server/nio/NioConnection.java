@@ -0,0 +1,533 @@
+package com.bitas.ecommerce.server.nio;
+
+import com.bitas.ecommerce.server.Acceptor;
+import com.bitas.ecommerce.server.AdmissionController;
+import com.bitas.ecommerce.server.ConnectionTimeouts;
+import com.bitas.ecommerce.server.HttpDispatcher;
+import com.bitas.ecommerce.server.KeepAlivePolicy;
+import com.bitas.ecommerce.server.h2.Http2Connection;
+import com.bitas.ecommerce.server.h2.Http2Settings;
+import com.bitas.ecommerce.server.h2.Http2Transport;
+import com.bitas.ecommerce.server.http.BufferPool;
+import com.bitas.ecommerce.server.http.EncodedResponse;
+import com.bitas.ecommerce.server.http.FrameWriter;
+import com.bitas.ecommerce.server.http.HttpParseException;
+import com.bitas.ecommerce.server.http.HttpRequest;
+import com.bitas.ecommerce.server.http.HttpRequestParser;
+import com.bitas.ecommerce.server.http.PooledBuffer;
+import com.bitas.ecommerce.server.tls.TlsChannel;
+import com.bitas.ecommerce.server.tls.TlsSettings;
+import com.bitas.ecommerce.utils.AppConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-connection state of the NIO engine.
+ * Bytes are accumulated until {@link HttpRequestParser} sees a full request (head and body),
+ * then the request is handed to a worker and the response is written back on the loop thread.
+ * Only one request per connection is in flight at a time, so pipelined requests are answered
+ * in the order they arrived.
+ * Frames of a streamed response are queued by the worker and written by the loop; the worker
+ * blocks once server.streaming.max-queued-bytes are waiting, so a slow client slows the producer down.
+ * A connection that starts with the HTTP/2 preface, or asks for Upgrade: h2c, is handed to an
+ * {@link Http2Connection} that runs on the loop thread from then on.
+ * The connection's single {@link ConnectionTimeouts.Deadline} follows it through the header-read,
+ * body-read, idle and write-stall phases; the timer wheel hands an expiry back to the loop.
+ * With TLS every read and write goes through a {@link TlsChannel}; a response only counts as written once
+ * its ciphertext has left, and decrypted bytes the session still holds are read without waiting for
+ * the selector. The handshake runs within the header-read deadline. HTTP/2 is reached through ALPN or the
+ * preface; Upgrade: h2c is cleartext only.
+ */
+class NioConnection implements FrameWriter {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final boolean LOG_REQUESTS = AppConfig.getBoolean("debug", false);
+    private static final long MAX_QUEUED_STREAM_BYTES =
+            AppConfig.getLong("server.streaming.max-queued-bytes", 256 * 1024);
+
+    private final IoLoop loop;
+    private final SocketChannel channel;
+    // Null for plaintext; otherwise the channel all reads and writes go through
+    private final TlsChannel tls;
+    private final GatheringByteChannel io;
+    private final String remoteAddress;
+    private final SelectionKey key;
+    private final HttpDispatcher dispatcher;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final Http2Settings http2Settings;
+    private final ConnectionTimeouts timeouts;
+    private final ConnectionTimeouts.Deadline deadline;
+    private final AdmissionController admission;
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+
+    // Streamed frames, the deque is only touched by the loop, the byte count is shared with the worker
+    private final ArrayDeque<ByteBuffer[]> streamFrames = new ArrayDeque<>();
+    private final ReentrantLock streamLock = new ReentrantLock();
+    private final Condition streamDrained = streamLock.newCondition();
+    private long queuedStreamBytes;
+
+    // Pooled, held only while it has unprocessed bytes or a request sliced from it is in flight
+    private PooledBuffer readPooled;
+    private ByteBuffer readBuffer;
+    private Http2Connection http2;
+    private EncodedResponse pendingResponse;
+    private boolean requestInBuffer;
+    private boolean keepAliveAfterWrite;
+    private boolean inFlight;
+    // A worker has the current request (which slices the read buffer) until its response comes back
+    private boolean workerRunning;
+    private volatile boolean closed;
+    private int requestsServed;
+
+    NioConnection(IoLoop loop, SocketChannel channel, SelectionKey key, HttpDispatcher dispatcher,
+                  KeepAlivePolicy keepAlivePolicy, Http2Settings http2Settings, ConnectionTimeouts timeouts,
+                  AdmissionController admission, TlsSettings tlsSettings) {
+        this.loop = loop;
+        this.channel = channel;
+        this.tls = tlsSettings != null ? new TlsChannel(channel, tlsSettings.newEngine(), tlsSettings) : null;
+        this.io = tls != null ? tls : channel;
+        this.key = key;
+        this.dispatcher = dispatcher;
+        this.keepAlivePolicy = keepAlivePolicy;
+        this.http2Settings = http2Settings;
+        this.timeouts = timeouts;
+        this.admission = admission;
+        this.remoteAddress = Acceptor.remoteAddress(channel);
+        this.deadline = timeouts.newDeadline(phase -> loop.execute(() -> onTimeout(phase)));
+        this.deadline.arm(ConnectionTimeouts.Phase.HEADER_READ);
+    }
+
+    /**
+     * A deadline ran out. Runs on the loop, so it is ignored when the connection moved on in the meantime.
+     */
+    private void onTimeout(ConnectionTimeouts.Phase phase) {
+        if (closed || deadline.phase() != null) {
+            return;
+        }
+        if (http2 != null && phase == ConnectionTimeouts.Phase.IDLE && http2.hasActiveStreams()) {
+            // Workers are still answering streams, the connection is not idle
+            deadline.arm(ConnectionTimeouts.Phase.IDLE);
+            return;
+        }
+        timeouts.countExpired(phase);
+        if (tls != null && !tls.isHandshakeComplete()) {
+            close();
+            return;
+        }
+        if (http2 == null && !inFlight
+                && (phase == ConnectionTimeouts.Phase.HEADER_READ || phase == ConnectionTimeouts.Phase.BODY_READ)) {
+            respond(dispatcher.errorResponse(408, "Request Timeout"));
+            return;
+        }
+        close();
+    }
+
+    void onReadable() throws IOException {
+        if (readPooled == null) {
+            setReadBuffer(BufferPool.getInstance().acquire(INITIAL_BUFFER_SIZE));
+        } else if (!readBuffer.hasRemaining()) {
+            try {
+                setReadBuffer(HttpRequestParser.expand(readPooled));
+            } catch (HttpParseException e) {
+                respond(dispatcher.errorResponse(e.getStatusCode(), e.getMessage()));
+                return;
+            }
+        }
+
+        int read = tls != null ? tls.read(readBuffer) : channel.read(readBuffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        if (tls != null && tls.wantsWrite()) {
+            // A handshake message is waiting for room in the socket
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+        if (http2 != null) {
+            if (streamFrames.isEmpty()) {
+                deadline.arm(ConnectionTimeouts.Phase.IDLE);
+            }
+            readBuffer.flip();
+            http2.onBytes(readBuffer);
+            if (closed) {
+                return; // The buffer went back to the pool with the connection
+            }
+            readBuffer.compact();
+            releaseReadBufferIfEmpty();
+            resumeBufferedInput();
+            return;
+        }
+        tryParseRequest();
+        resumeBufferedInput();
+    }
+
+    /**
+     * Decrypted bytes that did not fit the read buffer wait in the TLS session, where the selector does not
+     * see them: read them on the next turn of the loop as if the socket were readable.
+     */
+    private void resumeBufferedInput() {
+        if (tls == null || !tls.hasBufferedInput() || closed || (http2 == null && inFlight)) {
+            return;
+        }
+        loop.execute(() -> {
+            if (!closed && (http2 != null || !inFlight)) {
+                try {
+                    onReadable();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        });
+    }
+
+    private void setReadBuffer(PooledBuffer pooled) {
+        readPooled = pooled;
+        readBuffer = pooled.buffer();
+    }
+
+    private void releaseReadBuffer() {
+        if (readPooled != null) {
+            readPooled.release();
+            readPooled = null;
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * Give the read buffer back to the pool once it holds nothing, so idle connections hold no buffer.
+     * Only called with the buffer in write mode and no request sliced from it.
+     */
+    private void releaseReadBufferIfEmpty() {
+        if (readPooled != null && readBuffer.position() == 0) {
+            readPooled.release();
+            readPooled = null;
+            readBuffer = null;
+        }
+    }
+
+    void onWritable() throws IOException {
+        flush();
+    }
+
+    /**
+     * Parse the buffered bytes; dispatch once the head and the whole body have arrived.
+     * The read buffer is in write mode between reads. While a request is in flight it stays
+     * flipped (read mode) because the request slices it; it is compacted once the response is out.
+     */
+    private void tryParseRequest() {
+        if (inFlight || closed || readPooled == null) {
+            return;
+        }
+
+        readBuffer.flip();
+        if (requestsServed == 0 && http2Settings.isEnabled()) {
+            int preface = Http2Connection.matchPreface(readBuffer);
+            if (preface == Http2Connection.PREFACE_PARTIAL) {
+                readBuffer.compact();
+                return;
+            }
+            if (preface == Http2Connection.PREFACE_MATCH) {
+                startHttp2(null);
+                return;
+            }
+        }
+        HttpRequest request;
+        try {
+            request = parser.parse(readBuffer);
+        } catch (HttpParseException e) {
+            readBuffer.compact();
+            respond(dispatcher.errorResponse(e.getStatusCode(), e.getMessage()));
+            return;
+        }
+        if (request == null) {
+            readBuffer.compact();
+            releaseReadBufferIfEmpty();
+            if (parser.isReadingBody()) {
+                deadline.arm(ConnectionTimeouts.Phase.BODY_READ);
+            } else if (readBuffer != null) {
+                // The head deadline runs from the first byte of the request, not from the latest read
+                deadline.enter(ConnectionTimeouts.Phase.HEADER_READ);
+            }
+            return; // Need more bytes
+        }
+        deadline.disarm();
+
+        request.setRemoteAddress(remoteAddress);
+        if (tls == null && http2Settings.isEnabled() && Http2Connection.isUpgrade(request)) {
+            streamFrames.add(new ByteBuffer[]{Http2Connection.switchingProtocols()});
+            startHttp2(request);
+            return;
+        }
+
+        if (LOG_REQUESTS) {
+            System.out.println("📥 Request: " + request);
+        }
+
+        requestsServed++;
+        boolean keepAlive = keepAlivePolicy.keepAlive(request.getVersion(), request.getHeaders(), requestsServed);
+
+        // Stop reading while the worker runs, this also applies backpressure to pipelining clients
+        inFlight = true;
+        requestInBuffer = true;
+        key.interestOps(0);
+        // Over its limit the client is answered from the loop, without taking a worker
+        long retryAfter = dispatcher.rateLimit(request);
+        if (retryAfter > 0) {
+            respond(dispatcher.tooManyRequestsResponse(retryAfter, keepAlive));
+            return;
+        }
+        // A route on a bulkhead returns the worker at once; the response is written when its stage completes
+        Runnable work = () -> {
+            CompletionStage<EncodedResponse> response;
+            try {
+                response = dispatcher.dispatchAsync(request, keepAlive, this);
+            } catch (RuntimeException e) {
+                response = CompletableFuture.completedFuture(dispatcher.errorResponse(500, "Internal Server Error"));
+            }
+            response.whenComplete((encoded, error) -> {
+                EncodedResponse finalResponse = error == null
+                        ? encoded
+                        : dispatcher.errorResponse(500, "Internal Server Error");
+                loop.execute(() -> respond(finalResponse));
+            });
+        };
+        Runnable tooLate = () -> loop.execute(() -> respond(dispatcher.overloadedResponse(admission.getRetryAfterSeconds())));
+        workerRunning = true;
+        if (!admission.submit(work, tooLate)) {
+            respond(dispatcher.overloadedResponse(admission.getRetryAfterSeconds()));
+        }
+    }
+
+    /**
+     * Queue a frame of a streamed response. Called by the worker; blocks while too much is queued.
+     */
+    @Override
+    public void write(ByteBuffer[] frame) throws IOException {
+        long size = FrameWriter.remaining(frame);
+        streamLock.lock();
+        try {
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeouts.getTimeoutMs(ConnectionTimeouts.Phase.WRITE_STALL));
+            while (!closed && queuedStreamBytes > 0 && queuedStreamBytes + size > MAX_QUEUED_STREAM_BYTES) {
+                if (timeoutNanos <= 0) {
+                    throw new IOException("Client stopped reading");
+                }
+                timeoutNanos = streamDrained.awaitNanos(timeoutNanos);
+            }
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            queuedStreamBytes += size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while streaming", e);
+        } finally {
+            streamLock.unlock();
+        }
+
+        loop.execute(() -> {
+            if (closed) {
+                return;
+            }
+            streamFrames.add(frame);
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Switch the connection to HTTP/2. The read buffer is in read mode, positioned after the
+     * upgrade request if there is one.
+     */
+    private void startHttp2(HttpRequest upgrade) {
+        http2 = new Http2Connection(new Http2Transport() {
+            @Override
+            public void execute(Runnable task) {
+                loop.execute(task);
+            }
+
+            @Override
+            public void write(ByteBuffer[] frames) throws IOException {
+                streamFrames.add(frames);
+                flush();
+            }
+
+            @Override
+            public void close() {
+                NioConnection.this.close();
+            }
+
+            @Override
+            public String getRemoteAddress() {
+                return remoteAddress;
+            }
+        }, dispatcher, admission, http2Settings);
+
+        if (upgrade == null) {
+            http2.start();
+        } else {
+            http2.startUpgraded(upgrade);
+        }
+        deadline.arm(ConnectionTimeouts.Phase.IDLE);
+        http2.onBytes(readBuffer);
+        if (closed) {
+            return;
+        }
+        readBuffer.compact();
+        releaseReadBufferIfEmpty();
+        if (streamFrames.isEmpty()) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void streamWritten(long bytes) {
+        streamLock.lock();
+        try {
+            queuedStreamBytes -= bytes;
+            streamDrained.signalAll();
+        } finally {
+            streamLock.unlock();
+        }
+    }
+
+    /**
+     * Start writing a response; the connection is reused afterwards if the response says keep-alive.
+     */
+    private void respond(EncodedResponse response) {
+        workerRunning = false;
+        if (closed) {
+            response.release();
+            // The worker that was reading the request is done with the buffer
+            releaseReadBuffer();
+            return;
+        }
+        inFlight = true;
+        keepAliveAfterWrite = response.isKeepAlive();
+        pendingResponse = response;
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        // Streamed frames were queued before the end of the response, they go first
+        while (!streamFrames.isEmpty()) {
+            ByteBuffer[] frame = streamFrames.peek();
+            long written = io.write(frame);
+            if (written > 0 && http2 == null) {
+                streamWritten(written);
+            }
+            if (FrameWriter.remaining(frame) > 0) {
+                if (written > 0 || deadline.phase() != ConnectionTimeouts.Phase.WRITE_STALL) {
+                    deadline.arm(ConnectionTimeouts.Phase.WRITE_STALL);
+                }
+                // HTTP/2 keeps reading while it waits to write (WINDOW_UPDATE, new streams)
+                key.interestOps(http2 != null ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_WRITE);
+                return;
+            }
+            streamFrames.poll();
+        }
+        if (tls != null && !tls.flush()) {
+            // Everything is encrypted, the socket has not taken all of it yet
+            deadline.arm(ConnectionTimeouts.Phase.WRITE_STALL);
+            key.interestOps(http2 != null ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_WRITE);
+            return;
+        }
+        if (http2 != null) {
+            if (deadline.phase() == ConnectionTimeouts.Phase.WRITE_STALL) {
+                deadline.arm(ConnectionTimeouts.Phase.IDLE);
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+        if (pendingResponse == null) {
+            // Streaming in progress, nothing to read until the response is complete
+            if (inFlight) {
+                deadline.disarm();
+                key.interestOps(0);
+            } else if (tls != null) {
+                // Handshake output is out, back to reading
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            return;
+        }
+        boolean done = pendingResponse.writeTo(io) && (tls == null || tls.flush());
+        if (!done) {
+            // Later attempts only run once the socket is writable again, so each one made progress
+            deadline.arm(ConnectionTimeouts.Phase.WRITE_STALL);
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+
+        pendingResponse.release();
+        pendingResponse = null;
+        if (!keepAliveAfterWrite) {
+            close();
+            return;
+        }
+
+        // Response is out: drop the answered request and read the next one,
+        // it may already be buffered (pipelining)
+        if (requestInBuffer) {
+            readBuffer.compact();
+            requestInBuffer = false;
+            releaseReadBufferIfEmpty();
+        }
+        inFlight = false;
+        deadline.arm(ConnectionTimeouts.Phase.IDLE);
+        key.interestOps(SelectionKey.OP_READ);
+        tryParseRequest();
+        resumeBufferedInput();
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        if (http2 != null && !http2.isClosed()) {
+            // Says GOAWAY first, then closes the transport, which comes back here
+            http2.shutdown();
+            return;
+        }
+        closed = true;
+        deadline.cancel();
+        streamFrames.clear();
+        streamLock.lock();
+        try {
+            streamDrained.signalAll();
+        } finally {
+            streamLock.unlock();
+        }
+        if (pendingResponse != null) {
+            pendingResponse.release();
+            pendingResponse = null;
+        }
+        // While a worker still reads the request, the buffer is released when its response comes back
+        if (!workerRunning) {
+            releaseReadBuffer();
+        }
+        key.cancel();
+        try {
+            io.close();
+        } catch (IOException e) {
+            System.err.println("❗ Error closing socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.bitas.ecommerce.server.nio;
+
+import com.bitas.ecommerce.server.Acceptor;
+import com.bitas.ecommerce.server.AdmissionController;
+import com.bitas.ecommerce.server.ConnectionTimeouts;
+import com.bitas.ecommerce.server.HttpDispatcher;
+import com.bitas.ecommerce.server.KeepAlivePolicy;
+import com.bitas.ecommerce.server.h2.Http2Settings;
+import com.bitas.ecommerce.server.tls.TlsSettings;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Selector based HTTP engine.
+ * Each acceptor hands new connections round-robin to its own group of I/O loops. With more than one
+ * acceptor the listening sockets use SO_REUSEPORT (see {@link Acceptor}), so connection storms are spread
+ * over several accept threads and loop groups instead of one. The I/O loops read and
+ * parse requests without blocking, so an idle or slow client only costs a buffer, not a thread.
+ * Complete requests are handed to the workers through {@link AdmissionController} because routes
+ * may block on JDBC. With {@link TlsSettings} enabled the port speaks HTTPS, terminated on the I/O loops.
+ * An optional Unix domain socket listener has an acceptor of its own that spreads its connections over
+ * all the loops; it always speaks plaintext, its peers are local processes.
+ */
+public class NioHttpServer {
+    private final int port;
+    private final HttpDispatcher dispatcher;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final Http2Settings http2Settings;
+    private final ConnectionTimeouts timeouts;
+    private final AdmissionController admission;
+    private final TlsSettings tlsSettings;
+    private final Path unixSocket;
+    private final String unixSocketPermissions;
+    private final int acceptorCount;
+    private final IoLoop[] loops;
+
+    private volatile ServerSocketChannel[] serverChannels = new ServerSocketChannel[0];
+    private volatile List<Acceptor> acceptors = List.of();
+
+    /**
+     * @param port                  TCP port, -1 to listen on the Unix domain socket only
+     * @param acceptors             Number of TCP accept threads; the I/O loops are split evenly between them
+     * @param ioThreads             Number of I/O loops, raised to at least one per acceptor
+     * @param unixSocket            Socket file of the Unix domain listener, null for none
+     * @param unixSocketPermissions POSIX permissions of the socket file, empty for the umask's
+     */
+    public NioHttpServer(int port, int acceptors, int ioThreads, HttpDispatcher dispatcher,
+                         KeepAlivePolicy keepAlivePolicy, Http2Settings http2Settings,
+                         ConnectionTimeouts timeouts, AdmissionController admission, TlsSettings tlsSettings,
+                         Path unixSocket, String unixSocketPermissions) {
+        this.port = port;
+        this.dispatcher = dispatcher;
+        this.keepAlivePolicy = keepAlivePolicy;
+        this.http2Settings = http2Settings;
+        this.timeouts = timeouts;
+        this.admission = admission;
+        this.tlsSettings = tlsSettings;
+        this.unixSocket = unixSocket;
+        this.unixSocketPermissions = unixSocketPermissions;
+        this.acceptorCount = Math.max(1, acceptors);
+        this.loops = new IoLoop[Math.max(acceptorCount, ioThreads)];
+    }
+
+    /**
+     * Start the I/O loops and the acceptors, then block until {@link #stop()} is called.
+     */
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop("nio-io-" + i, dispatcher, keepAlivePolicy, http2Settings, timeouts, admission,
+                    tlsSettings);
+            loops[i].start();
+        }
+
+        ServerSocketChannel[] channels = port >= 0 ? Acceptor.open(port, acceptorCount) : new ServerSocketChannel[0];
+        serverChannels = channels;
+        if (port >= 0) {
+            System.out.println("Server is listening " + (tlsSettings.isEnabled() ? "https" : "http") + "://localhost:" + port
+                    + " (nio, " + acceptorCount + " acceptors, " + loops.length + " I/O loops)");
+        }
+        int tcpChannels = channels.length;
+        if (unixSocket != null) {
+            channels = Arrays.copyOf(channels, tcpChannels + 1);
+            channels[tcpChannels] = Acceptor.openUnix(unixSocket, unixSocketPermissions);
+            serverChannels = channels;
+            System.out.println("Server is listening on unix:" + unixSocket + " (nio, " + loops.length + " I/O loops)");
+        }
+
+        // Acceptor i owns loops i, i + N, i + 2N, ...; a connection stays on the cores of the group that accepted it
+        Acceptor[] started = new Acceptor[channels.length];
+        for (int i = 0; i < tcpChannels; i++) {
+            started[i] = new Acceptor(i, channels[i], new LoopGroup(i, acceptorCount, true));
+        }
+        if (unixSocket != null) {
+            started[tcpChannels] = new Acceptor(tcpChannels, channels[tcpChannels], new LoopGroup(0, 1, false));
+        }
+        acceptors = List.of(started);
+        for (Acceptor acceptor : started) {
+            acceptor.start();
+        }
+        try {
+            for (Acceptor acceptor : started) {
+                acceptor.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void stop() {
+        for (Acceptor acceptor : acceptors) {
+            acceptor.stop();
+        }
+        Acceptor.close(serverChannels);
+        for (IoLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Round-robin over the I/O loops owned by one acceptor. Only called from that acceptor's thread.
+     */
+    private class LoopGroup implements Consumer<SocketChannel> {
+        private final int first;
+        private final int step;
+        private final boolean tcp;
+        private int next;
+
+        /**
+         * @param first Index of the first loop
+         * @param step  Distance to the next loop of the group
+         * @param tcp   TCP connections (TLS when enabled), otherwise Unix domain ones (always plaintext)
+         */
+        LoopGroup(int first, int step, boolean tcp) {
+            this.first = first;
+            this.step = step;
+            this.tcp = tcp;
+            this.next = first;
+        }
+
+        @Override
+        public void accept(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                if (tcp) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+            } catch (IOException e) {
+                System.err.println("❗ Error configuring connection: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    System.err.println("❗ Error closing socket: " + ex.getMessage());
+                }
+                return;
+            }
+            loops[next].register(channel, tcp);
+            next += step;
+            if (next >= loops.length) {
+                next = first;
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.bitas.ecommerce.server.tls;
+
+import com.bitas.ecommerce.server.http.BufferPool;
+import com.bitas.ecommerce.server.http.PooledBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking socket seen through an {@link SSLEngine}: reads return decrypted bytes, writes take
+ * plaintext. The handshake is driven from inside read and write as its messages arrive, so a connection
+ * runs the same code with or without TLS, but a caller has to respect three differences:
+ * <ul>
+ *     <li>write may accept plaintext whose ciphertext has not reached the socket yet: a response is
+ *     only written once {@link #flush()} returns true</li>
+ *     <li>read may keep decrypted bytes that did not fit the destination; the socket will not signal them,
+ *     so while {@link #hasBufferedInput()} the caller reads again without waiting for the selector</li>
+ *     <li>a handshake step can have output blocked on a full socket while the caller only waits to read:
+ *     {@link #wantsWrite()}</li>
+ * </ul>
+ * Delegated tasks run inline, on the I/O loop. The three buffers (ciphertext in, ciphertext out, spill-over
+ * plaintext) come from the {@link BufferPool} and go back to it whenever they are empty, so an idle
+ * connection holds none.
+ */
+public class TlsChannel implements ByteChannel, GatheringByteChannel {
+    private static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final TlsSettings settings;
+    private final long handshakeStart = System.nanoTime();
+    private final long handshakeStartMillis = System.currentTimeMillis();
+
+    // All three in write mode: position is the end of the bytes they hold
+    private PooledBuffer netIn;
+    private PooledBuffer netOut;
+    private PooledBuffer appIn;
+    // The bytes in netIn are less than a record, only more from the socket helps
+    private boolean underflow;
+    private boolean handshakeComplete;
+    private boolean eof;
+    private boolean closed;
+
+    public TlsChannel(SocketChannel channel, SSLEngine engine, TlsSettings settings) {
+        this.channel = channel;
+        this.engine = engine;
+        this.settings = settings;
+    }
+
+    public boolean isHandshakeComplete() {
+        return handshakeComplete;
+    }
+
+    /**
+     * The protocol selected with ALPN, null before the handshake and "" when the client sent none.
+     */
+    public String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    /**
+     * Whether decrypted bytes, or whole records not yet decrypted, are waiting to be read.
+     */
+    public boolean hasBufferedInput() {
+        return (appIn != null && appIn.buffer().position() > 0)
+                || (netIn != null && netIn.buffer().position() > 0 && !underflow);
+    }
+
+    /**
+     * Whether ciphertext is waiting for the socket to become writable.
+     */
+    public boolean wantsWrite() {
+        return netOut != null;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        int start = dst.position();
+        drainAppIn(dst);
+        try {
+            while (dst.hasRemaining()) {
+                if (!runHandshakeTasks()) {
+                    break;
+                }
+                SSLEngineResult result = unwrap(dst);
+                if (result == null) {
+                    // Nothing left to decrypt, read more ciphertext
+                    if (eof || fill() <= 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    // close_notify from the peer: answer it, then report end of stream
+                    eof = true;
+                    engine.closeOutbound();
+                    runHandshakeTasks();
+                    flush();
+                    break;
+                }
+                if (result.bytesProduced() == 0 && result.bytesConsumed() == 0
+                        && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP
+                        && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    break;
+                }
+            }
+        } catch (SSLException e) {
+            failed();
+            throw e;
+        }
+        int read = dst.position() - start;
+        return read == 0 && eof && !hasBufferedInput() ? -1 : read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Encrypt as much plaintext as the socket takes, plus at most one buffer of ciphertext queued
+     * behind it.
+     *
+     * @return Plaintext bytes consumed
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (closed || engine.isOutboundDone()) {
+            throw new ClosedChannelException();
+        }
+        long consumed = 0;
+        try {
+            while (remaining(srcs, offset, length) > 0) {
+                if (!runHandshakeTasks()) {
+                    break;
+                }
+                SSLEngineResult result = wrap(srcs, offset, length);
+                if (result == null) {
+                    break;
+                }
+                consumed += result.bytesConsumed();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new ClosedChannelException();
+                }
+                if (result.bytesConsumed() == 0
+                        && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                    // The handshake is waiting for the peer, the data goes once it is done
+                    break;
+                }
+            }
+        } catch (SSLException e) {
+            failed();
+            throw e;
+        }
+        flush();
+        return consumed;
+    }
+
+    /**
+     * Write queued ciphertext.
+     *
+     * @return true once none is left
+     */
+    public boolean flush() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        ByteBuffer out = netOut.buffer();
+        out.flip();
+        try {
+            while (out.hasRemaining() && channel.write(out) > 0) {
+                // Keep writing while the socket takes bytes
+            }
+        } finally {
+            out.compact();
+        }
+        if (out.position() > 0) {
+            return false;
+        }
+        netOut.release();
+        netOut = null;
+        return true;
+    }
+
+    /**
+     * Send close_notify if the socket takes it right away, give the buffers back and close the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (handshakeComplete && !engine.isOutboundDone()) {
+                engine.closeOutbound();
+                wrap(EMPTY, 0, 1);
+                flush();
+            }
+        } catch (IOException e) {
+            // The peer may be gone already, closing anyway
+        } finally {
+            closed = true;
+            netIn = release(netIn);
+            netOut = release(netOut);
+            appIn = release(appIn);
+            channel.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * Run what the handshake needs that is not input from the peer: delegated tasks, and wraps of handshake
+     * messages (and TLS 1.3 session tickets).
+     *
+     * @return false when a handshake message could not be queued because the socket is full
+     */
+    private boolean runHandshakeTasks() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    SSLEngineResult result = wrap(EMPTY, 0, 1);
+                    if (result == null) {
+                        return false;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        flush();
+                        return true;
+                    }
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * @return The result, or null when the output buffer is full and the socket took none of it
+     */
+    private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        while (true) {
+            if (netOut == null) {
+                netOut = BufferPool.getInstance().acquire(engine.getSession().getPacketBufferSize());
+            }
+            SSLEngineResult result = engine.wrap(srcs, offset, length, netOut.buffer());
+            if (result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                handshakeStatus(result);
+                if (netOut.buffer().position() == 0) {
+                    netOut = release(netOut);
+                }
+                return result;
+            }
+            // A record needs room for a whole packet, push out what is queued first
+            if (netOut.buffer().position() == 0) {
+                throw new SSLException("Packet buffer too small for a TLS record");
+            }
+            if (!flush()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decrypt one record from netIn, into dst when it fits and into appIn otherwise.
+     *
+     * @return The result, or null when netIn holds no whole record
+     */
+    private SSLEngineResult unwrap(ByteBuffer dst) throws IOException {
+        if (netIn == null || netIn.buffer().position() == 0 || underflow) {
+            return null;
+        }
+        ByteBuffer in = netIn.buffer();
+        in.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(in, dst);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                if (appIn == null) {
+                    appIn = BufferPool.getInstance().acquire(engine.getSession().getApplicationBufferSize());
+                }
+                result = engine.unwrap(in, appIn.buffer());
+                drainAppIn(dst);
+            }
+        } finally {
+            in.compact();
+        }
+        if (in.position() == 0) {
+            netIn = release(netIn);
+        }
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+            underflow = true;
+            return null;
+        }
+        handshakeStatus(result);
+        return result;
+    }
+
+    /**
+     * Read ciphertext from the socket into netIn, growing it when a record does not fit.
+     *
+     * @return Bytes read, -1 at end of stream
+     */
+    private int fill() throws IOException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        if (netIn == null) {
+            netIn = BufferPool.getInstance().acquire(packetSize);
+        } else if (netIn.buffer().remaining() < packetSize && netIn.capacity() < 2 * packetSize) {
+            PooledBuffer larger = BufferPool.getInstance().acquire(2 * packetSize);
+            ByteBuffer old = netIn.buffer();
+            old.flip();
+            larger.buffer().put(old);
+            netIn.release();
+            netIn = larger;
+        }
+        int read = channel.read(netIn.buffer());
+        if (read < 0) {
+            eof = true;
+            try {
+                engine.closeInbound();
+            } catch (SSLException e) {
+                // No close_notify, the peer just went away
+            }
+        } else if (read > 0) {
+            underflow = false;
+        }
+        if (netIn.buffer().position() == 0) {
+            netIn = release(netIn);
+        }
+        return read;
+    }
+
+    private void drainAppIn(ByteBuffer dst) {
+        if (appIn == null) {
+            return;
+        }
+        ByteBuffer buffered = appIn.buffer();
+        buffered.flip();
+        int count = Math.min(buffered.remaining(), dst.remaining());
+        dst.put(buffered.slice(buffered.position(), count));
+        buffered.position(buffered.position() + count);
+        buffered.compact();
+        if (buffered.position() == 0) {
+            appIn = release(appIn);
+        }
+    }
+
+    private void handshakeStatus(SSLEngineResult result) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED && !handshakeComplete) {
+            handshakeComplete = true;
+            // A resumed session was created by an earlier handshake
+            boolean resumed = engine.getSession().getCreationTime() < handshakeStartMillis;
+            settings.handshakeCompleted(resumed, System.nanoTime() - handshakeStart);
+        }
+    }
+
+    private void failed() {
+        if (!handshakeComplete) {
+            settings.handshakeFailed();
+        }
+    }
+
+    private static long remaining(ByteBuffer[] buffers, int offset, int length) {
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += buffers[i].remaining();
+        }
+        return remaining;
+    }
+
+    private static PooledBuffer release(PooledBuffer buffer) {
+        if (buffer != null) {
+            buffer.release();
+        }
+        return null;
+    }
+}
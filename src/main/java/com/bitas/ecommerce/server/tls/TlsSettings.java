@@ -0,0 +1,182 @@
+package com.bitas.ecommerce.server.tls;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Histogram;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTPS for the NIO engine, read from application.properties: server.tls.enabled, .keystore,
+ * .keystore-type, .keystore-password, .key-password, .protocols, .session-cache-size,
+ * .session-timeout-seconds, .session-tickets and .self-signed.
+ * <p>
+ * A resumed handshake skips the certificate and its signature, the expensive part of a full one.
+ * TLS 1.2 clients resume by session id from the server's session cache; TLS 1.3 clients present a
+ * ticket. With session tickets on, the ticket carries the session state encrypted under a server key, so
+ * resumption does not depend on the cache; with them off it names a cache entry.
+ * ALPN offers h2 when HTTP/2 is enabled, then http/1.1.
+ * <p>
+ * With .self-signed, a missing keystore is generated with keytool (an EC key for localhost), for
+ * development and for {@link com.bitas.ecommerce.benchmark.TlsHandshakeBenchmark}.
+ */
+public class TlsSettings {
+    public static final String H2 = "h2";
+    public static final String HTTP_1_1 = "http/1.1";
+
+    private final SSLContext context;
+    private final String[] protocols;
+    private final boolean http2;
+
+    private final LongAdder fullHandshakes;
+    private final LongAdder resumedHandshakes;
+    private final LongAdder failedHandshakes;
+    private final Histogram fullHandshakeTime;
+    private final Histogram resumedHandshakeTime;
+
+    /**
+     * @param context   Server context, null to disable TLS
+     * @param protocols Enabled protocol versions
+     * @param http2     Whether ALPN may select h2
+     */
+    public TlsSettings(SSLContext context, String[] protocols, boolean http2) {
+        this.context = context;
+        this.protocols = protocols;
+        this.http2 = http2;
+
+        Metrics metrics = Metrics.getInstance();
+        this.fullHandshakes = metrics.counter("tls.handshakes.full");
+        this.resumedHandshakes = metrics.counter("tls.handshakes.resumed");
+        this.failedHandshakes = metrics.counter("tls.handshakes.failed");
+        this.fullHandshakeTime = metrics.histogram("tls.handshake.full");
+        this.resumedHandshakeTime = metrics.histogram("tls.handshake.resumed");
+    }
+
+    public static TlsSettings fromConfig(boolean http2Enabled) {
+        String[] protocols = AppConfig.get("server.tls.protocols", "TLSv1.3,TLSv1.2").split("\\s*,\\s*");
+        if (!AppConfig.getBoolean("server.tls.enabled", false)) {
+            return new TlsSettings(null, protocols, http2Enabled);
+        }
+        // Read by the JSSE provider when it loads, so before the first SSLContext
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension",
+                String.valueOf(AppConfig.getBoolean("server.tls.session-tickets", true)));
+
+        Path keystore = Paths.get(AppConfig.get("server.tls.keystore", "config/keystore.p12"));
+        String type = AppConfig.get("server.tls.keystore-type", "PKCS12");
+        char[] password = AppConfig.get("server.tls.keystore-password", "changeit").toCharArray();
+        String keyPassword = AppConfig.get("server.tls.key-password", "");
+        try {
+            if (!Files.exists(keystore) && AppConfig.getBoolean("server.tls.self-signed", false)) {
+                generateSelfSigned(keystore, type, password);
+            }
+            SSLContext context = createContext(keystore, type, password,
+                    keyPassword.isEmpty() ? password : keyPassword.toCharArray());
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(AppConfig.getInt("server.tls.session-cache-size", 20_000));
+            sessions.setSessionTimeout(AppConfig.getInt("server.tls.session-timeout-seconds", 24 * 3600));
+            return new TlsSettings(context, protocols, http2Enabled);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot load TLS keystore " + keystore + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A server context with the key of the keystore and the default trust managers (no client certificates).
+     */
+    public static SSLContext createContext(Path keystore, String type, char[] password, char[] keyPassword)
+            throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(type);
+        try (InputStream in = Files.newInputStream(keystore)) {
+            store.load(in, password);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(store, keyPassword);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * Create a keystore holding a self-signed certificate for localhost, with the keytool of the running JDK.
+     */
+    public static void generateSelfSigned(Path keystore, String type, char[] password) throws IOException {
+        Path parent = keystore.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server",
+                "-keyalg", "EC", "-groupname", "secp256r1", "-validity", "365",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-keystore", keystore.toString(), "-storetype", type,
+                "-storepass", new String(password), "-keypass", new String(password))
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        try {
+            if (!process.waitFor(30, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("keytool failed: " + output.trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running keytool", e);
+        }
+        System.out.println("🔐 Generated self-signed certificate for localhost in " + keystore);
+    }
+
+    public boolean isEnabled() {
+        return context != null;
+    }
+
+    /**
+     * A server-side engine for one connection, with the protocol versions and ALPN configured.
+     */
+    public SSLEngine newEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(protocols);
+        parameters.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(parameters);
+        engine.setHandshakeApplicationProtocolSelector((e, offered) -> selectProtocol(offered));
+        return engine;
+    }
+
+    /**
+     * @return The protocol to speak, or "" to go on without ALPN when the client offers neither
+     */
+    private String selectProtocol(List<String> offered) {
+        if (http2 && offered.contains(H2)) {
+            return H2;
+        }
+        return offered.contains(HTTP_1_1) ? HTTP_1_1 : "";
+    }
+
+    void handshakeCompleted(boolean resumed, long nanos) {
+        if (resumed) {
+            resumedHandshakes.increment();
+            resumedHandshakeTime.recordNanos(nanos);
+        } else {
+            fullHandshakes.increment();
+            fullHandshakeTime.recordNanos(nanos);
+        }
+    }
+
+    void handshakeFailed() {
+        failedHandshakes.increment();
+    }
+}
@@ -0,0 +1,307 @@
+package com.bitas.ecommerce.service;
+
+import com.bitas.ecommerce.model.Product;
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.JsonUtil;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Changes to products, published by {@link ProductService} once a write has gone through and pushed to
+ * the subscribers of the Server-Sent Events stream.
+ * <p>
+ * Every subscriber has a bounded queue (server.sse.queue-size). Publishing only offers to the queues, it
+ * never waits for a subscriber: one whose queue is full is marked overflowed and its stream ends, and
+ * the client reconnects with Last-Event-ID. The last events (server.sse.replay-size) are kept in a ring
+ * to replay from; a client whose last event is no longer there, or came from an earlier run of the
+ * server, is told to reload instead.
+ * <p>
+ * Event ids start from the boot time in microseconds, so they keep increasing across restarts.
+ */
+public final class ProductChangeFeed {
+    public static final String STOCK = "stock";
+    public static final String PRICE = "price";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+
+    private static ProductChangeFeed instance;
+
+    private final int queueSize;
+    private final int maxSubscribers;
+    private final Event[] replay;
+    private final long firstId = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private final Set<Subscription> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Guarded by this: the ring, the last id, and registration against the ring
+    private long lastId = firstId - 1;
+
+    private final LongAdder published;
+    private final LongAdder delivered;
+    private final LongAdder overflows;
+    private final LongAdder refused;
+
+    private ProductChangeFeed(int replaySize, int queueSize, int maxSubscribers) {
+        this.replay = new Event[Math.max(1, replaySize)];
+        this.queueSize = Math.max(1, queueSize);
+        this.maxSubscribers = maxSubscribers;
+
+        Metrics metrics = Metrics.getInstance();
+        this.published = metrics.counter("sse.events.published");
+        this.delivered = metrics.counter("sse.events.delivered");
+        this.overflows = metrics.counter("sse.subscribers.overflowed");
+        this.refused = metrics.counter("sse.subscribers.refused");
+        metrics.gauge("sse.subscribers", subscribers::size);
+    }
+
+    public static synchronized ProductChangeFeed getInstance() {
+        if (instance == null) {
+            instance = new ProductChangeFeed(AppConfig.getInt("server.sse.replay-size", 1000),
+                    AppConfig.getInt("server.sse.queue-size", 256),
+                    AppConfig.getInt("server.sse.max-subscribers", 1000));
+        }
+        return instance;
+    }
+
+    /**
+     * Whether anybody listens; lets publishers skip work done only for the event.
+     */
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Publish a change to a product that still exists.
+     *
+     * @param type             {@link #STOCK}, {@link #PRICE} or {@link #UPDATED}
+     * @param product          The product as written
+     * @param previousCategory Category before the write when it changed, so its subscribers see the product
+     *                         leave; may be null
+     */
+    public void publish(String type, Product product, String previousCategory) {
+        publish(type, product.getId(), product.getCategory(), previousCategory,
+                JsonUtil.getInstance().toJson(product));
+    }
+
+    /**
+     * Publish the deletion of a product.
+     *
+     * @param category Its category, null when unknown (only subscribers without a category filter, or
+     *                 following the id, see it then)
+     */
+    public void publishDeleted(Long id, String category) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("id", id);
+        data.put("category", category);
+        publish(DELETED, id, category, null, JsonUtil.getInstance().toJson(data));
+    }
+
+    private synchronized void publish(String type, Long productId, String category, String previousCategory,
+                                      String data) {
+        Event event = new Event(++lastId, type, productId, category, previousCategory, data);
+        replay[(int) (event.id % replay.length)] = event;
+        published.increment();
+        for (Subscription subscription : subscribers) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Register a subscriber.
+     *
+     * @param filter      Which events it gets
+     * @param lastEventId Last-Event-ID sent by a reconnecting client, null for live events only
+     * @return The subscription, or null when {@link #maxSubscribers} are already connected
+     */
+    public synchronized Subscription subscribe(Filter filter, String lastEventId) {
+        if (subscribers.size() >= maxSubscribers) {
+            refused.increment();
+            return null;
+        }
+        Subscription subscription = new Subscription(filter, queueSize);
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            List<Event> missed = since(lastEventId.trim());
+            if (missed == null) {
+                subscription.reset = true;
+                subscription.resetId = lastId;
+            } else {
+                // The replay goes past the queue bound: it is written before any live event is taken
+                subscription.replay = missed;
+            }
+        }
+        subscribers.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Events after the given id that the ring still holds, oldest first.
+     *
+     * @return The events, or null when some of them were already overwritten or the id is unknown
+     */
+    private List<Event> since(String lastEventId) {
+        long after;
+        try {
+            after = Long.parseLong(lastEventId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        long oldest = Math.max(firstId, lastId - replay.length + 1);
+        if (after < oldest - 1 || after > lastId) {
+            return null;
+        }
+        List<Event> events = new ArrayList<>((int) (lastId - after));
+        for (long id = after + 1; id <= lastId; id++) {
+            events.add(replay[(int) (id % replay.length)]);
+        }
+        return events;
+    }
+
+    /**
+     * A published change. The data is serialized once and shared by all subscribers.
+     */
+    public static final class Event {
+        private final long id;
+        private final String type;
+        private final Long productId;
+        private final String category;
+        private final String previousCategory;
+        private final String data;
+
+        Event(long id, String type, Long productId, String category, String previousCategory, String data) {
+            this.id = id;
+            this.type = type;
+            this.productId = productId;
+            this.category = category;
+            this.previousCategory = previousCategory;
+            this.data = data;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getData() {
+            return data;
+        }
+    }
+
+    /**
+     * What a subscriber follows: some product ids, some categories, or everything when both are empty.
+     * An event matches when either its product or its category (before or after the change) is followed.
+     */
+    public static final class Filter {
+        private final Set<Long> productIds;
+        private final Set<String> categories;
+
+        public Filter(Set<Long> productIds, Set<String> categories) {
+            this.productIds = productIds;
+            this.categories = categories;
+        }
+
+        boolean matches(Event event) {
+            if (productIds.isEmpty() && categories.isEmpty()) {
+                return true;
+            }
+            return productIds.contains(event.productId)
+                    || (event.category != null && categories.contains(event.category))
+                    || (event.previousCategory != null && categories.contains(event.previousCategory));
+        }
+    }
+
+    /**
+     * One connected client. Filled by publishers, drained by the thread writing its stream.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Filter filter;
+        private final BlockingQueue<Event> queue;
+        private List<Event> replay = List.of();
+        private boolean reset;
+        private long resetId;
+        private volatile boolean overflowed;
+
+        Subscription(Filter filter, int queueSize) {
+            this.filter = filter;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        /**
+         * Whether the client's last event was lost (or unknown) and it has to reload what it shows.
+         */
+        public boolean needsReset() {
+            return reset;
+        }
+
+        /**
+         * Id for the reset event: the last one published when the client subscribed, where it resumes from.
+         */
+        public long getResetId() {
+            return resetId;
+        }
+
+        /**
+         * Missed events to send before the live ones, already filtered.
+         */
+        public List<Event> replay() {
+            List<Event> matching = new ArrayList<>();
+            for (Event event : replay) {
+                if (filter.matches(event)) {
+                    matching.add(event);
+                }
+            }
+            return matching;
+        }
+
+        /**
+         * Wait for the next live event.
+         *
+         * @return The event, or null when none came within the timeout or the subscriber overflowed
+         */
+        public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+            if (overflowed) {
+                return null;
+            }
+            Event event = queue.poll(timeout, unit);
+            if (event != null) {
+                delivered.increment();
+            }
+            return event;
+        }
+
+        /**
+         * Whether events were dropped because the client did not keep up; its stream has to end.
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        void offer(Event event) {
+            if (overflowed || !filter.matches(event)) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                overflowed = true;
+                overflows.increment();
+                // Nothing more is read from it, let the events go
+                queue.clear();
+            }
+        }
+
+        @Override
+        public void close() {
+            subscribers.remove(this);
+        }
+    }
+}
@@ -1,19 +1,25 @@
 package com.bitas.ecommerce.service;
 
+import com.bitas.ecommerce.functional.RowHandler;
 import com.bitas.ecommerce.model.Product;
 import com.bitas.ecommerce.repository.ProductRepository;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 /**
  * Service class for Product entity.
  * Contains business logic for product operations.
+ * Successful writes are published to the {@link ProductChangeFeed}.
  */
 public class ProductService {
     private final ProductRepository productRepository;
+    private final ProductChangeFeed changeFeed = ProductChangeFeed.getInstance();
 
     /**
      * Constructor with ProductRepository dependency
@@ -51,6 +57,34 @@ public class ProductService {
         return productRepository.findAll();
     }
 
+    /**
+     * Version of the whole catalog, changes with every insert, update and delete
+     *
+     * @return Version string, empty when it cannot be read
+     */
+    public Optional<String> getCatalogVersion() {
+        return productRepository.findVersion(null);
+    }
+
+    /**
+     * Version of the products in one category
+     *
+     * @param category Category
+     * @return Version string, empty when it cannot be read
+     */
+    public Optional<String> getCategoryVersion(String category) {
+        return productRepository.findVersion(category);
+    }
+
+    /**
+     * Visit all products one at a time, for streaming responses
+     *
+     * @param handler Called for every product
+     */
+    public void forEachProduct(RowHandler<Product> handler) throws SQLException, IOException {
+        productRepository.forEach(handler);
+    }
+
     /**
      * Create a new product
      *
@@ -99,7 +133,11 @@ public class ProductService {
 
         // Set ID and save
         product.setId(id);
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        String previousCategory = existingProduct.get().getCategory();
+        changeFeed.publish(ProductChangeFeed.UPDATED, saved,
+                Objects.equals(previousCategory, saved.getCategory()) ? null : previousCategory);
+        return saved;
     }
 
     /**
@@ -109,7 +147,15 @@ public class ProductService {
      * @return true if deleted, false otherwise
      */
     public boolean deleteProduct(Long id) {
-        return productRepository.deleteById(id);
+        // Subscribers following a category need it, only worth a read when somebody listens
+        String category = changeFeed.hasSubscribers()
+                ? productRepository.findById(id).map(Product::getCategory).orElse(null)
+                : null;
+        boolean deleted = productRepository.deleteById(id);
+        if (deleted) {
+            changeFeed.publishDeleted(id, category);
+        }
+        return deleted;
     }
 
     /**
@@ -133,7 +179,9 @@ public class ProductService {
         product.setStockQuantity(quantity);
         product.setUpdatedAt(LocalDateTime.now());
 
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        changeFeed.publish(ProductChangeFeed.STOCK, saved, null);
+        return saved;
     }
 
     /**
@@ -157,7 +205,9 @@ public class ProductService {
         product.setPrice(price);
         product.setUpdatedAt(LocalDateTime.now());
 
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        changeFeed.publish(ProductChangeFeed.PRICE, saved, null);
+        return saved;
     }
 
     /**
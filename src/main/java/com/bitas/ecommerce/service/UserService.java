@@ -1,10 +1,13 @@
 package com.bitas.ecommerce.service;
 
+import com.bitas.ecommerce.functional.RowHandler;
 import com.bitas.ecommerce.model.User;
 import com.bitas.ecommerce.repository.UserRepository;
 
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
 
@@ -51,6 +54,15 @@ public class UserService {
         return userRepository.findAll();
     }
     
+    /**
+     * Visit all users one at a time, for streaming responses
+     *
+     * @param handler Called for every user
+     */
+    public void forEachUser(RowHandler<User> handler) throws SQLException, IOException {
+        userRepository.forEach(handler);
+    }
+
     /**
      * Create a new user with hashed password
      *
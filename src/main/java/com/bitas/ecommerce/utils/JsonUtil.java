@@ -87,6 +87,24 @@ public class JsonUtil {
         }
     }
 
+    /**
+     * Convert a JSON array to a list, typed unlike fromJson(json, List.class)
+     *
+     * @param json JSON string
+     * @return Elements as Maps, Lists, Strings, numbers, Booleans or nulls; null for an empty string
+     */
+    public List<Object> fromJsonArray(String json) {
+        if (json == null || json.trim().isEmpty()) {
+            return null;
+        }
+
+        try {
+            return parseJsonArray(json);
+        } catch (Exception e) {
+            throw new RuntimeException("Error parsing JSON: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Convert a Map to a JSON string
      * 
@@ -192,6 +210,16 @@ public class JsonUtil {
         mapToJson(map, sb);
     }
 
+    /**
+     * Quote a String as a JSON string literal, for JSON assembled by hand
+     *
+     * @param value String to quote, null gives null
+     * @return JSON string literal
+     */
+    public String quote(String value) {
+        return value == null ? "null" : '"' + escapeJson(value) + '"';
+    }
+
     /**
      * Escape special characters in a JSON string
      * 
@@ -0,0 +1,170 @@
+package com.bitas.ecommerce.utils.database;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Histogram;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A route group's own threads and its reserved share of the {@link ConnectionPool}, so a burst on one
+ * group (a login storm) cannot take the workers or the connections another group (catalog reads) needs.
+ * Configured with server.bulkheads.&lt;name&gt;.threads, .queue-size and .connections.
+ * <p>
+ * Work queued beyond the group's queue is refused with RejectedExecutionException (503). Its DB work
+ * borrows connections against the group's share: up to the share it only waits for the group's own
+ * connections to come back, beyond it only connections that no other group has reserved are lent.
+ * Code outside any group takes any free connection.
+ * <p>
+ * Published per group as bulkhead.&lt;name&gt;.active, .queued, .utilization_percent and
+ * .connections.in_use (gauges), .rejected and .connections.waits (counters), .time_in_queue and
+ * .connections.wait_time (histograms).
+ */
+public final class Bulkhead {
+    private static final Map<String, Bulkhead> BULKHEADS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Bulkhead> CURRENT = new ThreadLocal<>();
+
+    private final String name;
+    private final int threads;
+    private final int connectionShare;
+    private final ThreadPoolExecutor pool;
+
+    // Written under the ConnectionPool lock, volatile for the gauge
+    private volatile int connectionsInUse;
+
+    private final LongAdder rejected;
+    private final LongAdder connectionWaits;
+    private final Histogram timeInQueue;
+    private final Histogram connectionWaitTime;
+
+    private Bulkhead(String name, int threads, int queueSize, int connectionShare) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+        this.connectionShare = Math.max(0, connectionShare);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), task -> {
+                    Thread thread = new Thread(task, "bulkhead-" + name + "-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Metrics metrics = Metrics.getInstance();
+        String prefix = "bulkhead." + name + ".";
+        this.rejected = metrics.counter(prefix + "rejected");
+        this.connectionWaits = metrics.counter(prefix + "connections.waits");
+        this.timeInQueue = metrics.histogram(prefix + "time_in_queue");
+        this.connectionWaitTime = metrics.histogram(prefix + "connections.wait_time");
+        metrics.gauge(prefix + "active", pool::getActiveCount);
+        metrics.gauge(prefix + "queued", () -> pool.getQueue().size());
+        metrics.gauge(prefix + "utilization_percent", () -> pool.getActiveCount() * 100 / this.threads);
+        metrics.gauge(prefix + "connections.in_use", () -> connectionsInUse);
+    }
+
+    /**
+     * The bulkhead of a route group, created from its configuration the first time it is asked for.
+     */
+    public static Bulkhead of(String name) {
+        return BULKHEADS.computeIfAbsent(name, key -> {
+            String prefix = "server.bulkheads." + key + ".";
+            int connections = AppConfig.getInt(prefix + "connections", 1);
+            Bulkhead bulkhead = new Bulkhead(key, AppConfig.getInt(prefix + "threads", Math.max(2, connections * 2)),
+                    AppConfig.getInt(prefix + "queue-size", 200), connections);
+            int reserved = bulkhead.connectionShare;
+            for (Bulkhead other : BULKHEADS.values()) {
+                reserved += other.connectionShare;
+            }
+            if (reserved > ConnectionPool.POOL_SIZE) {
+                System.err.println("❗ Bulkheads reserve " + reserved + " connections, the pool has "
+                        + ConnectionPool.POOL_SIZE + "; the last ones only get what is left");
+            }
+            return bulkhead;
+        });
+    }
+
+    static Collection<Bulkhead> all() {
+        return BULKHEADS.values();
+    }
+
+    /**
+     * @return The bulkhead whose thread this is, null outside any
+     */
+    public static Bulkhead current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Run the work on this group's threads, under the {@link RequestDeadline} of the calling thread.
+     *
+     * @return Stage completed with the work's result, or exceptionally when it threw or was refused
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> work) {
+        Supplier<T> withDeadline = RequestDeadline.propagate(work);
+        long enqueuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                timeInQueue.recordNanos(System.nanoTime() - enqueuedAt);
+                CURRENT.set(this);
+                try {
+                    return withDeadline.get();
+                } finally {
+                    CURRENT.remove();
+                }
+            }, pool);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether the group may take one of the free connections now: within its share, or beyond it when
+     * the free connections cover what the other groups have reserved and not taken. Called under the
+     * pool lock.
+     */
+    boolean mayBorrow(int free) {
+        if (connectionsInUse < connectionShare) {
+            return true;
+        }
+        int unmet = 0;
+        for (Bulkhead other : all()) {
+            if (other != this) {
+                unmet += Math.max(0, other.connectionShare - other.connectionsInUse);
+            }
+        }
+        return free > unmet;
+    }
+
+    /**
+     * Called under the pool lock.
+     */
+    void connectionTaken() {
+        connectionsInUse++;
+    }
+
+    /**
+     * Called under the pool lock.
+     */
+    void connectionReturned() {
+        connectionsInUse--;
+    }
+
+    void recordConnectionWait(long nanos) {
+        connectionWaits.increment();
+        connectionWaitTime.recordNanos(nanos);
+    }
+}
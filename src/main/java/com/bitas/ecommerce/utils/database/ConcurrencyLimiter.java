@@ -0,0 +1,223 @@
+package com.bitas.ecommerce.utils.database;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit on the requests in flight on a group of DB-bound routes (gradient algorithm, like TCP Vegas).
+ * Without it a slow database shows up as requests waiting ten seconds each for one of the
+ * {@link ConnectionPool#POOL_SIZE} connections until every worker is stuck; with it the requests beyond
+ * the limit are refused at once with 503 and the rest keep the latency the database can deliver.
+ * Each route group has a limiter of its own, so slow logins lower the limit of the auth routes only.
+ * <p>
+ * Configured with db.limiter.* and per group with db.limiter.&lt;name&gt;.*, which takes precedence.
+ * Latencies are averaged over windows of at least db.limiter.window-ms and db.limiter.window-samples.
+ * The baseline is the lowest window average, the latency the database has without a queue; it creeps
+ * up towards the windows by 0.2% each, so a lasting change in query cost is taken in over a few minutes.
+ * At the end of a window:
+ * <pre>
+ *   gradient  = clamp(0.5, 1, tolerance * baseline / window average)
+ *   new limit = limit * gradient + sqrt(limit)
+ * </pre>
+ * At the baseline the gradient is 1 and the limit grows by its square root, which probes upward when the
+ * database recovers; latency above baseline * tolerance shrinks it. Failed work (connection timeouts,
+ * SQL errors, 5xx answers) cuts the limit by 10% and is not a latency sample. The limit only grows
+ * in windows where the in-flight count came close to it, so an idle server does not inflate it.
+ * <p>
+ * Published per group as db.limiter.&lt;name&gt;.limit, .in_flight and .baseline_ms (gauges), .rejected,
+ * .dropped and .abandoned.
+ */
+public final class ConcurrencyLimiter {
+    private static final double BACKOFF = 0.9;
+    private static final double BASELINE_DRIFT = 0.002;
+
+    private static final Map<String, ConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final long windowNanos;
+    private final int windowSamples;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // Guarded by this: the current window and the state updated at its end
+    private double estimatedLimit;
+    private double baselineNanos;
+    private long windowStart = System.nanoTime();
+    private long windowSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+
+    private final LongAdder rejected;
+    private final LongAdder dropped;
+    private final LongAdder abandoned;
+
+    private ConcurrencyLimiter(String name, boolean enabled, int initialLimit, int minLimit, int maxLimit,
+                               double tolerance, double smoothing, long windowMs, int windowSamples) {
+        this.enabled = enabled;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.windowSamples = Math.max(1, windowSamples);
+        this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+
+        Metrics metrics = Metrics.getInstance();
+        String prefix = "db.limiter." + name + ".";
+        this.rejected = metrics.counter(prefix + "rejected");
+        this.dropped = metrics.counter(prefix + "dropped");
+        this.abandoned = metrics.counter(prefix + "abandoned");
+        metrics.gauge(prefix + "limit", () -> limit);
+        metrics.gauge(prefix + "in_flight", inFlight::get);
+        metrics.gauge(prefix + "baseline_ms", this::getBaselineMs);
+    }
+
+    /**
+     * The limiter of a route group, created from its configuration the first time it is asked for.
+     */
+    public static ConcurrencyLimiter of(String name) {
+        return LIMITERS.computeIfAbsent(name, key -> {
+            String prefix = "db.limiter." + key + ".";
+            return new ConcurrencyLimiter(key,
+                    AppConfig.getBoolean(prefix + "enabled", AppConfig.getBoolean("db.limiter.enabled", true)),
+                    AppConfig.getInt(prefix + "initial-limit",
+                            AppConfig.getInt("db.limiter.initial-limit", ConnectionPool.POOL_SIZE * 2)),
+                    AppConfig.getInt(prefix + "min-limit", AppConfig.getInt("db.limiter.min-limit", 2)),
+                    AppConfig.getInt(prefix + "max-limit", AppConfig.getInt("db.limiter.max-limit", 100)),
+                    Double.parseDouble(AppConfig.get(prefix + "tolerance", AppConfig.get("db.limiter.tolerance", "1.5"))),
+                    Double.parseDouble(AppConfig.get(prefix + "smoothing", AppConfig.get("db.limiter.smoothing", "0.2"))),
+                    AppConfig.getLong(prefix + "window-ms", AppConfig.getLong("db.limiter.window-ms", 100)),
+                    AppConfig.getInt(prefix + "window-samples", AppConfig.getInt("db.limiter.window-samples", 10)));
+        });
+    }
+
+    /**
+     * Take a slot without waiting.
+     *
+     * @return The permit to settle when the work is done, or null when the limit is reached
+     */
+    public Permit tryAcquire() {
+        if (!enabled) {
+            return new Permit(System.nanoTime(), false);
+        }
+        int current = inFlight.incrementAndGet();
+        if (current > limit) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return null;
+        }
+        return new Permit(System.nanoTime(), true);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    private synchronized double getBaselineMs() {
+        return baselineNanos / 1e6;
+    }
+
+    private synchronized void onSample(long now, long rttNanos, int inFlightAtStart, boolean failed) {
+        if (failed) {
+            windowDropped = true;
+        } else {
+            windowSum += rttNanos;
+            windowCount++;
+        }
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtStart);
+        if (now - windowStart < windowNanos || (windowCount < windowSamples && !windowDropped)) {
+            return;
+        }
+
+        double next;
+        if (windowDropped) {
+            next = estimatedLimit * BACKOFF;
+        } else {
+            double shortNanos = (double) windowSum / windowCount;
+            if (baselineNanos == 0 || shortNanos < baselineNanos) {
+                baselineNanos = shortNanos;
+            } else {
+                // Creep up slowly, so queries that became slower for good end up as the new baseline
+                baselineNanos += (shortNanos - baselineNanos) * BASELINE_DRIFT;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineNanos / shortNanos));
+            next = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            if (next > estimatedLimit && windowMaxInFlight < estimatedLimit / 2) {
+                // Not enough demand to tell whether a higher limit would hold
+                next = estimatedLimit;
+            }
+            next = estimatedLimit * (1 - smoothing) + next * smoothing;
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, next));
+        limit = (int) estimatedLimit;
+
+        windowStart = now;
+        windowSum = 0;
+        windowCount = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+
+    /**
+     * A slot taken by one request, to be settled exactly once.
+     */
+    public final class Permit {
+        private final long start;
+        private final boolean counted;
+        private final int inFlightAtStart;
+
+        Permit(long start, boolean counted) {
+            this.start = start;
+            this.counted = counted;
+            this.inFlightAtStart = counted ? inFlight.get() : 0;
+        }
+
+        /**
+         * The work finished; its latency is a sample.
+         */
+        public void success() {
+            release(false);
+        }
+
+        /**
+         * The work failed or timed out; the limit backs off.
+         */
+        public void dropped() {
+            dropped.increment();
+            release(true);
+        }
+
+        /**
+         * The work ended for a reason that says nothing about the database (the request's deadline passed,
+         * the client went away): the slot is freed, without a sample and without backing off.
+         */
+        public void abandoned() {
+            abandoned.increment();
+            if (counted) {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void release(boolean failed) {
+            if (!counted) {
+                return;
+            }
+            inFlight.decrementAndGet();
+            long now = System.nanoTime();
+            onSample(now, now - start, inFlightAtStart, failed);
+        }
+    }
+}
@@ -5,11 +5,28 @@ import com.bitas.ecommerce.utils.AppConfig;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Fixed-size JDBC connection pool.
+ * Waiting uses a ReentrantLock/Condition instead of synchronized/wait so a virtual thread
+ * blocked on a connection unmounts from its carrier thread instead of pinning it.
+ * A borrower with a {@link RequestDeadline} waits no longer than its deadline. Borrowers running in a
+ * {@link Bulkhead} are held to its share of the connections.
+ */
 public class ConnectionPool {
-    private static final Vector<Connection> pool = new Vector<>();
-    private static final int POOL_SIZE = 5;
+    private static final Deque<Connection> pool = new ArrayDeque<>();
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition available = lock.newCondition();
+    // Bulkhead of each borrowed connection, guarded by lock
+    private static final Map<Connection, Bulkhead> borrowers = new IdentityHashMap<>();
+    public static final int POOL_SIZE = 5;
     private static final int TIMEOUT_MS = 10000; // 5s timeout khi chờ connection
 
     static {
@@ -31,44 +48,98 @@ public class ConnectionPool {
     }
 
     public static Connection getConnection() {
-        long startTime = System.currentTimeMillis();
+        Connection conn;
+        Bulkhead bulkhead = Bulkhead.current();
+        long waitStart = 0;
 
-        synchronized (pool) {
-            while (pool.isEmpty()) {
-                long elapsed = System.currentTimeMillis() - startTime;
-                if (elapsed > TIMEOUT_MS) {
+        RequestDeadline.check();
+        lock.lock();
+        try {
+            long remainingNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS), RequestDeadline.remainingNanos());
+            while (pool.isEmpty() || (bulkhead != null && !bulkhead.mayBorrow(pool.size()))) {
+                if (waitStart == 0) {
+                    waitStart = System.nanoTime();
+                }
+                if (remainingNanos <= 0) {
+                    RequestDeadline.check();
                     throw new RuntimeException("❌ Timeout waiting for a database connection");
                 }
                 try {
-                    pool.wait(TIMEOUT_MS - elapsed);
+                    remainingNanos = available.awaitNanos(remainingNanos);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     throw new RuntimeException("❌ Thread interrupted while waiting for DB connection", e);
                 }
             }
 
-            Connection conn = pool.remove(0);
+            conn = pool.pollFirst();
+            if (bulkhead != null) {
+                bulkhead.connectionTaken();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (bulkhead != null && waitStart != 0) {
+            bulkhead.recordConnectionWait(System.nanoTime() - waitStart);
+        }
 
+        // Validate outside the lock: isValid() is a network round trip
+        boolean valid;
+        try {
+            valid = conn != null && conn.isValid(2);
+        } catch (SQLException e) {
+            valid = false;
+        }
+        if (!valid) {
+            // Reconnect if connection is invalid
             try {
-                if (conn == null || !conn.isValid(2)) {
-                    // Reconnect if connection is invalid
-                    return recreateConnection();
-                }
-            } catch (SQLException e) {
-                return recreateConnection();
+                conn = recreateConnection();
+            } catch (RuntimeException e) {
+                returnShare(bulkhead);
+                throw e;
             }
+        }
 
-            return conn;
+        if (bulkhead != null) {
+            lock.lock();
+            try {
+                borrowers.put(conn, bulkhead);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return conn;
+    }
+
+    private static void returnShare(Bulkhead bulkhead) {
+        if (bulkhead == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            bulkhead.connectionReturned();
+            available.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
     public static void releaseConnection(Connection conn) {
         try {
-            if (conn != null && !conn.isClosed()) {
-                synchronized (pool) {
-                    pool.add(conn);
-                    pool.notify();
+            boolean reusable = conn != null && !conn.isClosed();
+            lock.lock();
+            try {
+                Bulkhead bulkhead = borrowers.remove(conn);
+                if (bulkhead != null) {
+                    bulkhead.connectionReturned();
+                }
+                if (reusable) {
+                    pool.addLast(conn);
                 }
+                // Waiters of other bulkheads may be the ones allowed to take it
+                available.signalAll();
+            } finally {
+                lock.unlock();
             }
         } catch (SQLException e) {
             throw new RuntimeException("❌ Error releasing database connection", e);
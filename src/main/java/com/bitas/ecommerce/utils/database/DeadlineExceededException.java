@@ -0,0 +1,17 @@
+package com.bitas.ecommerce.utils.database;
+
+/**
+ * Thrown when the request's deadline passed before its DB work was done: while waiting for a connection,
+ * or when the statement was cancelled or timed out. The router answers it with 504.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
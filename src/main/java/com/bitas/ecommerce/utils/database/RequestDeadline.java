@@ -0,0 +1,205 @@
+package com.bitas.ecommerce.utils.database;
+
+import com.bitas.ecommerce.utils.AppConfig;
+import com.bitas.ecommerce.utils.metrics.Metrics;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The deadline of the request being handled, for the DB work done on its behalf. The router sets it
+ * around a route's action from X-Request-Timeout or the route's default ({@link #timeoutMs}), and
+ * {@link Bulkhead} carries it over to the thread running the route's work.
+ * <p>
+ * The DB layer applies it in three places: {@link ConnectionPool} waits for a connection no longer than
+ * the time left, {@link #watch} gives each statement a query timeout and cancels it when the deadline
+ * passes, and {@link #rethrowIfExpired} turns the SQLException of a cancelled statement into
+ * {@link DeadlineExceededException}, answered with 504.
+ * The deadline runs from the moment the route starts; time spent waiting for a worker is bounded by
+ * admission control instead.
+ */
+public final class RequestDeadline {
+    private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+    private static final long DEFAULT_TIMEOUT_MS = AppConfig.getLong("server.request-timeout.default-ms", 0);
+    private static final long MAX_TIMEOUT_MS = AppConfig.getLong("server.request-timeout.max-ms", 30_000);
+
+    // Cancels statements still running when their deadline passes
+    private static final ScheduledThreadPoolExecutor CANCELLER = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "db-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final LongAdder cancelled = Metrics.getInstance().counter("db.deadline.cancelled");
+    private static final LongAdder exceeded = Metrics.getInstance().counter("db.deadline.exceeded");
+
+    static {
+        CANCELLER.setRemoveOnCancelPolicy(true);
+    }
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Timeout for a request: the X-Request-Timeout asked by the client (milliseconds, or with an ms or s
+     * suffix), no longer than the route's default when it has one, else than server.request-timeout.max-ms.
+     * Without the header, the route's default or server.request-timeout.default-ms.
+     *
+     * @param header         X-Request-Timeout, null when absent
+     * @param routeDefaultMs The route's timeout, 0 for none
+     * @return Milliseconds, 0 for no deadline
+     */
+    public static long timeoutMs(String header, long routeDefaultMs) {
+        long limit = routeDefaultMs > 0 ? routeDefaultMs : DEFAULT_TIMEOUT_MS;
+        long requested = parse(header);
+        if (requested <= 0) {
+            return limit;
+        }
+        return Math.min(requested, limit > 0 ? limit : MAX_TIMEOUT_MS);
+    }
+
+    private static long parse(String header) {
+        if (header == null) {
+            return 0;
+        }
+        String value = header.trim().toLowerCase(Locale.ROOT);
+        long scale = 1;
+        if (value.endsWith("ms")) {
+            value = value.substring(0, value.length() - 2).trim();
+        } else if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1).trim();
+            scale = 1000;
+        }
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * scale));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Run the work with the given deadline set on this thread, restoring the previous one afterwards.
+     *
+     * @param deadlineNanos System.nanoTime() by which the work must be done, 0 for none
+     */
+    public static <T> T call(long deadlineNanos, Supplier<T> work) {
+        Long previous = CURRENT.get();
+        if (deadlineNanos == 0) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadlineNanos);
+        }
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * The work, to run on another thread under the deadline of the calling one. Refused with
+     * {@link DeadlineExceededException} when the deadline passed while it was queued.
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> work) {
+        long deadline = current();
+        if (deadline == 0) {
+            return work;
+        }
+        return () -> call(deadline, () -> {
+            check();
+            return work.get();
+        });
+    }
+
+    /**
+     * @return The deadline of this thread as a System.nanoTime() value, 0 when it has none
+     */
+    public static long current() {
+        Long deadline = CURRENT.get();
+        return deadline != null ? deadline : 0;
+    }
+
+    /**
+     * @return Nanoseconds left, Long.MAX_VALUE when there is no deadline
+     */
+    public static long remainingNanos() {
+        long deadline = current();
+        return deadline == 0 ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    public static boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException when the deadline has passed
+     */
+    public static void check() {
+        if (isExpired()) {
+            exceeded.increment();
+            throw new DeadlineExceededException("Request deadline exceeded");
+        }
+    }
+
+    /**
+     * Give the statement the time left as its query timeout, and cancel it if it still runs when the
+     * deadline passes (the query timeout only has a granularity of seconds). Cancel the watch in a finally
+     * once the statement is done, before the statement itself is closed.
+     *
+     * @throws DeadlineExceededException when the deadline has already passed
+     */
+    public static Watch watch(Statement statement) throws SQLException {
+        long remaining = remainingNanos();
+        if (remaining == Long.MAX_VALUE) {
+            return Watch.NONE;
+        }
+        check();
+        statement.setQueryTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + 999_999_999L)));
+        ScheduledFuture<?> cancel = CANCELLER.schedule(() -> {
+            try {
+                cancelled.increment();
+                statement.cancel();
+            } catch (SQLException e) {
+                System.err.println("❗ Error cancelling statement: " + e.getMessage());
+            }
+        }, remaining, TimeUnit.NANOSECONDS);
+        return () -> cancel.cancel(false);
+    }
+
+    /**
+     * Report a failed statement as a missed deadline when that is why it failed (cancelled or timed out).
+     *
+     * @throws DeadlineExceededException when the deadline has passed
+     */
+    public static void rethrowIfExpired(SQLException e) {
+        if (isExpired()) {
+            exceeded.increment();
+            throw new DeadlineExceededException("Request deadline exceeded: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The pending cancellation of a statement.
+     */
+    @FunctionalInterface
+    public interface Watch {
+        Watch NONE = () -> {
+        };
+
+        /**
+         * Drop the pending cancellation; the statement is done.
+         */
+        void cancel();
+    }
+}